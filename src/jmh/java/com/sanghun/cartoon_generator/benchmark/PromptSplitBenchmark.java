@@ -0,0 +1,61 @@
+package com.sanghun.cartoon_generator.benchmark;
+
+import com.sanghun.cartoon_generator.service.PromptStreamSplitter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Splitting Gemini output into panel prompts: the one-shot split used for {@code generateContent} against the
+ * incremental {@link PromptStreamSplitter} fed streaming-sized chunks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PromptSplitBenchmark {
+
+    @Param({"64", "512"})
+    public int chunkSize;
+
+    private String text;
+    private List<String> chunks;
+
+    @Setup
+    public void setUp() {
+        text = String.join("\n---\n", IntStream.rangeClosed(1, 10)
+                .mapToObj(i -> "Style: charming children's book illustration. Subject: Luna the Rabbit with a white patch "
+                        + "over the left ear and a vintage leather camera, scene " + i + ". Context: pastel greens, "
+                        + "yellows, peach highlights. --no outfit changes, --no different fur colors")
+                .toList());
+        chunks = new ArrayList<>();
+        for (int i = 0; i < text.length(); i += chunkSize) {
+            chunks.add(text.substring(i, Math.min(text.length(), i + chunkSize)));
+        }
+    }
+
+    @Benchmark
+    public List<String> splitComplete() {
+        return Arrays.stream(text.split("---")).map(String::trim).filter(s -> !s.isEmpty()).toList();
+    }
+
+    @Benchmark
+    public void splitStreamed(Blackhole blackhole) {
+        PromptStreamSplitter splitter = new PromptStreamSplitter();
+        for (String chunk : chunks) {
+            blackhole.consume(splitter.append(chunk));
+        }
+        blackhole.consume(splitter.finish());
+    }
+}
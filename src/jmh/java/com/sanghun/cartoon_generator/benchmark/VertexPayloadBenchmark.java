@@ -0,0 +1,85 @@
+package com.sanghun.cartoon_generator.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sanghun.cartoon_generator.dto.GeminiResponse;
+import com.sanghun.cartoon_generator.dto.ImagenRequest;
+import com.sanghun.cartoon_generator.dto.ImagenResponse;
+import com.sanghun.cartoon_generator.dto.Instance;
+import com.sanghun.cartoon_generator.dto.Parameters;
+import com.sanghun.cartoon_generator.dto.Prediction;
+import com.sanghun.cartoon_generator.service.ImagenResponseReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Per-call costs on the Vertex AI path: encoding Imagen requests and decoding Gemini and Imagen responses. Imagen
+ * responses are read by the streaming {@link ImagenResponseReader}, which decodes the base64 image while parsing;
+ * {@code bindImagenResponse} is the data-binding baseline it replaced. Panels reach clients as URLs
+ * ({@code PanelResult.imageUrl}), so this decode is the only base64 work left per panel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VertexPayloadBenchmark {
+
+    @Param({"1500000"})
+    public int imageBytes;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ImagenRequest imagenRequest;
+    private byte[] geminiResponseJson;
+    private byte[] imagenResponseJson;
+
+    @Setup
+    public void setUp() throws Exception {
+        imagenRequest = ImagenRequest.fromInstances(IntStream.range(0, 4)
+                .mapToObj(i -> Instance.fromPrompt("Style: digital art, whimsical and vibrant. Subject: Bruno the Bear "
+                        + "giving Luna the Rabbit a flower, panel " + i + ". Context: in a sun-dappled forest clearing."))
+                .toList(), new Parameters(1, true));
+
+        String story = String.join("\n---\n", IntStream.rangeClosed(1, 10)
+                .mapToObj(i -> "Style: Studio Ghibli anime style. Subject: Bruno the Bear, chestnut-brown fur, hazel eyes "
+                        + "and a mint-green knit scarf, in scene " + i + ". Context: eye-level three-quarter view.")
+                .toList());
+        geminiResponseJson = objectMapper.writeValueAsBytes(Map.of("candidates", List.of(Map.of("content",
+                Map.of("role", "model", "parts", List.of(Map.of("text", story)))))));
+
+        byte[] image = new byte[imageBytes];
+        new Random(42).nextBytes(image);
+        imagenResponseJson = objectMapper.writeValueAsBytes(
+                new ImagenResponse(List.of(new Prediction(image, "image/png"))));
+    }
+
+    @Benchmark
+    public byte[] serializeImagenRequest() throws Exception {
+        return objectMapper.writeValueAsBytes(imagenRequest);
+    }
+
+    @Benchmark
+    public GeminiResponse deserializeGeminiResponse() throws Exception {
+        return objectMapper.readValue(geminiResponseJson, GeminiResponse.class);
+    }
+
+    @Benchmark
+    public ImagenResponse bindImagenResponse() throws Exception {
+        return objectMapper.readValue(imagenResponseJson, ImagenResponse.class);
+    }
+
+    @Benchmark
+    public ImagenResponse streamImagenResponse() throws Exception {
+        return ImagenResponseReader.read(new ByteArrayInputStream(imagenResponseJson));
+    }
+}
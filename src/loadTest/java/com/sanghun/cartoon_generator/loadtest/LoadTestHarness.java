@@ -0,0 +1,220 @@
+package com.sanghun.cartoon_generator.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.sanghun.cartoon_generator.CartoonGeneratorApplication;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Boots the application against a {@link MockVertexServer}, drives {@code loadtest.clients} concurrent SSE clients
+ * through {@code /generate} and reports stories per minute, time to first panel and completion latency. Stories use
+ * the story profile named by {@code loadtest.profile}, or the default one.
+ * <p>
+ * Thresholds ({@code loadtest.min-stories-per-minute}, {@code loadtest.max-p99-completion},
+ * {@code loadtest.max-failure-rate}) turn the run into a CI gate: the process exits with status 1 when one is missed.
+ * All {@code cartoon.*} system properties reach the application, so tuning knobs can be compared run against run.
+ */
+@Slf4j
+public class LoadTestHarness {
+
+    private record StoryResult(boolean success, boolean rejected, int panels, int panelStatuses,
+            long firstPanelMillis, long completionMillis) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = Integer.getInteger("loadtest.clients", 10);
+        int storiesPerClient = Integer.getInteger("loadtest.stories-per-client", 3);
+        Path workDir = Files.createTempDirectory("cartoon-loadtest");
+
+        Map<String, Object> report;
+        try (MockVertexServer mock = new MockVertexServer(MockVertexServer.Settings.fromSystemProperties()).start();
+             ConfigurableApplicationContext app = startApplication(mock, workDir)) {
+            int port = app.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+            long start = System.nanoTime();
+            List<StoryResult> results = drive(URI.create("http://127.0.0.1:" + port), clients, storiesPerClient);
+            Duration wall = Duration.ofNanos(System.nanoTime() - start);
+            report = report(results, wall, clients, mock);
+        }
+
+        ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        Path reportFile = Path.of(System.getProperty("loadtest.report", "build/reports/loadtest/results.json"));
+        Files.createDirectories(reportFile.toAbsolutePath().getParent());
+        objectMapper.writeValue(reportFile.toFile(), report);
+        log.info("Load test report ({}):\n{}", reportFile, objectMapper.writeValueAsString(report));
+
+        List<String> violations = checkThresholds(report);
+        violations.forEach(violation -> log.error("Threshold missed: {}", violation));
+        System.exit(violations.isEmpty() ? 0 : 1);
+    }
+
+    private static ConfigurableApplicationContext startApplication(MockVertexServer mock, Path workDir) {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("server.port", 0);
+        properties.put("google.cloud.project-id", "loadtest");
+        properties.put("google.cloud.region", "us-central1");
+        properties.put("google.cloud.imagen-model-id", "imagen-mock");
+        properties.put("google.cloud.gemini-model-id", "gemini-mock");
+        properties.put("google.cloud.endpoint", mock.getBaseUrl());
+        properties.put("cartoon.vertex.auth.enabled", false);
+        properties.put("cartoon.jobs.store-dir", workDir.resolve("jobs").toString());
+        properties.put("cartoon.panels.store-dir", workDir.resolve("panels").toString());
+        properties.put("spring.devtools.restart.enabled", false);
+        // Stories differ only by a UUID; near-duplicate reuse would serve most of them from the cache.
+        properties.put("cartoon.semantic-cache.enabled", false);
+        // Every simulated client comes from 127.0.0.1; tell them apart for the per-client admission limit.
+        properties.put("cartoon.admission.client-header", "X-Forwarded-For");
+        // Set as system properties so they override application.properties, unless given on the command line.
+        properties.forEach((key, value) -> System.getProperties().putIfAbsent(key, value.toString()));
+        return new SpringApplicationBuilder(CartoonGeneratorApplication.class).run();
+    }
+
+    private static List<StoryResult> drive(URI baseUri, int clients, int storiesPerClient) throws Exception {
+        HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        List<StoryResult> results = Collections.synchronizedList(new ArrayList<>());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int client = 0; client < clients; client++) {
+                String clientAddress = "10.0." + (client / 250) + "." + (client % 250 + 1);
+                futures.add(executor.submit(() -> {
+                    for (int story = 0; story < storiesPerClient; story++) {
+                        results.add(runStory(httpClient, baseUri, clientAddress));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        return results;
+    }
+
+    private static StoryResult runStory(HttpClient httpClient, URI baseUri, String clientAddress) {
+        // A unique idea per story keeps the prompt and image caches from short-circuiting the run.
+        String idea = "A bear and a rabbit go on adventure " + UUID.randomUUID();
+        String profile = System.getProperty("loadtest.profile", "");
+        HttpRequest request = HttpRequest.newBuilder(baseUri.resolve("/generate?prompt="
+                        + URLEncoder.encode(idea, StandardCharsets.UTF_8)
+                        + (profile.isBlank() ? "" : "&profile=" + URLEncoder.encode(profile, StandardCharsets.UTF_8))))
+                .header("Accept", "text/event-stream")
+                .header("X-Forwarded-For", clientAddress)
+                .timeout(Duration.ofMinutes(10))
+                .build();
+        long start = System.nanoTime();
+        long firstPanel = -1;
+        int panels = 0;
+        // Hedged, regenerated and failed panels
+        int panelStatuses = 0;
+        try {
+            HttpResponse<Stream<String>> response = httpClient.send(request, HttpResponse.BodyHandlers.ofLines());
+            try (Stream<String> lines = response.body()) {
+                if (response.statusCode() == 429) {
+                    return new StoryResult(false, true, 0, 0, -1, (System.nanoTime() - start) / 1_000_000);
+                }
+                Iterator<String> iterator = lines.iterator();
+                while (iterator.hasNext()) {
+                    String line = iterator.next();
+                    if (!line.startsWith("event:")) {
+                        continue;
+                    }
+                    String event = line.substring("event:".length()).trim();
+                    long elapsed = (System.nanoTime() - start) / 1_000_000;
+                    if ("panel".equals(event)) {
+                        panels++;
+                        if (firstPanel < 0) {
+                            firstPanel = elapsed;
+                        }
+                    } else if ("panel-status".equals(event)) {
+                        panelStatuses++;
+                    } else if ("complete".equals(event)) {
+                        return new StoryResult(true, false, panels, panelStatuses, firstPanel, elapsed);
+                    } else if ("error".equals(event)) {
+                        return new StoryResult(false, false, panels, panelStatuses, firstPanel, elapsed);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Story request failed: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return new StoryResult(false, false, panels, panelStatuses, firstPanel, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static Map<String, Object> report(List<StoryResult> results, Duration wall, int clients,
+            MockVertexServer mock) {
+        List<StoryResult> completed = results.stream().filter(StoryResult::success).toList();
+        // Stories turned away with 429 are load shedding working as intended, not failures.
+        long rejected = results.stream().filter(StoryResult::rejected).count();
+        long admitted = results.size() - rejected;
+        List<Long> firstPanel = completed.stream().map(StoryResult::firstPanelMillis).filter(ms -> ms >= 0).sorted().toList();
+        List<Long> completion = completed.stream().map(StoryResult::completionMillis).sorted().toList();
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("clients", clients);
+        report.put("stories", results.size());
+        report.put("completed", completed.size());
+        report.put("rejected", rejected);
+        report.put("failureRate", admitted == 0 ? 0 : (double) (admitted - completed.size()) / admitted);
+        report.put("wallSeconds", wall.toMillis() / 1000.0);
+        report.put("storiesPerMinute", completed.size() * 60_000.0 / Math.max(wall.toMillis(), 1));
+        report.put("panels", completed.stream().mapToInt(StoryResult::panels).sum());
+        report.put("panelStatusEvents", results.stream().mapToInt(StoryResult::panelStatuses).sum());
+        report.put("firstPanelP50Ms", percentile(firstPanel, 0.50));
+        report.put("firstPanelP99Ms", percentile(firstPanel, 0.99));
+        report.put("completionP50Ms", percentile(completion, 0.50));
+        report.put("completionP99Ms", percentile(completion, 0.99));
+        report.put("mockRequests", mock.getRequests());
+        report.put("mockInjectedErrors", mock.getInjectedErrors());
+        return report;
+    }
+
+    private static List<String> checkThresholds(Map<String, Object> report) {
+        List<String> violations = new ArrayList<>();
+        String minRate = System.getProperty("loadtest.min-stories-per-minute");
+        if (minRate != null && (double) report.get("storiesPerMinute") < Double.parseDouble(minRate)) {
+            violations.add("storiesPerMinute " + report.get("storiesPerMinute") + " < " + minRate);
+        }
+        String maxP99 = System.getProperty("loadtest.max-p99-completion");
+        if (maxP99 != null && (long) report.get("completionP99Ms") > Duration.parse(maxP99).toMillis()) {
+            violations.add("completionP99Ms " + report.get("completionP99Ms") + " > " + maxP99);
+        }
+        String maxFailureRate = System.getProperty("loadtest.max-failure-rate");
+        if (maxFailureRate != null && ((Number) report.get("failureRate")).doubleValue() > Double.parseDouble(maxFailureRate)) {
+            violations.add("failureRate " + report.get("failureRate") + " > " + maxFailureRate);
+        }
+        return violations;
+    }
+
+    private static long percentile(List<Long> sorted, double quantile) {
+        if (sorted.isEmpty()) {
+            return -1;
+        }
+        int rank = (int) Math.ceil(quantile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, rank)));
+    }
+}
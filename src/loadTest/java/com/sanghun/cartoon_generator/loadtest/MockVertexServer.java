@@ -0,0 +1,273 @@
+package com.sanghun.cartoon_generator.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for the Vertex AI {@code :predict}, {@code :generateContent} and {@code :streamGenerateContent}
+ * endpoints. Latency follows a log-normal distribution fitted to a median and a p99, a share of requests is
+ * answered with 429 (RESOURCE_EXHAUSTED) or 503, a share of images is withheld as if safety-filtered, and images are
+ * decodable noise PNGs of a realistic size.
+ * <p>
+ * Story prompts echo a hash of the request, so distinct story ideas get distinct prompts and do not all hit the
+ * application's caches, and come in the number the request asks for: as {@code ---}-separated prompts, or as a JSON
+ * story sheet when the request asks for JSON.
+ */
+@Slf4j
+public class MockVertexServer implements AutoCloseable {
+
+    private static final int IMAGE_VARIANTS = 8;
+    private static final int STREAM_CHUNKS = 5;
+    private static final int DEFAULT_PANELS = 10;
+    private static final Pattern PANEL_COUNT = Pattern.compile("a (\\d+)-panel ");
+
+    public record Settings(Latency imagenLatency, Latency geminiLatency, double throttleRate, double serverErrorRate,
+            double filterRate, int imageBytes) {
+
+        static Settings fromSystemProperties() {
+            return new Settings(
+                    new Latency(duration("loadtest.mock.imagen-median", "PT4S"), duration("loadtest.mock.imagen-p99", "PT12S")),
+                    new Latency(duration("loadtest.mock.gemini-median", "PT6S"), duration("loadtest.mock.gemini-p99", "PT15S")),
+                    Double.parseDouble(System.getProperty("loadtest.mock.throttle-rate", "0.02")),
+                    Double.parseDouble(System.getProperty("loadtest.mock.server-error-rate", "0.01")),
+                    Double.parseDouble(System.getProperty("loadtest.mock.filter-rate", "0.02")),
+                    Integer.parseInt(System.getProperty("loadtest.mock.image-bytes", "1500000")));
+        }
+
+        private static Duration duration(String property, String defaultValue) {
+            return Duration.parse(System.getProperty(property, defaultValue));
+        }
+    }
+
+    /**
+     * Log-normal latency with the given median and 99th percentile.
+     */
+    public record Latency(Duration median, Duration p99) {
+
+        private static final double Z_99 = 2.326;
+
+        long sampleMillis() {
+            double medianMillis = Math.max(1, median.toMillis());
+            double sigma = Math.log(Math.max(medianMillis, p99.toMillis()) / medianMillis) / Z_99;
+            return (long) (medianMillis * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+        }
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Settings settings;
+    private final HttpServer server;
+    private final List<String> images = new ArrayList<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+
+    public MockVertexServer(Settings settings) throws IOException {
+        this.settings = settings;
+        for (int i = 0; i < IMAGE_VARIANTS; i++) {
+            images.add(Base64.getEncoder().encodeToString(noisePng(settings.imageBytes())));
+        }
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", this::handle);
+    }
+
+    public MockVertexServer start() {
+        server.start();
+        log.info("Mock Vertex AI listening on {}", getBaseUrl());
+        return this;
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getInjectedErrors() {
+        return injectedErrors.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            String path = exchange.getRequestURI().getPath();
+            JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+
+            if (path.endsWith(":predict")) {
+                sleep(settings.imagenLatency().sampleMillis());
+                if (!injectError(exchange)) {
+                    respondJson(exchange, predict(request));
+                }
+            } else if (path.endsWith(":generateContent")) {
+                sleep(settings.geminiLatency().sampleMillis());
+                if (!injectError(exchange)) {
+                    respondJson(exchange, geminiResponse(storyText(request)));
+                }
+            } else if (path.endsWith(":streamGenerateContent")) {
+                streamGenerateContent(exchange, request);
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+            }
+        }
+    }
+
+    private ObjectNode predict(JsonNode request) {
+        int instances = request.path("instances").size();
+        int sampleCount = Math.max(1, request.path("parameters").path("sampleCount").asInt(1));
+        ObjectNode response = objectMapper.createObjectNode();
+        ArrayNode predictions = response.putArray("predictions");
+        for (int i = 0; i < instances * sampleCount; i++) {
+            if (ThreadLocalRandom.current().nextDouble() < settings.filterRate()) {
+                predictions.addObject().put("raiFilteredReason", "Filtered by the mock safety policy");
+                continue;
+            }
+            predictions.addObject()
+                    .put("bytesBase64Encoded", images.get(ThreadLocalRandom.current().nextInt(images.size())))
+                    .put("mimeType", "image/png");
+        }
+        return response;
+    }
+
+    private void streamGenerateContent(HttpExchange exchange, JsonNode request) throws IOException {
+        // Time to first token, then the rest of the latency spread across the chunks.
+        long latency = settings.geminiLatency().sampleMillis();
+        sleep(latency / STREAM_CHUNKS);
+        if (injectError(exchange)) {
+            return;
+        }
+        String text = storyText(request);
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream body = exchange.getResponseBody();
+        int chunkLength = (text.length() + STREAM_CHUNKS - 1) / STREAM_CHUNKS;
+        for (int start = 0; start < text.length(); start += chunkLength) {
+            String chunk = text.substring(start, Math.min(text.length(), start + chunkLength));
+            body.write(("data: " + objectMapper.writeValueAsString(geminiResponse(chunk)) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            body.flush();
+            sleep(latency / STREAM_CHUNKS);
+        }
+    }
+
+    private String storyText(JsonNode request) {
+        String prompt = request.path("contents").path(0).path("parts").path(0).path("text").asText();
+        String story = Integer.toHexString(prompt.hashCode());
+        Matcher count = PANEL_COUNT.matcher(prompt);
+        int panels = count.find() ? Integer.parseInt(count.group(1)) : DEFAULT_PANELS;
+        if ("application/json".equals(request.path("generationConfig").path("responseMimeType").asText())) {
+            return storySheet(story, panels);
+        }
+        List<String> prompts = new ArrayList<>(panels);
+        for (int i = 1; i <= panels; i++) {
+            prompts.add("Style: digital art, whimsical and vibrant. Subject: Bruno the Bear in scene " + i + " of story "
+                    + story + ". Context: in a sun-dappled forest clearing.");
+        }
+        return String.join("\n---\n", prompts);
+    }
+
+    private String storySheet(String story, int panels) {
+        ObjectNode sheet = objectMapper.createObjectNode();
+        sheet.put("style", "digital art, whimsical and vibrant");
+        sheet.put("palette", "pastel greens, yellows, peach highlights");
+        sheet.put("camera", "eye-level three-quarter view");
+        sheet.put("negative", "outfit changes, different fur colors");
+        sheet.putArray("characters").addObject()
+                .put("name", "Bruno the Bear")
+                .put("appearance", "a tall bear with chestnut-brown fur, hazel eyes and a mint-green knit scarf");
+        ArrayNode scenes = sheet.putArray("panels");
+        for (int i = 1; i <= panels; i++) {
+            ObjectNode scene = scenes.addObject();
+            scene.putArray("characters").add("Bruno the Bear");
+            scene.put("subject", "Bruno the Bear in scene " + i + " of story " + story);
+            scene.put("context", "in a sun-dappled forest clearing");
+        }
+        return sheet.toString();
+    }
+
+    private ObjectNode geminiResponse(String text) {
+        ObjectNode response = objectMapper.createObjectNode();
+        ObjectNode content = response.putArray("candidates").addObject().putObject("content");
+        content.put("role", "model");
+        content.putArray("parts").addObject().put("text", text);
+        return response;
+    }
+
+    private boolean injectError(HttpExchange exchange) throws IOException {
+        double roll = ThreadLocalRandom.current().nextDouble();
+        if (roll < settings.throttleRate()) {
+            injectedErrors.incrementAndGet();
+            respond(exchange, 429, "{\"error\":{\"code\":429,\"message\":\"Quota exceeded\",\"status\":\"RESOURCE_EXHAUSTED\"}}");
+            return true;
+        }
+        if (roll < settings.throttleRate() + settings.serverErrorRate()) {
+            injectedErrors.incrementAndGet();
+            respond(exchange, 503, "{\"error\":{\"code\":503,\"message\":\"Service unavailable\",\"status\":\"UNAVAILABLE\"}}");
+            return true;
+        }
+        return false;
+    }
+
+    private void respondJson(HttpExchange exchange, JsonNode body) throws IOException {
+        respond(exchange, 200, objectMapper.writeValueAsString(body));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    /**
+     * A decodable PNG of roughly {@code bytes} bytes. Random pixels barely compress, at about 3 bytes each.
+     */
+    private static byte[] noisePng(int bytes) throws IOException {
+        int side = Math.max(16, (int) Math.sqrt(bytes / 3.0));
+        BufferedImage image = new BufferedImage(side, side, BufferedImage.TYPE_INT_RGB);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int y = 0; y < side; y++) {
+            for (int x = 0; x < side; x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes);
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,27 +1,101 @@
 package com.sanghun.cartoon_generator.config;
 
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.core.task.TaskExecutor;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
 
 @Configuration
+@EnableConfigurationProperties(StoryProfileProperties.class)
 public class AppConfig {
 
+    /**
+     * Reactor Netty client shared by all Vertex AI calls; {@code StartupWarmup} warms it up before the node reports
+     * ready.
+     */
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public HttpClient vertexAiHttpClient(
+            @Value("${cartoon.vertex.http.max-connections:200}") int maxConnections,
+            @Value("${cartoon.vertex.http.pending-acquire-timeout:PT30S}") Duration pendingAcquireTimeout,
+            @Value("${cartoon.vertex.http.max-idle-time:PT60S}") Duration maxIdleTime,
+            @Value("${cartoon.vertex.http.connect-timeout:PT10S}") Duration connectTimeout) {
+        ConnectionProvider connectionProvider = ConnectionProvider.builder("vertex-ai")
+                .maxConnections(maxConnections)
+                .pendingAcquireTimeout(pendingAcquireTimeout)
+                .maxIdleTime(maxIdleTime)
+                .evictInBackground(Duration.ofSeconds(30))
+                .build();
+        return HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+                .compress(true);
+    }
+
+    @Bean
+    public WebClient vertexAiWebClient(WebClient.Builder builder, HttpClient vertexAiHttpClient,
+            @Value("${cartoon.vertex.http.max-in-memory-size:33554432}") int maxInMemorySize) {
+        // Imagen responses carry multi-megabyte base64 images, well above the 256 KB codec default.
+        return builder
+                .clientConnector(new ReactorClientHttpConnector(vertexAiHttpClient))
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(maxInMemorySize))
+                .build();
     }
 
     @Bean("taskExecutor")
-    public TaskExecutor taskExecutor() {
+    public TaskExecutor taskExecutor(@Value("${cartoon.execution.mode:virtual}") ExecutionMode executionMode,
+            @Value("${cartoon.admission.max-running:8}") int maxRunning,
+            @Value("${cartoon.shutdown.checkpoint-timeout:PT10S}") Duration shutdownGrace) {
+        if (executionMode == ExecutionMode.VIRTUAL) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("Async-");
+            executor.setVirtualThreads(true);
+            executor.setTaskTerminationTimeout(shutdownGrace.toMillis());
+            return executor;
+        }
+
+        // GenerationAdmission bounds the stories in flight and queues the rest itself; a finishing story may hand
+        // its slot on before its own thread is free, hence the (in practice tiny) unbounded queue.
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(10);
-        executor.setMaxPoolSize(10);
-        executor.setQueueCapacity(25);
+        executor.setCorePoolSize(maxRunning);
+        executor.setMaxPoolSize(maxRunning);
         executor.setThreadNamePrefix("Async-");
+        // GenerationShutdown drains or checkpoints the stories first; this only covers what is left after it.
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationMillis(shutdownGrace.toMillis());
         executor.initialize();
         return executor;
     }
-}
\ No newline at end of file
+
+    /**
+     * Scheduler for the few blocking steps left in the reactive Vertex AI path (token refresh, waiting for a
+     * concurrency permit), so they never run on a Netty event loop.
+     */
+    @Bean(destroyMethod = "dispose")
+    public Scheduler blockingScheduler(@Value("${cartoon.execution.mode:virtual}") ExecutionMode executionMode) {
+        if (executionMode == ExecutionMode.VIRTUAL) {
+            return Schedulers.fromExecutorService(Executors.newVirtualThreadPerTaskExecutor(), "vertex-blocking");
+        }
+        return Schedulers.newBoundedElastic(Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE,
+                Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, "vertex-blocking");
+    }
+
+    /**
+     * Fixed-size pool for CPU-bound image decoding, resizing and encoding, kept apart from the I/O-bound Vertex AI
+     * path so a burst of panels cannot starve it (or the other way round). 0 threads means one per core.
+     */
+    @Bean(destroyMethod = "dispose")
+    public Scheduler imageScheduler(@Value("${cartoon.images.threads:0}") int threads) {
+        return Schedulers.newParallel("panel-image", threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+    }
+}
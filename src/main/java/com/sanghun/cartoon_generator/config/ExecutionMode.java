@@ -0,0 +1,12 @@
+package com.sanghun.cartoon_generator.config;
+
+/**
+ * How the generation pipeline runs its blocking work: story tasks, SSE sends, token refreshes and waits for a
+ * Vertex AI permit.
+ */
+public enum ExecutionMode {
+    /** A fixed pool of platform threads; the number of concurrent stories is bounded by the pool size. */
+    PLATFORM,
+    /** One virtual thread per task; concurrency toward Vertex AI is bounded by {@code VertexConcurrencyLimiter}. */
+    VIRTUAL
+}
@@ -0,0 +1,38 @@
+package com.sanghun.cartoon_generator.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Story profiles a request can pick with {@code /generate?profile=...}, e.g. a short draft or a long-form story.
+ * Each one fixes the story length and its own Imagen model, resolution, batch size and concurrency cap. A blank model
+ * or a zero batch size falls back to the global {@code google.cloud.imagen-model-id} and
+ * {@code cartoon.imagen.batch.max-size}; a zero concurrency cap leaves the profile capped only by the node-wide
+ * {@code cartoon.vertex.max-concurrency}.
+ */
+@Data
+@ConfigurationProperties(prefix = "cartoon.story")
+public class StoryProfileProperties {
+
+    private String defaultProfile = "standard";
+
+    private Map<String, Profile> profiles = new LinkedHashMap<>();
+
+    @Data
+    public static class Profile {
+        private int panels = 10;
+
+        private String imagenModelId = "";
+
+        // Imagen sampleImageSize, e.g. "1K" or "2K"; blank leaves it to the model.
+        private String imageSize = "";
+
+        private int batchSize;
+
+        // Imagen calls in flight for all stories of this profile on this node; 0 for no cap of its own.
+        private int maxConcurrency;
+    }
+}
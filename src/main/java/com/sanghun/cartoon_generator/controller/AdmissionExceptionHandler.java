@@ -0,0 +1,28 @@
+package com.sanghun.cartoon_generator.controller;
+
+import com.sanghun.cartoon_generator.service.AdmissionRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * Answers rejected stories with {@code 429 Too Many Requests} and a {@code Retry-After}, before any SSE stream is
+ * opened, so clients and load balancers can back off instead of holding a connection open.
+ */
+@RestControllerAdvice
+public class AdmissionExceptionHandler {
+
+    @ExceptionHandler(AdmissionRejectedException.class)
+    public ResponseEntity<String> handleRejected(AdmissionRejectedException e) {
+        long retryAfterSeconds = Math.max(1, (e.getRetryAfter().toMillis() + 999) / 1000);
+        // The content type is set explicitly so it is used as is, even for a client that only accepts
+        // text/event-stream.
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds))
+                .contentType(MediaType.TEXT_PLAIN)
+                .body(e.getMessage());
+    }
+}
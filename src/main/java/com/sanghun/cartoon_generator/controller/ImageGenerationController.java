@@ -1,31 +1,150 @@
 package com.sanghun.cartoon_generator.controller;
 
-import com.sanghun.cartoon_generator.dto.PanelResult;
-import com.sanghun.cartoon_generator.service.ImageGenerationService;
+import com.sanghun.cartoon_generator.dto.GenerationJob;
+import com.sanghun.cartoon_generator.dto.JobEvent;
+import com.sanghun.cartoon_generator.service.GenerationAdmission;
+import com.sanghun.cartoon_generator.service.GenerationJobStore;
+import com.sanghun.cartoon_generator.service.GenerationMetrics;
+import com.sanghun.cartoon_generator.service.StoryProfile;
+import com.sanghun.cartoon_generator.service.StoryProfiles;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.util.List;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
 
+@Slf4j
 @Controller
 @RequiredArgsConstructor
 public class ImageGenerationController {
 
-    private final ImageGenerationService imageGenerationService;
+    private static final String LAST_EVENT_ID = "Last-Event-ID";
+
+    private final GenerationAdmission admission;
+    private final GenerationJobStore jobStore;
+    private final GenerationMetrics metrics;
+    private final StoryProfiles storyProfiles;
 
     @GetMapping("/")
-    public String index() {
+    public String index(Model model) {
+        model.addAttribute("profiles", storyProfiles.all());
+        model.addAttribute("defaultProfile", storyProfiles.getDefault().name());
         return "index";
     }
 
     @GetMapping("/generate")
-    public SseEmitter generateImage(@RequestParam String prompt) {
+    public SseEmitter generateImage(@RequestParam String prompt,
+            @RequestParam(required = false) String profile,
+            @RequestParam(required = false) String sequelOf,
+            @RequestHeader(value = LAST_EVENT_ID, required = false) String lastEventId,
+            HttpServletRequest request) {
+        // A reconnecting EventSource repeats the original URL; continue that job instead of starting a new one.
+        JobCursor cursor = JobCursor.parse(lastEventId);
+        if (cursor != null && jobStore.find(cursor.jobId()).isPresent()) {
+            admission.resume(cursor.jobId());
+            return streamJob(cursor.jobId(), cursor.seq());
+        }
+
+        StoryProfile storyProfile;
+        try {
+            storyProfile = storyProfiles.require(profile);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        // A sequel reuses the characters and style of an earlier story, which needs that story's sheet.
+        if (sequelOf != null && !GenerationJobStore.isJobId(sequelOf)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Not a job id: " + sequelOf);
+        }
+        if (sequelOf != null && jobStore.find(sequelOf).map(GenerationJob::getSheet).isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "No story sheet to continue for job " + sequelOf);
+        }
+        // Turned away with 429 and Retry-After when this node is saturated; see AdmissionExceptionHandler.
+        GenerationJob job = admission.admitNew(admission.clientId(request),
+                () -> jobStore.createOrJoin(prompt, storyProfile.name(), sequelOf));
+        return streamJob(job.getId(), 0);
+    }
+
+    @GetMapping("/jobs/{jobId}/events")
+    public SseEmitter jobEvents(@PathVariable String jobId,
+            @RequestHeader(value = LAST_EVENT_ID, required = false) String lastEventId) {
+        if (!GenerationJobStore.isJobId(jobId) || jobStore.find(jobId).isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown job");
+        }
+        JobCursor cursor = JobCursor.parse(lastEventId);
+        long afterSeq = cursor != null && cursor.jobId().equals(jobId) ? cursor.seq() : 0;
+        // Picks the job up again if no node is running it any more; a no-op otherwise.
+        admission.resume(jobId);
+        return streamJob(jobId, afterSeq);
+    }
+
+    private SseEmitter streamJob(String jobId, long afterSeq) {
         SseEmitter emitter = new SseEmitter(30 * 60 * 1000L); // 30 minutes timeout
-        imageGenerationService.generateCartoonPanelsWithProgress(prompt, emitter);
+        Consumer<JobEvent> listener = event -> send(emitter, jobId, event);
+        emitter.onCompletion(() -> jobStore.unsubscribe(jobId, listener));
+        emitter.onTimeout(() -> jobStore.unsubscribe(jobId, listener));
+        emitter.onError(e -> jobStore.unsubscribe(jobId, listener));
+
+        // Replays what the client missed, then streams live events behind it, in order.
+        jobStore.subscribe(jobId, afterSeq, listener);
         return emitter;
     }
-}
\ No newline at end of file
+
+    private void send(SseEmitter emitter, String jobId, JobEvent event) {
+        try {
+            long start = System.nanoTime();
+            SseEmitter.SseEventBuilder sseEvent = SseEmitter.event().id(event.sseId(jobId)).name(event.getName())
+                    .data(event.getData());
+            boolean reconnect = GenerationJobStore.EVENT_RECONNECT.equals(event.getName());
+            if (reconnect) {
+                // The browser waits this long before it reconnects with Last-Event-ID.
+                sseEvent.reconnectTime(Long.parseLong(event.getData()));
+            }
+            emitter.send(sseEvent);
+            metrics.recordSseEvent(event.getName(), event.getData().getBytes(StandardCharsets.UTF_8).length,
+                    System.nanoTime() - start);
+            if (reconnect || GenerationJobStore.EVENT_COMPLETE.equals(event.getName())
+                    || GenerationJobStore.EVENT_ERROR.equals(event.getName())) {
+                emitter.complete();
+            }
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Client of job {} went away: {}", jobId, e.getMessage());
+            emitter.completeWithError(e);
+        }
+    }
+
+    /**
+     * Position in a job's event stream, as carried by SSE event ids ({@code <jobId>:<seq>}). Anything else, including
+     * ids that are not job ids, parses to {@code null} and is ignored.
+     */
+    private record JobCursor(String jobId, long seq) {
+        static JobCursor parse(String lastEventId) {
+            if (lastEventId == null) {
+                return null;
+            }
+            int separator = lastEventId.lastIndexOf(':');
+            if (separator <= 0) {
+                return null;
+            }
+            String jobId = lastEventId.substring(0, separator);
+            if (!GenerationJobStore.isJobId(jobId)) {
+                return null;
+            }
+            try {
+                return new JobCursor(jobId, Long.parseLong(lastEventId.substring(separator + 1)));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.sanghun.cartoon_generator.controller;
+
+import com.sanghun.cartoon_generator.service.PanelStore;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Serves stored panel images by id. Ids are content hashes, so responses are immutable and cacheable for the
+ * lifetime of the store entry.
+ */
+@RestController
+@RequestMapping("/panels")
+@RequiredArgsConstructor
+public class PanelController {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final PanelStore panelStore;
+
+    @GetMapping("/{id}")
+    public void getPanel(@PathVariable String id, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        PanelStore.StoredPanel panel = panelStore.get(id).orElse(null);
+        if (panel == null) {
+            response.sendError(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL,
+                CacheControl.maxAge(panelStore.getTtl()).cachePublic().immutable().getHeaderValue());
+        if (new ServletWebRequest(request, response).checkNotModified('"' + panel.id() + '"')) {
+            return;
+        }
+
+        response.setContentType(panel.mediaType().toString());
+        response.setContentLengthLong(panel.size());
+
+        // Let Tomcat hand the file to the socket with sendfile when the connector supports it.
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, panel.file().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, 0L);
+            request.setAttribute(SENDFILE_END, panel.size());
+            return;
+        }
+
+        try (FileChannel file = FileChannel.open(panel.file(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = 0;
+            while (position < panel.size()) {
+                long transferred = file.transferTo(position, panel.size() - position, out);
+                if (transferred <= 0) {
+                    // The file is shorter than indexed (cut short or replaced meanwhile); no more bytes will come.
+                    throw new IOException("Panel " + panel.id() + " ended after " + position + " of " + panel.size()
+                            + " bytes");
+                }
+                position += transferred;
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.sanghun.cartoon_generator.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CharacterSheet {
+    private String name;
+
+    // Species and size, colours, outfit, props, markings and expression, as one reusable phrase.
+    private String appearance;
+}
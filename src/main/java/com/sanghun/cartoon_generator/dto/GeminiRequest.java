@@ -1,19 +1,43 @@
 package com.sanghun.cartoon_generator.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
 import java.util.List;
+import java.util.Map;
 
 @Data
 @AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class GeminiRequest {
     private List<Content> contents;
 
+    private GenerationConfig generationConfig;
+
     public static GeminiRequest fromPrompt(String prompt) {
+        return fromPrompt(prompt, null);
+    }
+
+    public static GeminiRequest fromPrompt(String prompt, GenerationConfig generationConfig) {
         Part part = new Part(prompt);
         Content content = new Content("user", List.of(part));
-        return new GeminiRequest(List.of(content));
+        return new GeminiRequest(List.of(content), generationConfig);
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class GenerationConfig {
+        private String responseMimeType;
+        private Map<String, Object> responseSchema;
+
+        /**
+         * JSON mode: Gemini answers with a single JSON value matching {@code responseSchema}, an OpenAPI-style
+         * schema whose {@code propertyOrdering} also fixes the order fields are written in.
+         */
+        public static GenerationConfig json(Map<String, Object> responseSchema) {
+            return new GenerationConfig("application/json", responseSchema);
+        }
     }
 }
 
@@ -28,4 +52,4 @@ class Content {
 @AllArgsConstructor
 class Part {
     private String text;
-}
\ No newline at end of file
+}
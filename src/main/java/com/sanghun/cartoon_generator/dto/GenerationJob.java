@@ -0,0 +1,54 @@
+package com.sanghun.cartoon_generator.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Persistent state of one story generation: the prompts produced so far, the panels already rendered (by panel
+ * index) and the event log replayed to reconnecting clients.
+ */
+@Data
+@NoArgsConstructor
+public class GenerationJob {
+    private String id;
+    private String storyIdea;
+    // Story profile name; jobs saved before profiles existed have none and run with the default one.
+    private String profile;
+    // Job whose characters and style this story continues, if it is a sequel.
+    private String sequelOf;
+    private JobStatus status;
+    private Instant createdAt;
+    private Instant updatedAt;
+    private List<String> prompts = new ArrayList<>();
+    private boolean promptsComplete;
+    // The character/style sheet the prompts were assembled from; kept so sequels can reuse it.
+    private StorySheet sheet;
+    private Map<Integer, String> panelImageUrls = new TreeMap<>();
+    private List<JobEvent> events = new ArrayList<>();
+
+    public GenerationJob(String id, String storyIdea) {
+        this(id, storyIdea, null, null);
+    }
+
+    public GenerationJob(String id, String storyIdea, String profile, String sequelOf) {
+        this.id = id;
+        this.storyIdea = storyIdea;
+        this.profile = profile;
+        this.sequelOf = sequelOf;
+        this.status = JobStatus.PENDING;
+        this.createdAt = Instant.now();
+        this.updatedAt = this.createdAt;
+    }
+
+    @JsonIgnore
+    public long getLastSeq() {
+        return events.isEmpty() ? 0 : events.get(events.size() - 1).getSeq();
+    }
+}
@@ -17,4 +17,8 @@ public class ImagenRequest {
     public static ImagenRequest fromInstance(Instance instance) {
         return new ImagenRequest(Collections.singletonList(instance), new Parameters(1));
     }
-}
\ No newline at end of file
+
+    public static ImagenRequest fromInstances(List<Instance> instances, Parameters parameters) {
+        return new ImagenRequest(instances, parameters);
+    }
+}
@@ -0,0 +1,22 @@
+package com.sanghun.cartoon_generator.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One SSE event of a generation job, kept so reconnecting clients can be replayed what they missed. {@code data} is
+ * the event payload exactly as written to the stream (JSON for objects, raw text for messages).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class JobEvent {
+    private long seq;
+    private String name;
+    private String data;
+
+    public String sseId(String jobId) {
+        return jobId + ":" + seq;
+    }
+}
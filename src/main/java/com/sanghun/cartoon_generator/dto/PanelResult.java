@@ -4,6 +4,11 @@ import lombok.Value;
 
 @Value
 public class PanelResult {
+    // Position of the panel in the story, starting at 0
+    int index;
     String prompt;
-    String base64Image;
-}
\ No newline at end of file
+    // URL of the stored image under /panels, or null if the panel failed
+    String imageUrl;
+    // URL of a small JPEG preview, or null if there is none
+    String thumbnailUrl;
+}
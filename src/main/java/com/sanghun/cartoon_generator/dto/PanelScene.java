@@ -0,0 +1,20 @@
+package com.sanghun.cartoon_generator.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What changes in one panel: who is in it (by character sheet name), what happens and where.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PanelScene {
+    private List<String> characters = new ArrayList<>();
+    private String subject;
+    private String context;
+}
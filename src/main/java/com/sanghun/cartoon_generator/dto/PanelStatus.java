@@ -0,0 +1,20 @@
+package com.sanghun.cartoon_generator.dto;
+
+import lombok.Value;
+
+/**
+ * Something that happened to a panel on its way to the client, sent before the panel itself: a hedged second
+ * request, a regeneration from a softened prompt, or a final failure.
+ */
+@Value
+public class PanelStatus {
+    public static final String HEDGED = "hedged";
+    public static final String RETRYING = "retrying";
+    public static final String FAILED = "failed";
+
+    int index;
+    // One of HEDGED, RETRYING or FAILED
+    String state;
+    // Human-readable explanation, shown next to the panel
+    String reason;
+}
@@ -1,5 +1,6 @@
 package com.sanghun.cartoon_generator.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -7,6 +8,21 @@ import lombok.NoArgsConstructor;
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class Parameters {
     private int sampleCount;
-}
\ No newline at end of file
+
+    // Keeps filtered images in the prediction list (with a reason instead of bytes) so positions stay aligned.
+    private Boolean includeRaiReason;
+
+    // Output resolution, e.g. "1K" or "2K"; left out (model default) when null.
+    private String sampleImageSize;
+
+    public Parameters(int sampleCount) {
+        this(sampleCount, null);
+    }
+
+    public Parameters(int sampleCount, Boolean includeRaiReason) {
+        this(sampleCount, includeRaiReason, null);
+    }
+}
@@ -9,9 +9,17 @@ import lombok.NoArgsConstructor;
 @NoArgsConstructor
 @AllArgsConstructor
 public class Prediction {
+    // Decoded image; base64 on the wire
     @JsonProperty("bytesBase64Encoded")
-    private String bytesBase64Encoded;
+    private byte[] image;
 
     @JsonProperty("mimeType")
     private String mimeType;
-}
\ No newline at end of file
+
+    @JsonProperty("raiFilteredReason")
+    private String raiFilteredReason;
+
+    public Prediction(byte[] image, String mimeType) {
+        this(image, mimeType, null);
+    }
+}
@@ -0,0 +1,13 @@
+package com.sanghun.cartoon_generator.dto;
+
+import lombok.Value;
+
+/**
+ * Where a waiting story stands in this node's queue, sent while it waits for a free slot.
+ */
+@Value
+public class QueuePosition {
+    // 1 for the next story to start
+    int position;
+    long estimatedWaitSeconds;
+}
@@ -0,0 +1,25 @@
+package com.sanghun.cartoon_generator.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gemini's structured story: the look shared by every panel (style, palette, camera, what to avoid) and each
+ * character's fixed appearance, stated once, followed by a short scene per panel. Full Imagen prompts are assembled
+ * from it locally. The sheet is kept with the job so a sequel can reuse its characters and style.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StorySheet {
+    private String style;
+    private String palette;
+    private String camera;
+    private String negative;
+    private List<CharacterSheet> characters = new ArrayList<>();
+    private List<PanelScene> panels = new ArrayList<>();
+}
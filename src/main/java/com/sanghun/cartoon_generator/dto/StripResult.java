@@ -0,0 +1,11 @@
+package com.sanghun.cartoon_generator.dto;
+
+import lombok.Value;
+
+@Value
+public class StripResult {
+    // URL of the composited comic strip under /panels
+    String imageUrl;
+    // Number of panels in the strip; failed panels are left out
+    int panels;
+}
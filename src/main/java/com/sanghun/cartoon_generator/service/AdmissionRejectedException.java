@@ -0,0 +1,20 @@
+package com.sanghun.cartoon_generator.service;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * A new story was turned away because this node is at capacity. {@code retryAfter} is when trying again stands a
+ * fair chance, and is sent to the client as {@code Retry-After}.
+ */
+@Getter
+public class AdmissionRejectedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public AdmissionRejectedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+}
@@ -0,0 +1,83 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.sanghun.cartoon_generator.dto.GenerationJob;
+import com.sanghun.cartoon_generator.dto.JobEvent;
+
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+
+/**
+ * State shared between the nodes serving generations: job documents, which node runs a job, live job events, which
+ * job serves a given request, and panel images. Selected with {@code cartoon.coordination.mode}: {@code local}
+ * (default, a single node with files on local disk) or {@code redis}.
+ * <p>
+ * {@link GenerationJobStore} and {@link PanelStore} are the only callers; everything else goes through them.
+ */
+public interface ClusterCoordinator {
+
+    /**
+     * Exclusive right to run a job. Held until closed or, for implementations with expiring leases, until the holder
+     * stops renewing it because it died.
+     */
+    interface Lease extends AutoCloseable {
+
+        /**
+         * Completes if the lease is lost while still held, because it could not be renewed in time and may already
+         * belong to another node. Leases that cannot be lost never complete it.
+         */
+        default Mono<Void> lost() {
+            return Mono.never();
+        }
+
+        @Override
+        void close();
+    }
+
+    /**
+     * Saves a job, provided {@code lease} is still held; pass {@code null} for a job no one runs yet. Returns
+     * {@code false}, without saving, if the lease was lost, so a node that lost a job cannot overwrite the progress
+     * of its new owner.
+     */
+    boolean saveJob(GenerationJob job, Lease lease);
+
+    Optional<GenerationJob> loadJob(String jobId);
+
+    List<String> listJobIds();
+
+    void deleteJob(String jobId);
+
+    Optional<Lease> tryLease(String jobId);
+
+    /**
+     * Tells other nodes that {@code event} was appended to a job. Called after the job has been saved, so a receiver
+     * that reloads the job sees the event.
+     */
+    void publishEvent(String jobId, JobEvent event);
+
+    /**
+     * Registers a handler for events published by any node, this one included.
+     */
+    void addEventListener(BiConsumer<String, JobEvent> listener);
+
+    /**
+     * Registers {@code jobId} as the job serving {@code requestKey} for {@code window}, unless another job already
+     * is. Returns the registered job id either way.
+     */
+    String claimRequest(String requestKey, String jobId, Duration window);
+
+    /**
+     * Replaces the job registered for {@code requestKey}, if it is still {@code expectedJobId}.
+     */
+    void replaceRequest(String requestKey, String expectedJobId, String jobId, Duration window);
+
+    /**
+     * Makes a stored panel image available to the other nodes.
+     */
+    void sharePanel(String panelId, byte[] image, Duration ttl);
+
+    Optional<byte[]> fetchPanel(String panelId);
+}
@@ -0,0 +1,20 @@
+package com.sanghun.cartoon_generator.service;
+
+/**
+ * Maps text to a unit-length vector, so that the dot product of two embeddings is their cosine similarity. Used by
+ * the {@link SemanticCache} to find earlier story ideas and panel prompts close to a new one.
+ * <p>
+ * Implementations are called on request threads, including Reactor event loops, and must be fast and non-blocking.
+ */
+public interface EmbeddingFunction {
+
+    float[] embed(String text);
+
+    int dimensions();
+
+    /**
+     * Identifies the embedding space. Persisted indexes built with a different id are discarded on load, since their
+     * vectors are not comparable with new ones.
+     */
+    String id();
+}
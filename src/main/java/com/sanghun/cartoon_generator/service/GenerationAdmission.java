@@ -0,0 +1,396 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.sanghun.cartoon_generator.dto.GenerationJob;
+import com.sanghun.cartoon_generator.dto.JobStatus;
+import com.sanghun.cartoon_generator.dto.QueuePosition;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Admission control for story generation on this node. At most {@code cartoon.admission.max-running} stories run at
+ * once; the rest wait in a bounded priority queue, resumed stories ahead of new ones, and are told their position
+ * over SSE while they wait.
+ * <p>
+ * A new story is turned away with {@link AdmissionRejectedException} when its client already has
+ * {@code per-client-limit} stories here, when the queue is full, or when the estimated wait, from the average run
+ * time of recent stories, exceeds {@code max-wait}. Under a spike the node keeps running at capacity and answers
+ * the excess quickly instead of piling it up.
+ * <p>
+ * Queued jobs are claimed as they are admitted, so no other node (or the {@link JobResumer}) starts them meanwhile;
+ * if this node dies the claims lapse and the jobs are resumed elsewhere.
+ * <p>
+ * On shutdown {@link #stopAdmitting()} turns new stories away, hands the queued ones back for another node (or the
+ * next instance) to resume, and lets the running ones finish; see {@link GenerationShutdown}.
+ */
+@Slf4j
+@Component
+public class GenerationAdmission implements MeterBinder {
+
+    public enum Priority {
+        // Declared in queue order
+        RESUMED,
+        NEW
+    }
+
+    // Resumed jobs are not counted against any client.
+    private static final String NO_CLIENT = "";
+    // Weight of the latest story in the average run time.
+    private static final double RUN_TIME_SMOOTHING = 0.2;
+    // Long enough for a load balancer to notice this node is going away and send the retry elsewhere.
+    private static final Duration SHUTDOWN_RETRY_AFTER = Duration.ofSeconds(5);
+
+    private static final class Entry {
+        final GenerationJobStore.JobClaim claim;
+        final String clientId;
+        final Priority priority;
+        final long seq;
+        int reportedPosition;
+
+        Entry(GenerationJobStore.JobClaim claim, String clientId, Priority priority, long seq) {
+            this.claim = claim;
+            this.clientId = clientId;
+            this.priority = priority;
+            this.seq = seq;
+        }
+
+        String jobId() {
+            return claim.jobId();
+        }
+    }
+
+    private final GenerationJobStore jobStore;
+    private final ImageGenerationService imageGenerationService;
+    private final TaskExecutor taskExecutor;
+    private final int maxRunning;
+    private final int maxQueued;
+    private final int perClientLimit;
+    private final Duration maxWait;
+    private final String clientHeader;
+
+    private final TreeSet<Entry> queue = new TreeSet<>(Comparator.<Entry, Priority>comparing(entry -> entry.priority)
+            .thenComparingLong(entry -> entry.seq));
+    private final Set<String> admittedJobs = new HashSet<>();
+    private final Map<String, Integer> storiesPerClient = new HashMap<>();
+    private int running;
+    // New stories admitted but not queued yet, while their job is being created.
+    private int reserved;
+    private long nextSeq;
+    private double averageRunNanos;
+    private boolean stopped;
+
+    private final AtomicLong rejectedClientLimit = new AtomicLong();
+    private final AtomicLong rejectedQueueFull = new AtomicLong();
+    private final AtomicLong rejectedWaitTooLong = new AtomicLong();
+
+    public GenerationAdmission(GenerationJobStore jobStore,
+            ImageGenerationService imageGenerationService,
+            TaskExecutor taskExecutor,
+            @Value("${cartoon.admission.max-running:8}") int maxRunning,
+            @Value("${cartoon.admission.max-queued:50}") int maxQueued,
+            @Value("${cartoon.admission.per-client-limit:3}") int perClientLimit,
+            @Value("${cartoon.admission.max-wait:PT3M}") Duration maxWait,
+            @Value("${cartoon.admission.initial-run-time:PT60S}") Duration initialRunTime,
+            @Value("${cartoon.admission.client-header:}") String clientHeader) {
+        this.jobStore = jobStore;
+        this.imageGenerationService = imageGenerationService;
+        this.taskExecutor = taskExecutor;
+        this.maxRunning = maxRunning;
+        this.maxQueued = maxQueued;
+        this.perClientLimit = perClientLimit;
+        this.maxWait = maxWait;
+        this.averageRunNanos = initialRunTime.toNanos();
+        this.clientHeader = clientHeader.trim();
+    }
+
+    /**
+     * Identifies the client a request comes from: the first address in {@code cartoon.admission.client-header}
+     * (e.g. {@code X-Forwarded-For} behind a trusted proxy) if configured and present, the peer address otherwise.
+     */
+    public String clientId(HttpServletRequest request) {
+        if (!clientHeader.isEmpty()) {
+            String forwarded = request.getHeader(clientHeader);
+            if (forwarded != null && !forwarded.isBlank()) {
+                return forwarded.split(",")[0].trim();
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+    /**
+     * Admits a new story from {@code clientId}, creating its job with {@code createJob} only once there is room for
+     * it, and queues the job. A job that is already running or finished (a repeated story joined to an earlier one)
+     * is returned without being queued again.
+     *
+     * @throws AdmissionRejectedException if this node cannot take the story now
+     */
+    public GenerationJob admitNew(String clientId, Supplier<GenerationJob> createJob) {
+        synchronized (this) {
+            checkCapacity(clientId);
+            reserved++;
+            storiesPerClient.merge(clientId, 1, Integer::sum);
+        }
+        boolean queued = false;
+        try {
+            GenerationJob job = createJob.get();
+            queued = enqueue(job.getId(), clientId, Priority.NEW);
+            return job;
+        } finally {
+            synchronized (this) {
+                reserved--;
+                if (!queued) {
+                    releaseClient(clientId);
+                }
+            }
+            dispatch();
+            reportPositions();
+        }
+    }
+
+    /**
+     * Queues an unfinished job nobody is running, ahead of new stories: its prompts and panels are already paid
+     * for, and a client may be waiting on it. A no-op for jobs queued or running anywhere, or finished.
+     */
+    public void resume(String jobId) {
+        if (enqueue(jobId, NO_CLIENT, Priority.RESUMED)) {
+            dispatch();
+            reportPositions();
+        }
+    }
+
+    /**
+     * Stops taking stories: new ones are turned away, resumed ones are left alone and nothing more is started. Stories
+     * still waiting for a slot give up their claim, so another node, or this one once it is back, resumes them; their
+     * events are saved, and their clients only have to reconnect. Running stories carry on.
+     *
+     * @return the number of queued stories released
+     */
+    public int stopAdmitting() {
+        List<Entry> released;
+        synchronized (this) {
+            stopped = true;
+            released = new ArrayList<>(queue);
+            queue.clear();
+            for (Entry entry : released) {
+                admittedJobs.remove(entry.jobId());
+                releaseClient(entry.clientId);
+            }
+        }
+        released.forEach(entry -> entry.claim.close());
+        return released.size();
+    }
+
+    /**
+     * Waits up to {@code timeout} for the running stories to finish. Returns whether none is left.
+     */
+    public synchronized boolean awaitIdle(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (running > 0) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return true;
+    }
+
+    private void checkCapacity(String clientId) {
+        if (stopped) {
+            throw new AdmissionRejectedException("The server is restarting. Please try again in a moment.",
+                    SHUTDOWN_RETRY_AFTER);
+        }
+        if (perClientLimit > 0 && storiesPerClient.getOrDefault(clientId, 0) >= perClientLimit) {
+            rejectedClientLimit.incrementAndGet();
+            throw new AdmissionRejectedException("You already have " + perClientLimit
+                    + " cartoons in progress. Please wait for one to finish.", Duration.ofNanos((long) averageRunNanos));
+        }
+        int waiting = queue.size() + reserved;
+        if (running + waiting < maxRunning) {
+            return;
+        }
+        Duration slotInterval = Duration.ofNanos((long) (averageRunNanos / maxRunning));
+        if (waiting >= maxQueued) {
+            rejectedQueueFull.incrementAndGet();
+            throw new AdmissionRejectedException("Too many cartoons are waiting. Please try again shortly.",
+                    slotInterval);
+        }
+        Duration wait = estimateWait(waiting);
+        if (wait.compareTo(maxWait) > 0) {
+            rejectedWaitTooLong.incrementAndGet();
+            Duration untilAcceptable = wait.minus(maxWait);
+            throw new AdmissionRejectedException("The wait is too long right now. Please try again shortly.",
+                    untilAcceptable.compareTo(slotInterval) > 0 ? untilAcceptable : slotInterval);
+        }
+    }
+
+    /**
+     * Estimated wait for a story with {@code ahead} stories queued before it, once every slot is busy: stories
+     * finish every {@code averageRunTime / maxRunning} on average.
+     */
+    private Duration estimateWait(int ahead) {
+        return Duration.ofNanos((long) ((ahead + 1) * averageRunNanos / maxRunning));
+    }
+
+    private boolean enqueue(String jobId, String clientId, Priority priority) {
+        synchronized (this) {
+            if (stopped || admittedJobs.contains(jobId)) {
+                return false;
+            }
+        }
+        Optional<GenerationJobStore.JobClaim> claim = jobStore.tryClaim(jobId);
+        if (claim.isEmpty()) {
+            return false;
+        }
+        synchronized (this) {
+            // Stopped while the job was being claimed.
+            if (!stopped) {
+                queue.add(new Entry(claim.get(), clientId, priority, nextSeq++));
+                admittedJobs.add(jobId);
+                return true;
+            }
+        }
+        claim.get().close();
+        return false;
+    }
+
+    private void dispatch() {
+        List<Entry> starting = new ArrayList<>();
+        synchronized (this) {
+            while (running < maxRunning && !queue.isEmpty()) {
+                starting.add(queue.pollFirst());
+                running++;
+            }
+        }
+        starting.forEach(this::start);
+    }
+
+    private void start(Entry entry) {
+        try {
+            taskExecutor.execute(() -> run(entry));
+        } catch (TaskRejectedException e) {
+            log.error("Could not start job {}: {}", entry.jobId(), e.getMessage());
+            try (GenerationJobStore.JobClaim ignored = entry.claim) {
+                jobStore.append(entry.jobId(), GenerationJobStore.EVENT_ERROR,
+                        "The server is too busy to start your cartoon. Please try again shortly.");
+            } catch (JobLostException lost) {
+                log.warn("Could not report that job {} was not started: {}", entry.jobId(), lost.getMessage());
+            } finally {
+                finished(entry, 0);
+            }
+        }
+    }
+
+    private void run(Entry entry) {
+        long start = System.nanoTime();
+        long runNanos = 0;
+        try {
+            imageGenerationService.runJob(entry.claim);
+            // Only complete runs say how long a story takes; failures and resumed tails would skew the estimate.
+            GenerationJob job = entry.claim.job();
+            if (entry.priority == Priority.NEW && job != null && job.getStatus() == JobStatus.COMPLETED) {
+                runNanos = System.nanoTime() - start;
+            }
+        } finally {
+            finished(entry, runNanos);
+        }
+    }
+
+    private void finished(Entry entry, long runNanos) {
+        synchronized (this) {
+            running--;
+            admittedJobs.remove(entry.jobId());
+            releaseClient(entry.clientId);
+            if (runNanos > 0) {
+                averageRunNanos += RUN_TIME_SMOOTHING * (runNanos - averageRunNanos);
+            }
+            notifyAll();
+        }
+        dispatch();
+    }
+
+    private void releaseClient(String clientId) {
+        if (!NO_CLIENT.equals(clientId)) {
+            storiesPerClient.computeIfPresent(clientId, (id, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    /**
+     * Tells every waiting story whose place in the queue changed since it was last told where it stands now.
+     */
+    @Scheduled(fixedDelayString = "${cartoon.admission.update-interval:PT5S}")
+    public void reportPositions() {
+        Map<String, QueuePosition> updates = new HashMap<>();
+        synchronized (this) {
+            int position = 0;
+            for (Entry entry : queue) {
+                position++;
+                if (entry.reportedPosition != position) {
+                    entry.reportedPosition = position;
+                    updates.put(entry.jobId(), new QueuePosition(position, estimateWait(position - 1).toSeconds()));
+                }
+            }
+        }
+        updates.forEach((jobId, update) -> {
+            try {
+                jobStore.append(jobId, GenerationJobStore.EVENT_QUEUE, update);
+            } catch (JobLostException e) {
+                // Its new owner tells the client where it stands; the other jobs still hear about theirs.
+                log.warn("Could not report the queue position of job {}: {}", jobId, e.getMessage());
+            }
+        });
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("cartoon.admission.queued", this, GenerationAdmission::getQueued)
+                .description("Stories waiting for a slot on this node")
+                .register(registry);
+        Gauge.builder("cartoon.admission.running", this, GenerationAdmission::getRunning)
+                .description("Stories running on this node")
+                .register(registry);
+        Gauge.builder("cartoon.admission.run.time", this, admission -> admission.averageRunNanos / 1e9)
+                .description("Average run time of recent stories, used to estimate queue waits")
+                .baseUnit("seconds")
+                .register(registry);
+        FunctionCounter.builder("cartoon.admission.rejected", rejectedClientLimit, AtomicLong::get)
+                .tag("reason", "client-limit")
+                .register(registry);
+        FunctionCounter.builder("cartoon.admission.rejected", rejectedQueueFull, AtomicLong::get)
+                .tag("reason", "queue-full")
+                .register(registry);
+        FunctionCounter.builder("cartoon.admission.rejected", rejectedWaitTooLong, AtomicLong::get)
+                .tag("reason", "wait-too-long")
+                .register(registry);
+    }
+}
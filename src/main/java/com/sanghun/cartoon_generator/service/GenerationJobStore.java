@@ -0,0 +1,487 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sanghun.cartoon_generator.dto.GenerationJob;
+import com.sanghun.cartoon_generator.dto.JobEvent;
+import com.sanghun.cartoon_generator.dto.JobStatus;
+import com.sanghun.cartoon_generator.dto.PanelResult;
+import com.sanghun.cartoon_generator.dto.StorySheet;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Store of generation jobs. Every job is a document saved through the {@link ClusterCoordinator} whenever an event is
+ * appended, so a restarted node, or any other node of the cluster, can replay its events and resume it from the
+ * panels already rendered.
+ * <p>
+ * Only the node holding a job's lease runs it. Events appended there are published to the other nodes, which reload
+ * the job and forward the new events to their own subscribers, so a client may be attached to any node.
+ */
+@Slf4j
+@Component
+public class GenerationJobStore {
+
+    public static final String EVENT_JOB = "job";
+    public static final String EVENT_PROGRESS = "progress";
+    public static final String EVENT_QUEUE = "queue";
+    public static final String EVENT_PANEL_STATUS = "panel-status";
+    public static final String EVENT_THUMBNAIL = "thumbnail";
+    public static final String EVENT_PANEL = "panel";
+    public static final String EVENT_STRIP = "strip";
+    public static final String EVENT_COMPLETE = "complete";
+    public static final String EVENT_ERROR = "error";
+    // Not part of a job's log: tells a live subscriber this node is going away, with the delay in milliseconds
+    // after which to reconnect (and be replayed the rest of the job, wherever it runs next).
+    public static final String EVENT_RECONNECT = "reconnect";
+
+    // Job ids are random UUIDs; anything else is never a job, and must not reach a file name or key.
+    private static final Pattern JOB_ID = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
+    private final ObjectMapper objectMapper;
+    private final ClusterCoordinator coordinator;
+    private final Duration retention;
+    private final Duration dedupWindow;
+
+    private final Map<String, GenerationJob> jobs = new ConcurrentHashMap<>();
+    private final Map<String, JobClaim> claims = new ConcurrentHashMap<>();
+    private final Map<String, List<Subscriber>> listeners = new ConcurrentHashMap<>();
+    // Job instances are replaced when reloaded, so appends and subscriptions synchronize on a lock per id.
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+    // Set once subscribers have been sent away on shutdown; later subscribers are sent away right after the replay.
+    private volatile Duration reconnectDelay;
+
+    public GenerationJobStore(ObjectMapper objectMapper,
+            ClusterCoordinator coordinator,
+            @Value("${cartoon.jobs.retention:PT1H}") Duration retention,
+            @Value("${cartoon.jobs.dedup-window:PT10M}") Duration dedupWindow) {
+        this.objectMapper = objectMapper;
+        this.coordinator = coordinator;
+        this.retention = retention;
+        this.dedupWindow = dedupWindow;
+        coordinator.addEventListener(this::onPublishedEvent);
+    }
+
+    public GenerationJob create(String storyIdea) {
+        return create(UUID.randomUUID().toString(), storyIdea, null, null);
+    }
+
+    private GenerationJob create(String jobId, String storyIdea, String profile, String sequelOf) {
+        GenerationJob job = new GenerationJob(jobId, storyIdea, profile, sequelOf);
+        jobs.put(job.getId(), job);
+        append(job.getId(), EVENT_JOB, job.getId());
+        return job;
+    }
+
+    /**
+     * Returns the job already generating the same story idea with the same profile (and, for a sequel, the same
+     * earlier job), submitted on any node within
+     * {@code cartoon.jobs.dedup-window} and not failed, or creates a new one. Identical requests arriving together
+     * (a double submit, a link shared around) then cost one generation.
+     */
+    public GenerationJob createOrJoin(String storyIdea, String profile, String sequelOf) {
+        String jobId = UUID.randomUUID().toString();
+        String requestKey = requestKey(storyIdea, profile, sequelOf);
+        String owner = coordinator.claimRequest(requestKey, jobId, dedupWindow);
+        if (!owner.equals(jobId)) {
+            Optional<GenerationJob> existing = find(owner).filter(other -> other.getStatus() != JobStatus.FAILED);
+            if (existing.isPresent()) {
+                log.info("Joining job {} for a repeated story idea", owner);
+                return existing.get();
+            }
+            coordinator.replaceRequest(requestKey, owner, jobId, dedupWindow);
+        }
+        return create(jobId, storyIdea, profile, sequelOf);
+    }
+
+    /**
+     * Looks a job up, reloading it unless this node is running it, so jobs driven by another node are
+     * seen as of their last saved event.
+     */
+    public Optional<GenerationJob> find(String jobId) {
+        if (!isJobId(jobId)) {
+            return Optional.empty();
+        }
+        if (claims.containsKey(jobId)) {
+            return Optional.ofNullable(jobs.get(jobId));
+        }
+        Optional<GenerationJob> loaded = coordinator.loadJob(jobId);
+        loaded.ifPresent(job -> jobs.put(jobId, job));
+        return loaded.isPresent() ? loaded : Optional.ofNullable(jobs.get(jobId));
+    }
+
+    /**
+     * Whether {@code id} has the form of a job id. Ids from clients (URLs, {@code Last-Event-ID}) are checked against
+     * it before they are used.
+     */
+    public static boolean isJobId(String id) {
+        return id != null && JOB_ID.matcher(id).matches();
+    }
+
+    public Optional<JobClaim> tryClaim(String jobId) {
+        Optional<ClusterCoordinator.Lease> lease = coordinator.tryLease(jobId);
+        if (lease.isEmpty()) {
+            return Optional.empty();
+        }
+        synchronized (lockFor(jobId)) {
+            // Pick up whatever the previous owner saved before it went away.
+            Optional<GenerationJob> job = coordinator.loadJob(jobId).or(() -> Optional.ofNullable(jobs.get(jobId)));
+            if (job.isEmpty() || job.get().getStatus().isFinished()) {
+                lease.get().close();
+                return Optional.empty();
+            }
+            jobs.put(jobId, job.get());
+            JobClaim claim = new JobClaim(jobId, lease.get());
+            claims.put(jobId, claim);
+            return Optional.of(claim);
+        }
+    }
+
+    /**
+     * Appends an event, saves the job and then notifies live subscribers, here and on the other nodes. Panel events also record the panel,
+     * and {@code complete}/{@code error} finish the job.
+     *
+     * @throws JobLostException if the job's claim was lost, now or earlier, in which case nothing is saved or sent
+     */
+    public JobEvent append(String jobId, String name, Object data) {
+        List<Subscriber> subscribers;
+        JobEvent event;
+        synchronized (lockFor(jobId)) {
+            GenerationJob job = jobs.get(jobId);
+            if (job == null) {
+                // Dropped when its claim was lost.
+                throw new JobLostException(jobId);
+            }
+            event = new JobEvent(job.getLastSeq() + 1, name, serialize(data));
+            job.getEvents().add(event);
+            job.setUpdatedAt(Instant.now());
+            if (EVENT_PANEL.equals(name) && data instanceof PanelResult panel && panel.getImageUrl() != null) {
+                job.getPanelImageUrls().put(panel.getIndex(), panel.getImageUrl());
+            }
+            if (EVENT_COMPLETE.equals(name)) {
+                job.setStatus(JobStatus.COMPLETED);
+            } else if (EVENT_ERROR.equals(name)) {
+                job.setStatus(JobStatus.FAILED);
+            } else if (job.getStatus() == JobStatus.PENDING && !EVENT_JOB.equals(name)) {
+                job.setStatus(JobStatus.RUNNING);
+            }
+            JobClaim claim = claims.get(jobId);
+            if (!coordinator.saveJob(job, claim != null ? claim.lease : null)) {
+                // Drop this node's copy, event included; the job is reloaded from whatever its new owner saved.
+                claims.remove(jobId, claim);
+                jobs.remove(jobId);
+                throw new JobLostException(jobId);
+            }
+            subscribers = List.copyOf(listeners.getOrDefault(jobId, List.of()));
+            subscribers.forEach(subscriber -> subscriber.offer(event));
+        }
+        subscribers.forEach(Subscriber::drain);
+        coordinator.publishEvent(jobId, event);
+        return event;
+    }
+
+    /**
+     * Forwards an event appended on another node to this node's subscribers. The job is reloaded rather than the
+     * event applied, which also fills in any event whose notification was lost; events this node already has,
+     * including the ones it appended itself, are skipped by sequence number.
+     */
+    private void onPublishedEvent(String jobId, JobEvent published) {
+        if (claims.containsKey(jobId) || !listeners.containsKey(jobId)) {
+            return;
+        }
+        List<Subscriber> subscribers;
+        synchronized (lockFor(jobId)) {
+            GenerationJob known = jobs.get(jobId);
+            long lastSeq = known != null ? known.getLastSeq() : 0;
+            if (published.getSeq() <= lastSeq) {
+                return;
+            }
+            Optional<GenerationJob> reloaded = coordinator.loadJob(jobId);
+            if (reloaded.isEmpty()) {
+                return;
+            }
+            GenerationJob job = reloaded.get();
+            jobs.put(jobId, job);
+            List<JobEvent> fresh = job.getEvents().stream().filter(event -> event.getSeq() > lastSeq).toList();
+            subscribers = List.copyOf(listeners.getOrDefault(jobId, List.of()));
+            fresh.forEach(event -> subscribers.forEach(subscriber -> subscriber.offer(event)));
+            if (job.getStatus().isFinished()) {
+                listeners.remove(jobId);
+            }
+        }
+        subscribers.forEach(Subscriber::drain);
+    }
+
+    public void recordPrompt(String jobId, int index, String prompt) {
+        synchronized (lockFor(jobId)) {
+            GenerationJob job = claimedJob(jobId);
+            List<String> prompts = job.getPrompts();
+            while (prompts.size() <= index) {
+                prompts.add("");
+            }
+            prompts.set(index, prompt);
+        }
+    }
+
+    public void recordSheet(String jobId, StorySheet sheet) {
+        synchronized (lockFor(jobId)) {
+            claimedJob(jobId).setSheet(sheet);
+        }
+    }
+
+    public void markPromptsComplete(String jobId, int promptCount) {
+        synchronized (lockFor(jobId)) {
+            GenerationJob job = claimedJob(jobId);
+            List<String> prompts = job.getPrompts();
+            while (prompts.size() > promptCount) {
+                prompts.remove(prompts.size() - 1);
+            }
+            job.setPromptsComplete(true);
+        }
+    }
+
+    // The copy of a job this node runs; gone once the claim on it is lost.
+    private GenerationJob claimedJob(String jobId) {
+        GenerationJob job = claims.containsKey(jobId) ? jobs.get(jobId) : null;
+        if (job == null) {
+            throw new JobLostException(jobId);
+        }
+        return job;
+    }
+
+    /**
+     * Hands {@code listener} the events after {@code afterSeq} and, unless the job is already finished, every later
+     * event, in order and one at a time. Live events that arrive while the replay is still being delivered wait
+     * behind it, so nothing is missed, delivered twice or out of order, and nothing follows a {@code complete} or
+     * {@code error} event.
+     */
+    public void subscribe(String jobId, long afterSeq, Consumer<JobEvent> listener) {
+        Subscriber subscriber = new Subscriber(listener, afterSeq);
+        synchronized (lockFor(jobId)) {
+            GenerationJob job = find(jobId).orElseThrow();
+            job.getEvents().forEach(subscriber::offer);
+            Duration delay = reconnectDelay;
+            if (!job.getStatus().isFinished() && delay != null) {
+                subscriber.offer(reconnectEvent(job, delay));
+            } else if (!job.getStatus().isFinished()) {
+                listeners.computeIfAbsent(jobId, id -> new CopyOnWriteArrayList<>()).add(subscriber);
+            }
+        }
+        subscriber.drain();
+    }
+
+    /**
+     * Sends every live subscriber of an unfinished job a {@code reconnect} event, and any that subscribe from now on
+     * right after their replay, so clients close their streams and come back after {@code delay}. Used on shutdown,
+     * once the stories running here have finished or been checkpointed.
+     *
+     * @return the number of subscribers sent away
+     */
+    public int disconnectSubscribers(Duration delay) {
+        reconnectDelay = delay;
+        int disconnected = 0;
+        for (String jobId : List.copyOf(listeners.keySet())) {
+            List<Subscriber> subscribers;
+            synchronized (lockFor(jobId)) {
+                subscribers = listeners.remove(jobId);
+                GenerationJob job = jobs.get(jobId);
+                if (subscribers == null || job == null) {
+                    continue;
+                }
+                // Queued behind whatever each subscriber has not been sent yet, so it cannot overtake a panel.
+                JobEvent event = reconnectEvent(job, delay);
+                subscribers.forEach(subscriber -> subscriber.offer(event));
+            }
+            subscribers.forEach(Subscriber::drain);
+            disconnected += subscribers.size();
+        }
+        return disconnected;
+    }
+
+    // Carries the job's last sequence number, so the client's Last-Event-ID stays where it was.
+    private static JobEvent reconnectEvent(GenerationJob job, Duration delay) {
+        return new JobEvent(job.getLastSeq(), EVENT_RECONNECT, Long.toString(delay.toMillis()));
+    }
+
+    public void unsubscribe(String jobId, Consumer<JobEvent> listener) {
+        listeners.computeIfPresent(jobId, (id, list) -> {
+            list.removeIf(subscriber -> subscriber.listener == listener);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    /**
+     * Ids of saved jobs that are not finished and not running on this node.
+     */
+    public List<String> findUnfinished() {
+        List<String> unfinished = new ArrayList<>();
+        for (String jobId : coordinator.listJobIds()) {
+            if (!claims.containsKey(jobId)) {
+                coordinator.loadJob(jobId)
+                        .filter(job -> !job.getStatus().isFinished())
+                        .ifPresent(job -> unfinished.add(jobId));
+            }
+        }
+        return unfinished;
+    }
+
+    @Scheduled(fixedDelayString = "${cartoon.jobs.cleanup-interval:PT5M}")
+    public void evictExpired() {
+        Instant cutoff = Instant.now().minus(retention);
+        for (String jobId : coordinator.listJobIds()) {
+            Optional<GenerationJob> job = coordinator.loadJob(jobId);
+            // A job that can no longer be loaded has expired from the coordinator already; drop what is left of it.
+            if (job.isEmpty() || (job.get().getStatus().isFinished() && job.get().getUpdatedAt().isBefore(cutoff))) {
+                discard(jobId);
+            }
+        }
+    }
+
+    private void discard(String jobId) {
+        jobs.remove(jobId);
+        listeners.remove(jobId);
+        locks.remove(jobId);
+        coordinator.deleteJob(jobId);
+    }
+
+    private Object lockFor(String jobId) {
+        return locks.computeIfAbsent(jobId, id -> new Object());
+    }
+
+    private String serialize(Object data) {
+        if (data instanceof String text) {
+            return text;
+        }
+        try {
+            return objectMapper.writeValueAsString(data);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Event payload is not serializable", e);
+        }
+    }
+
+    private static String requestKey(String storyIdea, String profile, String sequelOf) {
+        try {
+            String request = profile + '\n' + sequelOf + '\n' + StoryPromptCache.normalize(storyIdea);
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(request.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * One live subscriber of a job. Events are queued under the job's lock, so in sequence order, and handed to the
+     * listener outside it by whichever thread gets to drain the queue first, one at a time. Events already queued are
+     * skipped, and so is everything after a {@code complete}, {@code error} or {@code reconnect} event.
+     */
+    private static final class Subscriber {
+
+        final Consumer<JobEvent> listener;
+        private final Queue<JobEvent> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger draining = new AtomicInteger();
+        // Guarded by the job's lock.
+        private long lastQueuedSeq;
+        private boolean closed;
+
+        Subscriber(Consumer<JobEvent> listener, long afterSeq) {
+            this.listener = listener;
+            this.lastQueuedSeq = afterSeq;
+        }
+
+        // Called with the job's lock held.
+        void offer(JobEvent event) {
+            // A reconnect repeats the last sequence number rather than taking a new one.
+            boolean reconnect = EVENT_RECONNECT.equals(event.getName());
+            if (closed || (event.getSeq() <= lastQueuedSeq && !reconnect)) {
+                return;
+            }
+            pending.add(event);
+            lastQueuedSeq = event.getSeq();
+            closed = reconnect || EVENT_COMPLETE.equals(event.getName()) || EVENT_ERROR.equals(event.getName());
+        }
+
+        void drain() {
+            if (draining.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                JobEvent event;
+                while ((event = pending.poll()) != null) {
+                    try {
+                        listener.accept(event);
+                    } catch (RuntimeException e) {
+                        log.debug("Subscriber failed on event {}: {}", event.getSeq(), e.getMessage());
+                    }
+                }
+                missed = draining.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+
+    /**
+     * Exclusive right to run a job on this node; closing it releases the job for other nodes.
+     */
+    public final class JobClaim implements AutoCloseable {
+
+        private final String jobId;
+        private final ClusterCoordinator.Lease lease;
+
+        private JobClaim(String jobId, ClusterCoordinator.Lease lease) {
+            this.jobId = jobId;
+            this.lease = lease;
+        }
+
+        public String jobId() {
+            return jobId;
+        }
+
+        /**
+         * The job as last saved here, or {@code null} once the claim is lost and the job dropped.
+         */
+        public GenerationJob job() {
+            return jobs.get(jobId);
+        }
+
+        /**
+         * Completes if the claim is lost while the job runs, because another node may have taken it over. The job
+         * should stop; {@link #append} refuses to save it from then on.
+         */
+        public Mono<Void> lost() {
+            return lease.lost();
+        }
+
+        @Override
+        public void close() {
+            claims.remove(jobId, this);
+            lease.close();
+            // The job is done with; drop live subscribers of finished jobs.
+            GenerationJob job = jobs.get(jobId);
+            if (job != null && job.getStatus().isFinished()) {
+                listeners.remove(jobId);
+            }
+        }
+    }
+}
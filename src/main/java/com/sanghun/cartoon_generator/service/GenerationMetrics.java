@@ -0,0 +1,181 @@
+package com.sanghun.cartoon_generator.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stage-level metrics for the generation pipeline: Vertex AI attempts and retries, panel rendering, SSE delivery
+ * and per-story observations. Latency timers publish percentile histograms so tail latency can be read off
+ * Prometheus, and each story is an {@link Observation}, i.e. a trace span that Vertex AI calls made for it are
+ * nested under. Panel, stage, queue-wait and story metrics are tagged with the story profile, so each profile's
+ * latency and throughput can be read separately when sizing its concurrency.
+ * <p>
+ * Cache, scheduler, concurrency-limiter and token-refresh metrics live with those components.
+ */
+@Component
+public class GenerationMetrics {
+
+    private final MeterRegistry registry;
+    private final ObservationRegistry observationRegistry;
+    private final AtomicInteger activeStories = new AtomicInteger();
+
+    public GenerationMetrics(MeterRegistry registry, ObservationRegistry observationRegistry) {
+        this.registry = registry;
+        this.observationRegistry = observationRegistry;
+        Gauge.builder("cartoon.stories.active", activeStories, AtomicInteger::get)
+                .description("Stories currently being generated on this node")
+                .register(registry);
+    }
+
+    /**
+     * Times every subscription to {@code call} as one attempt, tagged with how it ended, so retried attempts are
+     * counted individually.
+     */
+    public <T> Mono<T> timeAttempt(VertexRequestScheduler.Api api, Mono<T> call) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(registry);
+            return call
+                    .doOnSuccess(result -> stopAttempt(sample, api, "success"))
+                    .doOnError(e -> stopAttempt(sample, api, cause(e)))
+                    .doOnCancel(() -> stopAttempt(sample, api, "cancelled"));
+        });
+    }
+
+    public <T> Flux<T> timeAttempt(VertexRequestScheduler.Api api, Flux<T> call) {
+        return Flux.defer(() -> {
+            Timer.Sample sample = Timer.start(registry);
+            return call
+                    .doOnComplete(() -> stopAttempt(sample, api, "success"))
+                    .doOnError(e -> stopAttempt(sample, api, cause(e)))
+                    .doOnCancel(() -> stopAttempt(sample, api, "cancelled"));
+        });
+    }
+
+    public void recordRetry(VertexRequestScheduler.Api api, Throwable failure) {
+        Counter.builder("cartoon.vertex.retries")
+                .tag("api", tag(api))
+                .tag("cause", cause(failure))
+                .register(registry)
+                .increment();
+    }
+
+    public void recordPanel(String profile, boolean success, Duration elapsed) {
+        Timer.builder("cartoon.panel.render")
+                .description("Time from requesting a panel image to having it stored")
+                .tag("profile", profile)
+                .tag("outcome", success ? "success" : "failed")
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(elapsed);
+    }
+
+    /**
+     * Counts a panel being regenerated from a softened prompt after its image failed, was filtered or was overdue.
+     */
+    public void recordPanelRecovery(Throwable failure) {
+        Counter.builder("cartoon.panel.recoveries")
+                .tag("cause", cause(failure))
+                .register(registry)
+                .increment();
+    }
+
+    public void recordSseEvent(String event, int bytes, long elapsedNanos) {
+        DistributionSummary.builder("cartoon.sse.bytes")
+                .baseUnit("bytes")
+                .tag("event", event)
+                .register(registry)
+                .record(bytes);
+        Timer.builder("cartoon.sse.send")
+                .tag("event", event)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(Duration.ofNanos(elapsedNanos));
+    }
+
+    /**
+     * Records how long a job waited between being submitted and a worker starting it.
+     */
+    public void recordQueueWait(String profile, Duration wait) {
+        Timer.builder("cartoon.job.queue.wait")
+                .tag("profile", profile)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(wait.isNegative() ? Duration.ZERO : wait);
+    }
+
+    /**
+     * Records a milestone within a story, e.g. the first panel or the last prompt, measured from the story start.
+     */
+    public void recordStage(String profile, String stage, Duration sinceStart) {
+        Timer.builder("cartoon.story.stage")
+                .tag("profile", profile)
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(sinceStart);
+    }
+
+    /**
+     * Observation (metrics plus a trace span) covering one run of a story. The job id is high-cardinality, so it
+     * only ends up on the span, where it lets a slow trace be tied back to its job.
+     */
+    public Observation story(String jobId, String profile, boolean resumed) {
+        return Observation.createNotStarted("cartoon.story", observationRegistry)
+                .contextualName("generate story")
+                .lowCardinalityKeyValue("profile", profile)
+                .lowCardinalityKeyValue("resumed", Boolean.toString(resumed))
+                .highCardinalityKeyValue("job.id", jobId);
+    }
+
+    public void storyStarted() {
+        activeStories.incrementAndGet();
+    }
+
+    public void storyFinished() {
+        activeStories.decrementAndGet();
+    }
+
+    private void stopAttempt(Timer.Sample sample, VertexRequestScheduler.Api api, String outcome) {
+        sample.stop(Timer.builder("cartoon.vertex.attempt")
+                .description("Latency of a single Vertex AI call attempt, excluding scheduler and permit waits")
+                .tag("api", tag(api))
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+
+    static String cause(Throwable error) {
+        if (error instanceof WebClientResponseException responseException) {
+            return Integer.toString(responseException.getStatusCode().value());
+        }
+        if (error instanceof ImageFilteredException) {
+            return "filtered";
+        }
+        if (error instanceof TimeoutException) {
+            return "timeout";
+        }
+        if (error instanceof WebClientRequestException) {
+            return "io";
+        }
+        return error.getClass().getSimpleName();
+    }
+
+    private static String tag(VertexRequestScheduler.Api api) {
+        return api.name().toLowerCase(Locale.ROOT);
+    }
+}
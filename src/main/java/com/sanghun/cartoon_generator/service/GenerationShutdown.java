@@ -0,0 +1,85 @@
+package com.sanghun.cartoon_generator.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Winds generation down when the application shuts down, so a redeploy neither loses paid-for panels nor leaves
+ * clients hanging:
+ * <ol>
+ * <li>New stories are turned away and queued ones are released for the next owner (see
+ * {@link GenerationAdmission#stopAdmitting()}).</li>
+ * <li>Running stories get {@code cartoon.shutdown.drain-timeout} to finish.</li>
+ * <li>Whatever is still running is checkpointed: it stops at the next panel, with everything rendered so far saved,
+ * and is resumed by another node or by the next instance's {@link JobResumer}.</li>
+ * <li>SSE clients still attached are told to reconnect after {@code cartoon.shutdown.reconnect-delay}, and pick up
+ * their job from their Last-Event-ID wherever it runs next.</li>
+ * </ol>
+ * Runs in the default phase, so it stops before the web server's graceful shutdown, which would otherwise wait on the
+ * open event streams. {@code spring.lifecycle.timeout-per-shutdown-phase} should cover both timeouts.
+ */
+@Slf4j
+@Component
+public class GenerationShutdown implements SmartLifecycle {
+
+    private final GenerationAdmission admission;
+    private final ImageGenerationService imageGenerationService;
+    private final GenerationJobStore jobStore;
+    private final Duration drainTimeout;
+    private final Duration checkpointTimeout;
+    private final Duration reconnectDelay;
+
+    private volatile boolean running;
+
+    public GenerationShutdown(GenerationAdmission admission,
+            ImageGenerationService imageGenerationService,
+            GenerationJobStore jobStore,
+            @Value("${cartoon.shutdown.drain-timeout:PT30S}") Duration drainTimeout,
+            @Value("${cartoon.shutdown.checkpoint-timeout:PT10S}") Duration checkpointTimeout,
+            @Value("${cartoon.shutdown.reconnect-delay:PT3S}") Duration reconnectDelay) {
+        this.admission = admission;
+        this.imageGenerationService = imageGenerationService;
+        this.jobStore = jobStore;
+        this.drainTimeout = drainTimeout;
+        this.checkpointTimeout = checkpointTimeout;
+        this.reconnectDelay = reconnectDelay;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        long start = System.nanoTime();
+        int released = admission.stopAdmitting();
+        log.info("Shutting down: released {} queued job(s), waiting up to {} for {} running",
+                released, drainTimeout, admission.getRunning());
+        try {
+            if (!admission.awaitIdle(drainTimeout)) {
+                log.info("Checkpointing {} unfinished job(s)", admission.getRunning());
+                imageGenerationService.checkpoint();
+                if (!admission.awaitIdle(checkpointTimeout)) {
+                    log.warn("{} job(s) still running after checkpointing; they resume from their last saved panel",
+                            admission.getRunning());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int disconnected = jobStore.disconnectSubscribers(reconnectDelay);
+        log.info("Generation stopped in {} ms; told {} client(s) to reconnect",
+                Duration.ofNanos(System.nanoTime() - start).toMillis(), disconnected);
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,125 @@
+package com.sanghun.cartoon_generator.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Local, deterministic embedding by feature hashing: stemmed words, word pairs and character trigrams are hashed
+ * into a fixed number of signed buckets. It needs no model or network call and the same text always gets the same
+ * vector, which makes it the default and the one tests use.
+ * <p>
+ * It captures lexical closeness (word order, inflections, small edits and typos), not meaning: "a cat learning to
+ * fly" matches "A cat learns to fly!", but not "a flying feline".
+ */
+@Component
+@ConditionalOnProperty(name = "cartoon.semantic-cache.embedding", havingValue = "hashing", matchIfMissing = true)
+public class HashingEmbeddingFunction implements EmbeddingFunction {
+
+    private static final Set<String> STOP_WORDS = Set.of("a", "an", "the", "and", "or", "of", "to", "in", "on", "at",
+            "for", "with", "who", "that", "which", "is", "are", "was", "were", "be", "his", "her", "its", "their",
+            "story", "about");
+
+    private static final float WORD_WEIGHT = 1.0f;
+    private static final float PAIR_WEIGHT = 0.5f;
+    private static final float TRIGRAM_WEIGHT = 0.25f;
+
+    private final int dimensions;
+
+    public HashingEmbeddingFunction(@Value("${cartoon.semantic-cache.dimensions:384}") int dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public float[] embed(String text) {
+        float[] vector = new float[dimensions];
+        List<String> words = words(text);
+        for (int i = 0; i < words.size(); i++) {
+            String word = words.get(i);
+            add(vector, "w:" + word, WORD_WEIGHT);
+            if (i > 0) {
+                add(vector, "p:" + words.get(i - 1) + ' ' + word, PAIR_WEIGHT);
+            }
+            String padded = '^' + word + '$';
+            for (int j = 0; j + 3 <= padded.length(); j++) {
+                add(vector, "t:" + padded.substring(j, j + 3), TRIGRAM_WEIGHT);
+            }
+        }
+        normalize(vector);
+        return vector;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public String id() {
+        return "hashing-v1-" + dimensions;
+    }
+
+    private static List<String> words(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        List<String> words = new ArrayList<>();
+        for (String token : normalized.split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty() && !STOP_WORDS.contains(token)) {
+                words.add(stem(token));
+            }
+        }
+        return words;
+    }
+
+    // Just enough stemming to fold the common English inflections together.
+    private static String stem(String word) {
+        if (word.length() > 5 && word.endsWith("ing")) {
+            return word.substring(0, word.length() - 3);
+        }
+        if (word.length() > 4 && word.endsWith("ed")) {
+            return word.substring(0, word.length() - 2);
+        }
+        if (word.length() > 4 && word.endsWith("es")) {
+            return word.substring(0, word.length() - 2);
+        }
+        if (word.length() > 3 && word.endsWith("s") && !word.endsWith("ss")) {
+            return word.substring(0, word.length() - 1);
+        }
+        return word;
+    }
+
+    private void add(float[] vector, String feature, float weight) {
+        long hash = fnv1a(feature);
+        int bucket = (int) Long.remainderUnsigned(hash, dimensions);
+        // An independent bit picks the sign, so colliding features cancel out on average instead of piling up.
+        vector[bucket] += (hash >>> 63) == 0 ? weight : -weight;
+    }
+
+    private static long fnv1a(String feature) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < feature.length(); i++) {
+            hash ^= feature.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static void normalize(float[] vector) {
+        double sum = 0;
+        for (float value : vector) {
+            sum += value * value;
+        }
+        if (sum == 0) {
+            return;
+        }
+        float scale = (float) (1 / Math.sqrt(sum));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= scale;
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package com.sanghun.cartoon_generator.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+/**
+ * Approximate nearest-neighbour index over unit vectors (HNSW: a hierarchy of proximity graphs, searched greedily
+ * from the sparse top layer down), mapping each vector to a string key. Similarity is the dot product, i.e. cosine
+ * similarity for the normalized vectors an {@link EmbeddingFunction} produces.
+ * <p>
+ * Vectors live in one flat {@code float[]} and links in {@code int[]} lists, so the index can be written to and read
+ * back from a memory-mapped file in bulk, with neither re-embedding nor graph rebuilding at startup. The index only
+ * grows; callers bound it with {@link #retainNewest(int)}. Not thread-safe.
+ */
+final class HnswIndex {
+
+    record Match(String key, float similarity) {
+    }
+
+    private record Candidate(int node, float similarity) {
+    }
+
+    private static final int MAGIC = 0x484e5357; // "HNSW"
+    private static final int VERSION = 1;
+    private static final Comparator<Candidate> FARTHEST_FIRST = Comparator.comparingDouble(Candidate::similarity);
+    private static final Comparator<Candidate> CLOSEST_FIRST = FARTHEST_FIRST.reversed();
+
+    private final int dimensions;
+    private final int maxLinks;
+    private final int efConstruction;
+    private final double levelFactor;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    private float[] vectors;
+    // links[node][level] = {size, neighbour ids...}, with room for maxLinks (2 * maxLinks on level 0)
+    private int[][][] links;
+    private String[] keys;
+    private final Map<String, Integer> nodesByKey = new HashMap<>();
+    private int size;
+    private int entryPoint = -1;
+    private int topLevel = -1;
+
+    // Nodes visited by the current search carry the current epoch, so the marks never need clearing.
+    private int[] visited;
+    private int epoch;
+
+    HnswIndex(int dimensions, int maxLinks, int efConstruction) {
+        this.dimensions = dimensions;
+        this.maxLinks = maxLinks;
+        this.efConstruction = efConstruction;
+        this.levelFactor = 1 / Math.log(maxLinks);
+        this.vectors = new float[16 * dimensions];
+        this.links = new int[16][][];
+        this.keys = new String[16];
+        this.visited = new int[16];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int dimensions() {
+        return dimensions;
+    }
+
+    boolean contains(String key) {
+        return nodesByKey.containsKey(key);
+    }
+
+    /**
+     * Adds {@code vector} under {@code key}; a key already present keeps its first vector.
+     */
+    void add(String key, float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions, got " + vector.length);
+        }
+        if (nodesByKey.containsKey(key)) {
+            return;
+        }
+        int node = size;
+        ensureCapacity(node + 1);
+        System.arraycopy(vector, 0, vectors, node * dimensions, dimensions);
+        keys[node] = key;
+        nodesByKey.put(key, node);
+        size++;
+        link(node, randomLevel());
+    }
+
+    /**
+     * Up to {@code k} stored keys most similar to {@code query}, most similar first. Larger {@code ef} trades speed
+     * for recall.
+     */
+    List<Match> search(float[] query, int k, int ef) {
+        if (size == 0) {
+            return List.of();
+        }
+        int current = entryPoint;
+        for (int level = topLevel; level > 0; level--) {
+            current = greedyClosest(query, current, level);
+        }
+        List<Candidate> found = searchLayer(query, current, Math.max(ef, k), 0);
+        found.sort(CLOSEST_FIRST);
+        List<Match> matches = new ArrayList<>(Math.min(k, found.size()));
+        for (int i = 0; i < found.size() && i < k; i++) {
+            Candidate candidate = found.get(i);
+            matches.add(new Match(keys[candidate.node()], candidate.similarity()));
+        }
+        return matches;
+    }
+
+    /**
+     * Rebuilds the index from the {@code count} most recently added entries, dropping the rest.
+     */
+    void retainNewest(int count) {
+        if (count >= size) {
+            return;
+        }
+        int from = size - count;
+        float[] keptVectors = Arrays.copyOfRange(vectors, from * dimensions, size * dimensions);
+        String[] keptKeys = Arrays.copyOfRange(keys, from, size);
+        nodesByKey.clear();
+        Arrays.fill(links, null);
+        Arrays.fill(keys, null);
+        size = 0;
+        entryPoint = -1;
+        topLevel = -1;
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < keptKeys.length; i++) {
+            System.arraycopy(keptVectors, i * dimensions, vector, 0, dimensions);
+            add(keptKeys[i], vector);
+        }
+    }
+
+    private void link(int node, int level) {
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[node][l] = new int[1 + capacity(l)];
+        }
+        if (entryPoint < 0) {
+            entryPoint = node;
+            topLevel = level;
+            return;
+        }
+
+        float[] query = Arrays.copyOfRange(vectors, node * dimensions, (node + 1) * dimensions);
+        int current = entryPoint;
+        for (int l = topLevel; l > level; l--) {
+            current = greedyClosest(query, current, l);
+        }
+        for (int l = Math.min(level, topLevel); l >= 0; l--) {
+            List<Candidate> candidates = searchLayer(query, current, efConstruction, l);
+            List<Candidate> selected = selectNeighbours(candidates, maxLinks);
+            for (Candidate neighbour : selected) {
+                append(links[node][l], neighbour.node());
+                connectBack(neighbour.node(), node, neighbour.similarity(), l);
+            }
+            current = candidates.stream().min(CLOSEST_FIRST).orElseThrow().node();
+        }
+        if (level > topLevel) {
+            entryPoint = node;
+            topLevel = level;
+        }
+    }
+
+    private void connectBack(int node, int newNeighbour, float similarity, int level) {
+        int[] list = links[node][level];
+        if (list[0] < capacity(level)) {
+            append(list, newNeighbour);
+            return;
+        }
+        // Full: keep the most useful mix of the old neighbours and the new one.
+        List<Candidate> candidates = new ArrayList<>(list[0] + 1);
+        for (int i = 1; i <= list[0]; i++) {
+            candidates.add(new Candidate(list[i], similarity(node, list[i])));
+        }
+        candidates.add(new Candidate(newNeighbour, similarity));
+        List<Candidate> selected = selectNeighbours(candidates, capacity(level));
+        list[0] = 0;
+        for (Candidate candidate : selected) {
+            append(list, candidate.node());
+        }
+    }
+
+    /**
+     * HNSW neighbour heuristic: take candidates closest first, skipping any that is closer to an already selected
+     * neighbour than to the base node, so links spread in every direction instead of clustering; then top up with
+     * the skipped ones.
+     */
+    private List<Candidate> selectNeighbours(List<Candidate> candidates, int max) {
+        List<Candidate> sorted = new ArrayList<>(candidates);
+        sorted.sort(CLOSEST_FIRST);
+        List<Candidate> selected = new ArrayList<>(max);
+        List<Candidate> skipped = new ArrayList<>();
+        for (Candidate candidate : sorted) {
+            if (selected.size() >= max) {
+                break;
+            }
+            boolean diverse = true;
+            for (Candidate chosen : selected) {
+                if (similarity(candidate.node(), chosen.node()) > candidate.similarity()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            (diverse ? selected : skipped).add(candidate);
+        }
+        for (int i = 0; i < skipped.size() && selected.size() < max; i++) {
+            selected.add(skipped.get(i));
+        }
+        return selected;
+    }
+
+    private int greedyClosest(float[] query, int start, int level) {
+        int current = start;
+        float best = similarity(query, current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] list = links[current][level];
+            for (int i = 1; i <= list[0]; i++) {
+                float similarity = similarity(query, list[i]);
+                if (similarity > best) {
+                    best = similarity;
+                    current = list[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    private List<Candidate> searchLayer(float[] query, int start, int ef, int level) {
+        int mark = nextEpoch();
+        PriorityQueue<Candidate> frontier = new PriorityQueue<>(CLOSEST_FIRST);
+        PriorityQueue<Candidate> results = new PriorityQueue<>(FARTHEST_FIRST);
+        Candidate first = new Candidate(start, similarity(query, start));
+        visited[start] = mark;
+        frontier.add(first);
+        results.add(first);
+        while (!frontier.isEmpty()) {
+            Candidate closest = frontier.poll();
+            if (results.size() >= ef && closest.similarity() < results.peek().similarity()) {
+                break;
+            }
+            int[] list = links[closest.node()][level];
+            for (int i = 1; i <= list[0]; i++) {
+                int neighbour = list[i];
+                if (visited[neighbour] == mark) {
+                    continue;
+                }
+                visited[neighbour] = mark;
+                float similarity = similarity(query, neighbour);
+                if (results.size() < ef || similarity > results.peek().similarity()) {
+                    Candidate candidate = new Candidate(neighbour, similarity);
+                    frontier.add(candidate);
+                    results.add(candidate);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(results);
+    }
+
+    private int nextEpoch() {
+        if (++epoch == Integer.MAX_VALUE) {
+            Arrays.fill(visited, 0);
+            epoch = 1;
+        }
+        return epoch;
+    }
+
+    private float similarity(float[] query, int node) {
+        int offset = node * dimensions;
+        float sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            sum += query[i] * vectors[offset + i];
+        }
+        return sum;
+    }
+
+    private float similarity(int a, int b) {
+        int offsetA = a * dimensions;
+        int offsetB = b * dimensions;
+        float sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            sum += vectors[offsetA + i] * vectors[offsetB + i];
+        }
+        return sum;
+    }
+
+    private int randomLevel() {
+        return (int) (-Math.log(1 - random.nextDouble()) * levelFactor);
+    }
+
+    private int capacity(int level) {
+        return level == 0 ? 2 * maxLinks : maxLinks;
+    }
+
+    private static void append(int[] list, int node) {
+        list[++list[0]] = node;
+    }
+
+    private void ensureCapacity(int nodes) {
+        if (nodes <= keys.length) {
+            return;
+        }
+        int capacity = Math.max(nodes, keys.length * 2);
+        vectors = Arrays.copyOf(vectors, capacity * dimensions);
+        links = Arrays.copyOf(links, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+        visited = Arrays.copyOf(visited, capacity);
+    }
+
+    /**
+     * Writes the whole index through a memory-mapped temporary file that then replaces {@code file} atomically.
+     * {@code embeddingId} is recorded so that {@link #load} can reject indexes from another embedding space.
+     */
+    void save(Path file, String embeddingId) throws IOException {
+        byte[] id = embeddingId.getBytes(StandardCharsets.UTF_8);
+        byte[][] encodedKeys = new byte[size][];
+        long bytes = 4L * 8 + id.length + 4L * size * dimensions + 4L * size;
+        for (int node = 0; node < size; node++) {
+            encodedKeys[node] = keys[node].getBytes(StandardCharsets.UTF_8);
+            bytes += 4 + encodedKeys[node].length;
+            for (int[] list : links[node]) {
+                bytes += 4L * (1 + list[0]);
+            }
+        }
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(dimensions).putInt(maxLinks)
+                    .putInt(size).putInt(entryPoint).putInt(topLevel).putInt(id.length).put(id);
+            buffer.asFloatBuffer().put(vectors, 0, size * dimensions);
+            buffer.position(buffer.position() + 4 * size * dimensions);
+            for (int node = 0; node < size; node++) {
+                buffer.putInt(links[node].length - 1);
+            }
+            for (int node = 0; node < size; node++) {
+                for (int[] list : links[node]) {
+                    buffer.asIntBuffer().put(list, 0, 1 + list[0]);
+                    buffer.position(buffer.position() + 4 * (1 + list[0]));
+                }
+                buffer.putInt(encodedKeys[node].length).put(encodedKeys[node]);
+            }
+            buffer.force();
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads an index written by {@link #save}, or returns {@code null} if the file was built for another embedding
+     * space or with different dimensions or link count.
+     */
+    static HnswIndex load(Path file, String embeddingId, int dimensions, int maxLinks, int efConstruction)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a semantic index: " + file);
+            }
+            int storedDimensions = buffer.getInt();
+            int storedMaxLinks = buffer.getInt();
+            int size = buffer.getInt();
+            int entryPoint = buffer.getInt();
+            int topLevel = buffer.getInt();
+            byte[] id = new byte[buffer.getInt()];
+            buffer.get(id);
+            if (storedDimensions != dimensions || storedMaxLinks != maxLinks
+                    || !embeddingId.equals(new String(id, StandardCharsets.UTF_8))) {
+                return null;
+            }
+
+            HnswIndex index = new HnswIndex(dimensions, maxLinks, efConstruction);
+            index.ensureCapacity(size);
+            buffer.asFloatBuffer().get(index.vectors, 0, size * dimensions);
+            buffer.position(buffer.position() + 4 * size * dimensions);
+            int[] levels = new int[size];
+            buffer.asIntBuffer().get(levels);
+            buffer.position(buffer.position() + 4 * size);
+            for (int node = 0; node < size; node++) {
+                index.links[node] = new int[levels[node] + 1][];
+                for (int level = 0; level <= levels[node]; level++) {
+                    int[] list = new int[1 + index.capacity(level)];
+                    list[0] = buffer.getInt();
+                    buffer.asIntBuffer().get(list, 1, list[0]);
+                    buffer.position(buffer.position() + 4 * list[0]);
+                    index.links[node][level] = list;
+                }
+                byte[] key = new byte[buffer.getInt()];
+                buffer.get(key);
+                index.keys[node] = new String(key, StandardCharsets.UTF_8);
+                index.nodesByKey.put(index.keys[node], node);
+            }
+            index.size = size;
+            index.entryPoint = entryPoint;
+            index.topLevel = topLevel;
+            // Keep the level draws of restarted nodes from repeating the ones the loaded graph was built with.
+            for (int i = 0; i < size; i++) {
+                index.random.nextDouble();
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.sanghun.cartoon_generator.service;
+
+import java.io.IOException;
+
+/**
+ * Imagen answered, but its responsible-AI filter withheld the image. Repeating the same prompt is pointless; the
+ * prompt has to change.
+ */
+public class ImageFilteredException extends IOException {
+
+    public ImageFilteredException(String reason) {
+        super("Vertex AI filtered the image: " + reason);
+    }
+}
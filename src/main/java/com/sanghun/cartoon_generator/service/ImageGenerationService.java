@@ -1,34 +1,98 @@
 package com.sanghun.cartoon_generator.service;
 
+import com.sanghun.cartoon_generator.dto.GenerationJob;
 import com.sanghun.cartoon_generator.dto.PanelResult;
+import com.sanghun.cartoon_generator.dto.PanelStatus;
 import com.sanghun.cartoon_generator.dto.ProgressUpdate;
-import lombok.RequiredArgsConstructor;
+import com.sanghun.cartoon_generator.dto.StorySheet;
+import com.sanghun.cartoon_generator.dto.StripResult;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.contextpropagation.ObservationThreadLocalAccessor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.task.TaskExecutor;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class ImageGenerationService {
 
+    // A panel as rendered by this node; the strip tile only lives until the story's strip is composited.
+    private record RenderedPanel(PanelResult result, byte[] tile) {
+    }
+
+    private record DecodedPanel(byte[] image, PanelImageProcessor.ProcessedPanel processed) {
+    }
+
     private final VertexAiService vertexAiService;
-    private final TaskExecutor taskExecutor;
+    private final PanelStore panelStore;
+    private final PanelImageProcessor imageProcessor;
+    private final GenerationJobStore jobStore;
+    private final GenerationMetrics metrics;
+    private final StoryProfiles storyProfiles;
+    private final Scheduler blockingScheduler;
+    private final Scheduler imageScheduler;
+    private final int panelConcurrency;
+    private final Duration panelDeadline;
+    private final int recoveryAttempts;
+    // Fired on shutdown: running stories stop taking panels and leave the rest to whoever resumes them.
+    private final Sinks.One<Boolean> checkpoint = Sinks.one();
+    private volatile boolean checkpointing;
+
+    public ImageGenerationService(VertexAiService vertexAiService,
+            PanelStore panelStore,
+            PanelImageProcessor imageProcessor,
+            GenerationJobStore jobStore,
+            GenerationMetrics metrics,
+            StoryProfiles storyProfiles,
+            Scheduler blockingScheduler,
+            Scheduler imageScheduler,
+            @Value("${cartoon.panels.concurrency:10}") int panelConcurrency,
+            @Value("${cartoon.panels.deadline:PT90S}") Duration panelDeadline,
+            @Value("${cartoon.panels.recovery-attempts:1}") int recoveryAttempts) {
+        this.vertexAiService = vertexAiService;
+        this.panelStore = panelStore;
+        this.imageProcessor = imageProcessor;
+        this.jobStore = jobStore;
+        this.metrics = metrics;
+        this.storyProfiles = storyProfiles;
+        this.blockingScheduler = blockingScheduler;
+        this.imageScheduler = imageScheduler;
+        this.panelConcurrency = panelConcurrency;
+        this.panelDeadline = panelDeadline;
+        this.recoveryAttempts = recoveryAttempts;
+    }
 
     public List<PanelResult> generateCartoonPanels(String storyIdea) {
-        // 1. Generate 10 story prompts first
+        // 1. Generate the story prompts first
+        StoryProfile profile = storyProfiles.getDefault();
         List<String> prompts;
         try {
-            prompts = vertexAiService.generateStoryPrompts(storyIdea);
+            prompts = vertexAiService.generateStoryPrompts(StoryRequest.of(storyIdea, profile.panels())).prompts();
         } catch (IOException e) {
             log.error("Failed to generate story prompts", e);
             return Collections.emptyList();
@@ -39,80 +103,336 @@ public class ImageGenerationService {
             return Collections.emptyList();
         }
 
-        // 2. Generate images for each prompt in parallel
-        List<CompletableFuture<PanelResult>> panelFutures = prompts.stream()
-                .map(prompt -> CompletableFuture.supplyAsync(() -> {
-                    try {
-                        String image = vertexAiService.generateSingleImage(prompt);
-                        return new PanelResult(prompt, image);
-                    } catch (IOException e) {
+        // 2. Generate images for each prompt in parallel, keeping the original panel order
+        return Flux.fromIterable(prompts)
+                .index()
+                // Without a job there is no one to report panel statuses to.
+                .flatMapSequential(indexed -> renderPanel(profile, indexed.getT1().intValue(), indexed.getT2(),
+                        status -> log.info("Panel {} {}: {}", status.getIndex(), status.getState(),
+                                status.getReason())),
+                        panelConcurrency)
+                .map(RenderedPanel::result)
+                .collectList()
+                .contextWrite(VertexRequestScheduler.forStory(UUID.randomUUID().toString()))
+                .block();
+    }
+
+    /**
+     * Stops every running story at the next panel: panels in flight are abandoned, the job is left unfinished with
+     * everything rendered so far saved, and its claim is released so it can be resumed from there. Used on shutdown
+     * once stories have had their chance to finish.
+     */
+    public void checkpoint() {
+        checkpointing = true;
+        checkpoint.tryEmitValue(true);
+    }
+
+    /**
+     * Renders one panel. {@code onStatus} hears about hedges, regenerations and a final failure as they happen,
+     * always before the panel is emitted, and never on the event loop.
+     */
+    private Mono<RenderedPanel> renderPanel(StoryProfile profile, int index, String prompt,
+            Consumer<PanelStatus> onStatus) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return generateWithRecovery(profile, index, prompt, 0, onStatus)
+                    // Resizing is CPU-bound and writing the files is blocking I/O; neither belongs on the event loop.
+                    .publishOn(imageScheduler)
+                    .map(image -> new DecodedPanel(image, processQuietly(image)))
+                    .publishOn(blockingScheduler)
+                    .map(decoded -> {
+                        String imageUrl = panelStore.put(decoded.image()).url();
+                        if (decoded.processed() == null) {
+                            return new RenderedPanel(new PanelResult(index, prompt, imageUrl, null), null);
+                        }
+                        String thumbnailUrl = panelStore.put(decoded.processed().thumbnail()).url();
+                        return new RenderedPanel(new PanelResult(index, prompt, imageUrl, thumbnailUrl),
+                                decoded.processed().tile());
+                    })
+                    .doOnNext(panel -> metrics.recordPanel(profile.name(), true,
+                            Duration.ofNanos(System.nanoTime() - start)))
+                    .onErrorResume(e -> {
                         log.error("Failed to generate image for prompt: {}", prompt, e);
-                        return new PanelResult(prompt, null); // Return with null image on failure
-                    }
-                }, taskExecutor))
-                .collect(Collectors.toList());
-
-        // 3. Wait for all futures to complete and collect the results
-        return panelFutures.stream()
-                .map(CompletableFuture::join)
-                .collect(Collectors.toList());
+                        metrics.recordPanel(profile.name(), false, Duration.ofNanos(System.nanoTime() - start));
+                        onStatus.accept(new PanelStatus(index, PanelStatus.FAILED, describeFailure(e)));
+                        // Return with null image on failure
+                        return Mono.just(new RenderedPanel(new PanelResult(index, prompt, null, null), null));
+                    });
+        });
     }
 
-    @Async("taskExecutor")
-    public void generateCartoonPanelsWithProgress(String storyIdea, SseEmitter emitter) {
+    /**
+     * Requests a panel image, hedged and bounded by {@code cartoon.panels.deadline}. An image that fails, is
+     * filtered or misses the deadline is requested again from a softened prompt, up to
+     * {@code cartoon.panels.recovery-attempts} times, so one bad panel neither holds up nor leaves a hole in the story.
+     */
+    private Mono<byte[]> generateWithRecovery(StoryProfile profile, int index, String prompt, int attempt,
+            Consumer<PanelStatus> onStatus) {
+        return vertexAiService.generateSingleImageHedged(profile, prompt, () -> onStatus.accept(new PanelStatus(index,
+                        PanelStatus.HEDGED, "Taking longer than usual, sent a second request")))
+                .timeout(panelDeadline)
+                .publishOn(blockingScheduler)
+                .onErrorResume(e -> attempt < recoveryAttempts, e -> {
+                    log.warn("Panel {} failed ({}); regenerating it from a softened prompt", index, e.getMessage());
+                    metrics.recordPanelRecovery(e);
+                    onStatus.accept(new PanelStatus(index, PanelStatus.RETRYING,
+                            describeFailure(e) + ", trying again with a gentler prompt"));
+                    return generateWithRecovery(profile, index, PromptSoftener.soften(prompt), attempt + 1, onStatus);
+                });
+    }
+
+    private String describeFailure(Throwable error) {
+        if (error instanceof ImageFilteredException) {
+            return "The image was blocked by the safety filter";
+        }
+        if (error instanceof TimeoutException) {
+            return "No image after " + panelDeadline.toSeconds() + " seconds";
+        }
+        return "The image could not be generated";
+    }
+
+    private PanelImageProcessor.ProcessedPanel processQuietly(byte[] image) {
         try {
-            // 1. Generate story prompts
-            emitter.send(SseEmitter.event().name("progress").data(new ProgressUpdate("AI is creating a story...", 5)));
-            List<String> prompts = vertexAiService.generateStoryPrompts(storyIdea);
+            return imageProcessor.process(image);
+        } catch (IOException | RuntimeException e) {
+            // The full-size panel is still usable; it just gets no preview and stays out of the strip.
+            log.warn("Failed to create thumbnail: {}", e.getMessage());
+            return null;
+        }
+    }
 
-            if (prompts.isEmpty() || prompts.stream().allMatch(String::isEmpty)) {
+    /**
+     * Composites the story's panels into one strip image, in panel order. Panels rendered before a resume have no
+     * tile in memory and are re-read from the panel store. Returns {@code null} if there is nothing to composite or
+     * compositing fails; the individual panels are delivered either way.
+     */
+    private StripResult compositeStrip(Map<Integer, byte[]> tiles, Map<Integer, String> earlierPanels) {
+        try {
+            Tuple2<byte[], Integer> strip = Mono.fromCallable(() -> {
+                        Map<Integer, byte[]> ordered = new TreeMap<>(tiles);
+                        for (Map.Entry<Integer, String> panel : earlierPanels.entrySet()) {
+                            Optional<PanelStore.StoredPanel> stored = panelStore.getByUrl(panel.getValue());
+                            if (stored.isPresent() && !ordered.containsKey(panel.getKey())) {
+                                byte[] image = Files.readAllBytes(stored.get().file());
+                                ordered.put(panel.getKey(), imageProcessor.process(image).tile());
+                            }
+                        }
+                        return ordered.isEmpty()
+                                ? null
+                                : Tuples.of(imageProcessor.compositeStrip(new ArrayList<>(ordered.values())),
+                                        ordered.size());
+                    })
+                    .subscribeOn(imageScheduler)
+                    .block();
+            if (strip == null) {
+                return null;
+            }
+            return new StripResult(panelStore.put(strip.getT1()).url(), strip.getT2());
+        } catch (RuntimeException e) {
+            log.warn("Failed to composite comic strip: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Runs (or resumes) a claimed generation job on the calling thread, recording every progress and panel event in
+     * the {@link GenerationJobStore} for SSE subscribers, and releases the claim when done. Jobs are started by
+     * {@link GenerationAdmission}. When resuming, prompts already generated are reused if the story was fully written,
+     * and panels already rendered are not paid for again.
+     */
+    public void runJob(GenerationJobStore.JobClaim claim) {
+        try (claim) {
+            GenerationJob job = claim.job();
+            String jobId = job.getId();
+            StoryProfile profile = storyProfiles.forJob(job.getProfile());
+            boolean resuming = !job.getPanelImageUrls().isEmpty() || !job.getPrompts().isEmpty();
+            if (!resuming) {
+                metrics.recordQueueWait(profile.name(), Duration.between(job.getCreatedAt(), Instant.now()));
+            }
+            Observation story = metrics.story(jobId, profile.name(), resuming)
+                    .lowCardinalityKeyValue("outcome", "failed");
+            metrics.storyStarted();
+            try {
+                story.observe(() -> runClaimedJob(claim, profile, resuming, story));
+            } finally {
+                metrics.storyFinished();
+            }
+        }
+    }
+
+    private void runClaimedJob(GenerationJobStore.JobClaim claim, StoryProfile profile, boolean resuming,
+            Observation story) {
+        final GenerationJob job = claim.job();
+        final String jobId = job.getId();
+        final StoryRequest storyRequest = storyRequest(job, profile);
+        final List<String> knownPrompts = List.copyOf(job.getPrompts());
+        final Map<Integer, String> renderedPanels = new HashMap<>(job.getPanelImageUrls());
+        final long startNanos = System.nanoTime();
+        try {
+            // 1. Generate story prompts. In streaming mode this only starts the Gemini stream; prompts are handed to
+            // Imagen one by one as Gemini finishes writing them.
+            jobStore.append(jobId, GenerationJobStore.EVENT_PROGRESS,
+                    new ProgressUpdate(resuming ? "Resuming your cartoon..." : "AI is creating a story...", 5));
+            Flux<String> prompts;
+            if (job.isPromptsComplete()) {
+                prompts = Flux.fromIterable(knownPrompts);
+            } else if (vertexAiService.isStreamingPrompts()) {
+                prompts = vertexAiService.streamStoryPrompts(storyRequest, sheet -> jobStore.recordSheet(jobId, sheet));
+            } else {
+                StoryPrompts written = vertexAiService.generateStoryPrompts(storyRequest);
+                if (written.sheet() != null) {
+                    jobStore.recordSheet(jobId, written.sheet());
+                }
+                List<String> promptList = written.prompts();
+                if (promptList.isEmpty() || promptList.stream().allMatch(String::isEmpty)) {
+                    log.warn("No prompts were generated, aborting image generation.");
+                    jobStore.append(jobId, GenerationJobStore.EVENT_ERROR,
+                            "Failed to generate a story. Please try a different idea.");
+                    return;
+                }
+                stageReached(story, profile, "prompts", startNanos);
+                jobStore.append(jobId, GenerationJobStore.EVENT_PROGRESS, new ProgressUpdate(
+                        "Story created! Generating " + promptList.size() + " cartoon panels...", 10));
+                prompts = Flux.fromIterable(promptList);
+            }
+
+            // 2. Generate images in parallel and send updates as each panel lands.
+            // The HTTP calls run on the event loop; only this story's thread blocks, waiting for the next panel.
+            // Panels rendered before a restart are skipped as long as their prompt is unchanged.
+            final AtomicInteger promptCount = new AtomicInteger();
+            final Set<Integer> reusedPanels = ConcurrentHashMap.newKeySet();
+            final AtomicBoolean allPromptsReceived = new AtomicBoolean();
+            final AtomicBoolean claimLost = new AtomicBoolean();
+            int completedPanels = 0;
+
+            final Map<Integer, byte[]> tiles = new TreeMap<>();
+            Flux<RenderedPanel> panels = prompts
+                    .filter(prompt -> !prompt.isEmpty())
+                    .index()
+                    .doOnNext(indexed -> {
+                        promptCount.incrementAndGet();
+                        jobStore.recordPrompt(jobId, indexed.getT1().intValue(), indexed.getT2());
+                    })
+                    .doOnComplete(() -> {
+                        jobStore.markPromptsComplete(jobId, promptCount.get());
+                        allPromptsReceived.set(true);
+                        stageReached(story, profile, "prompts", startNanos);
+                    })
+                    .filter(indexed -> {
+                        int index = indexed.getT1().intValue();
+                        boolean alreadyRendered = renderedPanels.containsKey(index) && index < knownPrompts.size()
+                                && knownPrompts.get(index).equals(indexed.getT2());
+                        if (alreadyRendered) {
+                            reusedPanels.add(index);
+                        }
+                        return !alreadyRendered;
+                    })
+                    .flatMap(indexed -> renderPanel(profile, indexed.getT1().intValue(), indexed.getT2(),
+                            status -> jobStore.append(jobId, GenerationJobStore.EVENT_PANEL_STATUS, status)),
+                            panelConcurrency)
+                    .contextWrite(VertexRequestScheduler.forStory(jobId))
+                    // Makes the story the parent span of the Vertex AI calls made for it.
+                    .contextWrite(context -> context.put(ObservationThreadLocalAccessor.KEY, story))
+                    .takeUntilOther(checkpoint.asMono())
+                    // Another node may be running the story by now; stop rather than pay for its panels twice.
+                    .takeUntilOther(claim.lost().thenReturn(true).doOnNext(claimLost::set));
+            for (RenderedPanel renderedPanel : panels.toIterable()) {
+                PanelResult panelResult = renderedPanel.result();
+                if (completedPanels == 0) {
+                    stageReached(story, profile, "first_panel", startNanos);
+                }
+                if (renderedPanel.tile() != null) {
+                    tiles.put(panelResult.getIndex(), renderedPanel.tile());
+                }
+                int completed = ++completedPanels + reusedPanels.size();
+                // While prompts are still streaming in, assume a full-length story so progress never runs backwards.
+                int totalPanels = allPromptsReceived.get()
+                        ? promptCount.get()
+                        : Math.max(promptCount.get(), profile.panels());
+                int percentage = 10 + (int) ((double) completed / totalPanels * 90);
+                jobStore.append(jobId, GenerationJobStore.EVENT_PROGRESS,
+                        new ProgressUpdate("Generated panel " + completed + "/" + totalPanels, percentage));
+                // The small preview goes out first so slow connections have something to show right away.
+                if (panelResult.getThumbnailUrl() != null) {
+                    jobStore.append(jobId, GenerationJobStore.EVENT_THUMBNAIL, new PanelResult(panelResult.getIndex(),
+                            panelResult.getPrompt(), null, panelResult.getThumbnailUrl()));
+                }
+                jobStore.append(jobId, GenerationJobStore.EVENT_PANEL, panelResult);
+            }
+
+            if (claimLost.get()) {
+                log.warn("Stopped job {} after {} panel(s): its claim was lost", jobId,
+                        completedPanels + reusedPanels.size());
+                story.lowCardinalityKeyValue("outcome", "lost");
+                return;
+            }
+
+            // Stopped for shutdown before every panel was delivered: leave the job for the next owner to resume.
+            boolean allDelivered = allPromptsReceived.get()
+                    && completedPanels + reusedPanels.size() == promptCount.get();
+            if (checkpointing && !allDelivered) {
+                log.info("Checkpointed job {} after {} panel(s)", jobId, completedPanels + reusedPanels.size());
+                story.lowCardinalityKeyValue("outcome", "checkpointed");
+                return;
+            }
+
+            // 3. All panels have been delivered at this point
+            if (completedPanels + reusedPanels.size() == 0) {
                 log.warn("No prompts were generated, aborting image generation.");
-                emitter.send(SseEmitter.event().name("error").data("Failed to generate a story. Please try a different idea."));
+                jobStore.append(jobId, GenerationJobStore.EVENT_ERROR,
+                        "Failed to generate a story. Please try a different idea.");
                 return;
             }
-            emitter.send(SseEmitter.event().name("progress").data(new ProgressUpdate("Story created! Generating 10 cartoon panels...", 10)));
-
-            // 2. Generate images in parallel and send updates
-            final int totalPanels = prompts.size();
-            final AtomicInteger completedPanels = new AtomicInteger(0);
-
-            List<CompletableFuture<Void>> panelFutures = prompts.stream()
-                    .map(prompt -> CompletableFuture.supplyAsync(() -> {
-                        try {
-                            String image = vertexAiService.generateSingleImage(prompt);
-                            return new PanelResult(prompt, image);
-                        } catch (IOException e) {
-                            log.error("Failed to generate image for prompt: {}", prompt, e);
-                            return new PanelResult(prompt, null); // Return with null image on failure
-                        }
-                    }, taskExecutor)
-                    .thenAcceptAsync(panelResult -> {
-                        try {
-                            int completed = completedPanels.incrementAndGet();
-                            int percentage = 10 + (int) ((double) completed / totalPanels * 90);
-                            emitter.send(SseEmitter.event().name("progress").data(new ProgressUpdate("Generated panel " + completed + "/" + totalPanels, percentage)));
-                            emitter.send(SseEmitter.event().name("panel").data(panelResult));
-                        } catch (IOException e) {
-                            log.warn("Failed to send SSE event for a panel.", e);
-                        }
-                    }, taskExecutor))
-                    .collect(Collectors.toList());
 
-            // 3. Wait for all futures to complete
-            CompletableFuture.allOf(panelFutures.toArray(new CompletableFuture[0])).join();
+            // 4. Composite the comic strip from everything that rendered
+            Map<Integer, String> earlierPanels = new HashMap<>(renderedPanels);
+            earlierPanels.keySet().retainAll(reusedPanels);
+            StripResult strip = compositeStrip(tiles, earlierPanels);
+            if (strip != null) {
+                stageReached(story, profile, "strip", startNanos);
+                jobStore.append(jobId, GenerationJobStore.EVENT_STRIP, strip);
+            }
 
-            // 4. Send completion event
-            emitter.send(SseEmitter.event().name("complete").data("Cartoon generation complete!"));
+            // 5. Send completion event
+            jobStore.append(jobId, GenerationJobStore.EVENT_COMPLETE, "Cartoon generation complete!");
+            story.lowCardinalityKeyValue("outcome", "completed");
 
+        } catch (JobLostException e) {
+            // Nothing can be saved for the job any more, not even an error; its new owner carries on.
+            log.warn("Stopped job {}: {}", jobId, e.getMessage());
+            story.lowCardinalityKeyValue("outcome", "lost");
         } catch (Exception e) {
-            log.error("Error during cartoon generation for SSE stream", e);
+            log.error("Error during cartoon generation for job {}", jobId, e);
+            story.error(e);
             try {
-                emitter.send(SseEmitter.event().name("error").data("An unexpected error occurred: " + e.getMessage()));
-            } catch (IOException ioException) {
-                log.warn("Failed to send SSE error event.", ioException);
+                jobStore.append(jobId, GenerationJobStore.EVENT_ERROR,
+                        "An unexpected error occurred: " + e.getMessage());
+            } catch (JobLostException lost) {
+                log.warn("Could not report the failure of job {}: {}", jobId, lost.getMessage());
+                story.lowCardinalityKeyValue("outcome", "lost");
             }
-        } finally {
-            emitter.complete();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * A sequel is written from the earlier job's sheet; if that job is gone or has no sheet (it was written before
+     * character sheets, say), the story is written from scratch.
+     */
+    private StoryRequest storyRequest(GenerationJob job, StoryProfile profile) {
+        String sequelOf = job.getSequelOf();
+        if (sequelOf == null) {
+            return StoryRequest.of(job.getStoryIdea(), profile.panels());
+        }
+        StorySheet sheet = jobStore.find(sequelOf).map(GenerationJob::getSheet).orElse(null);
+        if (sheet == null) {
+            log.warn("No story sheet left for job {}; writing sequel {} from scratch", sequelOf, job.getId());
+            return StoryRequest.of(job.getStoryIdea(), profile.panels());
+        }
+        return new StoryRequest(job.getStoryIdea(), profile.panels(), sequelOf, sheet);
+    }
+
+    private void stageReached(Observation story, StoryProfile profile, String stage, long startNanos) {
+        metrics.recordStage(profile.name(), stage, Duration.ofNanos(System.nanoTime() - startNanos));
+        story.event(Observation.Event.of(stage));
+    }
+}
@@ -0,0 +1,196 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.sanghun.cartoon_generator.dto.ImagenRequest;
+import com.sanghun.cartoon_generator.dto.ImagenResponse;
+import com.sanghun.cartoon_generator.dto.Instance;
+import com.sanghun.cartoon_generator.dto.Parameters;
+import com.sanghun.cartoon_generator.dto.Prediction;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Packs panel prompts from any story into multi-instance Imagen predict calls.
+ * <p>
+ * A batch is sent when it reaches {@code maxBatchSize} prompts or when the oldest prompt has waited for
+ * {@code window}, whichever comes first, so the window bounds the latency added to a lone panel. Predictions come
+ * back in instance order, {@code sampleCount} per instance; if the count does not line up (a model that ignores
+ * extra instances, say) the batch falls back to one call per prompt instead of guessing which image is which.
+ */
+@Slf4j
+public class ImagenBatcher {
+
+    private record Pending(Instance instance, String storyId, MonoSink<byte[]> sink) {
+    }
+
+    /**
+     * A predict call in flight and the requests still waiting on it; once none is, the call is cancelled.
+     */
+    private static final class Batch {
+        private final List<Pending> requests;
+        private final Disposable.Swap call = Disposables.swap();
+
+        private Batch(List<Pending> requests) {
+            this.requests = requests;
+        }
+    }
+
+    private final int maxBatchSize;
+    private final Duration window;
+    private final Parameters parameters;
+    private final Function<ImagenRequest, Mono<ImagenResponse>> predict;
+
+    private List<Pending> pending = new ArrayList<>();
+    private Disposable scheduledFlush;
+    // Dispatched requests still waiting on their call; a request withdrawn here may cancel its batch.
+    private final Map<Pending, Batch> inFlight = new HashMap<>();
+
+    public ImagenBatcher(int maxBatchSize, Duration window, Parameters parameters,
+            Function<ImagenRequest, Mono<ImagenResponse>> predict) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.window = window;
+        this.parameters = parameters;
+        this.predict = predict;
+    }
+
+    /**
+     * Emits the image generated for {@code prompt}, or an {@link IOException} if Imagen returned none.
+     */
+    public Mono<byte[]> submit(String prompt) {
+        return Mono.deferContextual(ctx -> Mono.create(sink -> {
+            String storyId = ctx.getOrDefault(VertexRequestScheduler.STORY_CONTEXT_KEY, "default");
+            Pending request = new Pending(Instance.fromPrompt(prompt), storyId, sink);
+            sink.onCancel(() -> withdraw(request));
+            enqueue(request);
+        }));
+    }
+
+    private void enqueue(Pending request) {
+        List<Pending> ready = null;
+        synchronized (this) {
+            pending.add(request);
+            if (pending.size() >= maxBatchSize) {
+                ready = takePending();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = Schedulers.parallel().schedule(this::flush, window.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+        if (ready != null) {
+            dispatch(ready);
+        }
+    }
+
+    private void withdraw(Pending request) {
+        Batch abandoned;
+        synchronized (this) {
+            if (pending.remove(request)) {
+                return;
+            }
+            Batch batch = inFlight.remove(request);
+            abandoned = batch != null && batch.requests.stream().noneMatch(other -> inFlight.get(other) == batch) ? batch : null;
+        }
+        if (abandoned != null) {
+            log.debug("Cancelling an Imagen predict call for {} prompt(s) no one waits for", abandoned.requests.size());
+            abandoned.call.dispose();
+        }
+    }
+
+    private void flush() {
+        List<Pending> ready;
+        synchronized (this) {
+            ready = takePending();
+        }
+        if (!ready.isEmpty()) {
+            dispatch(ready);
+        }
+    }
+
+    private List<Pending> takePending() {
+        List<Pending> ready = pending;
+        pending = new ArrayList<>();
+        if (scheduledFlush != null) {
+            scheduledFlush.dispose();
+            scheduledFlush = null;
+        }
+        return ready;
+    }
+
+    private void dispatch(List<Pending> requests) {
+        Batch call = new Batch(requests);
+        synchronized (this) {
+            requests.forEach(request -> inFlight.put(request, call));
+        }
+        List<Instance> instances = requests.stream().map(Pending::instance).toList();
+        if (requests.size() > 1) {
+            log.info("Sending {} panel prompts in one Imagen predict call", requests.size());
+        }
+
+        // Disposed before the subscription is in place, the swap disposes the subscription as soon as it is.
+        call.call.update(predict.apply(ImagenRequest.fromInstances(instances, parameters))
+                .contextWrite(VertexRequestScheduler.forStory(requests.get(0).storyId()))
+                .doFinally(signal -> settled(call))
+                .subscribe(response -> demultiplex(requests, response),
+                        error -> requests.forEach(request -> request.sink().error(error)),
+                        () -> requests.forEach(request -> request.sink().error(
+                                new IOException("Vertex AI returned a response with no image data.")))));
+    }
+
+    private synchronized void settled(Batch call) {
+        // Requests sent again one by one are in flight in their own batch by now.
+        call.requests.forEach(request -> inFlight.remove(request, call));
+    }
+
+    private void demultiplex(List<Pending> batch, ImagenResponse response) {
+        List<Prediction> predictions = response.getPredictions() != null ? response.getPredictions() : List.of();
+        int stride = Math.max(1, parameters.getSampleCount());
+
+        if (batch.size() > 1 && predictions.size() != batch.size() * stride) {
+            log.warn("Imagen returned {} predictions for {} instances x {} samples; retrying the batch one by one",
+                    predictions.size(), batch.size(), stride);
+            batch.forEach(request -> {
+                // Requests withdrawn while the batch was out are not sent again.
+                synchronized (this) {
+                    if (!inFlight.containsKey(request)) {
+                        return;
+                    }
+                }
+                dispatch(List.of(request));
+            });
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            int from = Math.min(i * stride, predictions.size());
+            int to = batch.size() == 1 ? predictions.size() : Math.min(from + stride, predictions.size());
+            deliver(batch.get(i), predictions.subList(from, to));
+        }
+    }
+
+    private static void deliver(Pending request, List<Prediction> variants) {
+        String filteredReason = null;
+        for (Prediction prediction : variants) {
+            if (prediction.getImage() != null) {
+                request.sink().success(prediction.getImage());
+                return;
+            }
+            if (prediction.getRaiFilteredReason() != null) {
+                filteredReason = prediction.getRaiFilteredReason();
+            }
+        }
+        request.sink().error(filteredReason != null
+                ? new ImageFilteredException(filteredReason)
+                : new IOException("Vertex AI returned a response with no image data."));
+    }
+}
@@ -0,0 +1,132 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.sanghun.cartoon_generator.dto.ImagenResponse;
+import com.sanghun.cartoon_generator.dto.Prediction;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Streaming reader for Imagen {@code :predict} responses. Each {@code bytesBase64Encoded} value is decoded by the
+ * parser straight from the response bytes into a pooled buffer, so the multi-megabyte base64 text never exists as a
+ * {@code String} or {@code char[]}; the only allocation per image is the final, exactly sized {@code byte[]}.
+ * Fields other than the image, its MIME type and the filter reason are skipped without being materialized.
+ */
+public final class ImagenResponseReader {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    // A decoded 1024x1024 PNG is typically 1-2 MB; bigger buffers are used once and dropped, not pooled.
+    private static final int INITIAL_BUFFER_BYTES = 2 * 1024 * 1024;
+    private static final int MAX_POOLED_BUFFER_BYTES = 8 * 1024 * 1024;
+    private static final BlockingQueue<DecodeBuffer> POOL = new ArrayBlockingQueue<>(16);
+
+    private ImagenResponseReader() {
+    }
+
+    public static ImagenResponse read(InputStream body) throws IOException {
+        try (JsonParser parser = JSON.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected an Imagen response object");
+            }
+            List<Prediction> predictions = new ArrayList<>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("predictions".equals(field) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        if (parser.currentToken() == JsonToken.START_OBJECT) {
+                            predictions.add(readPrediction(parser));
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return new ImagenResponse(predictions);
+        }
+    }
+
+    private static Prediction readPrediction(JsonParser parser) throws IOException {
+        Prediction prediction = new Prediction();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "bytesBase64Encoded" -> prediction.setImage(value == JsonToken.VALUE_STRING ? decode(parser) : null);
+                case "mimeType" -> prediction.setMimeType(parser.getValueAsString());
+                case "raiFilteredReason" -> prediction.setRaiFilteredReason(parser.getValueAsString());
+                default -> parser.skipChildren();
+            }
+        }
+        return prediction;
+    }
+
+    private static byte[] decode(JsonParser parser) throws IOException {
+        DecodeBuffer buffer = POOL.poll();
+        if (buffer == null) {
+            buffer = new DecodeBuffer();
+        }
+        try {
+            parser.readBinaryValue(Base64Variants.getDefaultVariant(), buffer);
+            return buffer.toByteArray();
+        } catch (IllegalArgumentException e) {
+            throw new JsonParseException(parser, "Invalid base64 image: " + e.getMessage(), e);
+        } finally {
+            buffer.reset();
+            if (buffer.capacity() <= MAX_POOLED_BUFFER_BYTES) {
+                POOL.offer(buffer);
+            }
+        }
+    }
+
+    private static final class DecodeBuffer extends OutputStream {
+
+        private byte[] bytes = new byte[INITIAL_BUFFER_BYTES];
+        private int count;
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(count + 1);
+            bytes[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] source, int offset, int length) {
+            ensureCapacity(count + length);
+            System.arraycopy(source, offset, bytes, count, length);
+            count += length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, count);
+        }
+
+        int capacity() {
+            return bytes.length;
+        }
+
+        void reset() {
+            count = 0;
+        }
+
+        private void ensureCapacity(int needed) {
+            if (needed > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(needed, bytes.length * 2));
+            }
+        }
+    }
+}
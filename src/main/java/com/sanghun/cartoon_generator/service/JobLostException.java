@@ -0,0 +1,12 @@
+package com.sanghun.cartoon_generator.service;
+
+/**
+ * This node lost the lease on a job it was running, so another node may be running it now. Nothing more is saved for
+ * it here; the node that holds the lease carries on from the job's last saved event.
+ */
+public class JobLostException extends IllegalStateException {
+
+    public JobLostException(String jobId) {
+        super("Lost the lease on job " + jobId);
+    }
+}
@@ -0,0 +1,38 @@
+package com.sanghun.cartoon_generator.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Picks up persisted jobs nobody is running any more: the ones this node was running before a restart, and those of
+ * nodes sharing the job directory that went away.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class JobResumer {
+
+    private final GenerationJobStore jobStore;
+    private final GenerationAdmission admission;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeOnStartup() {
+        resumeUnfinished();
+    }
+
+    @Scheduled(fixedDelayString = "${cartoon.jobs.resume-interval:PT30S}", initialDelayString = "${cartoon.jobs.resume-interval:PT30S}")
+    public void resumeUnfinished() {
+        List<String> unfinished = jobStore.findUnfinished();
+        if (!unfinished.isEmpty()) {
+            log.debug("Found {} unfinished generation job(s)", unfinished.size());
+        }
+        // A no-op for jobs this or another node still holds the claim on, queued or running.
+        unfinished.forEach(admission::resume);
+    }
+}
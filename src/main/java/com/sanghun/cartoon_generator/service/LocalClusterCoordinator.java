@@ -0,0 +1,202 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sanghun.cartoon_generator.dto.GenerationJob;
+import com.sanghun.cartoon_generator.dto.JobEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * Single-node coordination. Jobs are JSON documents in {@code cartoon.jobs.store-dir}, rewritten atomically on every
+ * save, and a job's lease is an OS file lock next to it. The lock disappears with the process that held it, which is
+ * what makes a crashed run resumable after a restart.
+ * <p>
+ * Events and request registrations stay in this JVM, and panels are never shared; use the Redis coordinator to run
+ * several nodes.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "cartoon.coordination.mode", havingValue = "local", matchIfMissing = true)
+public class LocalClusterCoordinator implements ClusterCoordinator {
+
+    private static final int MAX_REGISTRATIONS = 10_000;
+
+    private record Registration(String jobId, long expiresAtNanos) {
+        boolean isExpired(long now) {
+            return now - expiresAtNanos >= 0;
+        }
+    }
+
+    private final ObjectMapper objectMapper;
+    private final Path directory;
+    private final List<BiConsumer<String, JobEvent>> listeners = new CopyOnWriteArrayList<>();
+    private final Map<String, Registration> requests = new ConcurrentHashMap<>();
+
+    public LocalClusterCoordinator(ObjectMapper objectMapper,
+            @Value("${cartoon.jobs.store-dir:${java.io.tmpdir}/cartoon-jobs}") String directory) throws IOException {
+        this.objectMapper = objectMapper;
+        this.directory = Files.createDirectories(Path.of(directory));
+    }
+
+    @Override
+    public boolean saveJob(GenerationJob job, Lease lease) {
+        // File locks are held until released, or until this process dies and with it any chance of saving.
+        Path file = file(job.getId(), ".json");
+        try {
+            Path tmp = Files.createTempFile(directory, job.getId(), ".tmp");
+            objectMapper.writeValue(tmp.toFile(), job);
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to persist job " + job.getId(), e);
+        }
+    }
+
+    @Override
+    public Optional<GenerationJob> loadJob(String jobId) {
+        Path file = file(jobId, ".json");
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(objectMapper.readValue(file.toFile(), GenerationJob.class));
+        } catch (IOException e) {
+            log.warn("Failed to read job {}: {}", jobId, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public List<String> listJobIds() {
+        List<String> jobIds = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.json")) {
+            for (Path file : files) {
+                String jobId = file.getFileName().toString().replace(".json", "");
+                if (GenerationJobStore.isJobId(jobId)) {
+                    jobIds.add(jobId);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to scan job directory {}: {}", directory, e.getMessage());
+        }
+        return jobIds;
+    }
+
+    @Override
+    public void deleteJob(String jobId) {
+        try {
+            Files.deleteIfExists(file(jobId, ".json"));
+            Files.deleteIfExists(file(jobId, ".lock"));
+        } catch (IOException e) {
+            log.warn("Failed to delete job {}: {}", jobId, e.getMessage());
+        }
+    }
+
+    @Override
+    public Optional<Lease> tryLease(String jobId) {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file(jobId, ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                channel.close();
+                return Optional.empty();
+            }
+            FileChannel lockedChannel = channel;
+            return Optional.of(() -> {
+                try {
+                    lock.release();
+                } catch (IOException e) {
+                    log.warn("Failed to release lease on job {}: {}", jobId, e.getMessage());
+                }
+                closeQuietly(lockedChannel);
+            });
+        } catch (OverlappingFileLockException e) {
+            closeQuietly(channel);
+            return Optional.empty();
+        } catch (IOException e) {
+            closeQuietly(channel);
+            log.warn("Failed to lease job {}: {}", jobId, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void publishEvent(String jobId, JobEvent event) {
+        listeners.forEach(listener -> listener.accept(jobId, event));
+    }
+
+    @Override
+    public void addEventListener(BiConsumer<String, JobEvent> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public String claimRequest(String requestKey, String jobId, Duration window) {
+        long now = System.nanoTime();
+        if (requests.size() > MAX_REGISTRATIONS) {
+            requests.values().removeIf(registration -> registration.isExpired(now));
+        }
+        return requests.compute(requestKey, (key, existing) -> existing != null && !existing.isExpired(now)
+                ? existing
+                : new Registration(jobId, now + window.toNanos())).jobId();
+    }
+
+    @Override
+    public void replaceRequest(String requestKey, String expectedJobId, String jobId, Duration window) {
+        requests.computeIfPresent(requestKey, (key, existing) -> existing.jobId().equals(expectedJobId)
+                ? new Registration(jobId, System.nanoTime() + window.toNanos())
+                : existing);
+    }
+
+    @Override
+    public void sharePanel(String panelId, byte[] image, Duration ttl) {
+        // Single node: the panel store on local disk is all there is.
+    }
+
+    @Override
+    public Optional<byte[]> fetchPanel(String panelId) {
+        return Optional.empty();
+    }
+
+    /**
+     * A job's file in the store directory. Only job ids are turned into file names, so no id can point elsewhere.
+     */
+    private Path file(String jobId, String extension) {
+        if (!GenerationJobStore.isJobId(jobId)) {
+            throw new IllegalArgumentException("Not a job id: " + jobId);
+        }
+        return directory.resolve(jobId + extension);
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // nothing left to release
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.sanghun.cartoon_generator.service;
+
+import java.io.IOException;
+
+/**
+ * Gemini's story sheet was not valid JSON for the schema, or broke off before it was complete. The same request may
+ * well succeed again; failing that, the story can still be told from plain prompts.
+ */
+public class MalformedStorySheetException extends IOException {
+
+    public MalformedStorySheetException(Throwable cause) {
+        super("Malformed story sheet: " + cause.getMessage(), cause);
+    }
+}
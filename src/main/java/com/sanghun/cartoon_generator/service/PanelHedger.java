@@ -0,0 +1,143 @@
+package com.sanghun.cartoon_generator.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Hedged panel image requests. A panel still waiting for its image after the hedge delay, the observed p95 of
+ * recent panel latencies, gets a second, identical request, and whichever image arrives first wins; the other call
+ * is cancelled. Only the slowest few percent of panels pay for a second call, but one stuck call no longer sets the
+ * pace of the whole story.
+ * <p>
+ * Hedges go through the same rate scheduler and concurrency limit as every other call, so they cannot push past
+ * the Vertex AI quota. Until enough panels have been timed the delay is {@code cartoon.panels.hedge.initial-delay}.
+ */
+@Component
+public class PanelHedger implements MeterBinder {
+
+    private static final int WINDOW = 256;
+    private static final int MIN_SAMPLES = 20;
+
+    private record Attempt<T>(T value, boolean hedge) {
+    }
+
+    private final boolean enabled;
+    private final double percentile;
+    private final Duration minDelay;
+    private final Duration initialDelay;
+    private final Scheduler blockingScheduler;
+
+    // Ring buffer of the latest successful attempt latencies, in nanoseconds.
+    private final long[] samples = new long[WINDOW];
+    private int sampleCount;
+    private int nextSample;
+
+    private final AtomicLong hedgesFired = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+
+    public PanelHedger(@Value("${cartoon.panels.hedge.enabled:true}") boolean enabled,
+            @Value("${cartoon.panels.hedge.percentile:0.95}") double percentile,
+            @Value("${cartoon.panels.hedge.min-delay:PT2S}") Duration minDelay,
+            @Value("${cartoon.panels.hedge.initial-delay:PT20S}") Duration initialDelay,
+            Scheduler blockingScheduler) {
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.minDelay = minDelay;
+        this.initialDelay = initialDelay;
+        this.blockingScheduler = blockingScheduler;
+    }
+
+    /**
+     * Subscribes to {@code attempt} once and, if it has not produced a value after the hedge delay, once more,
+     * calling {@code onHedge} first. Emits the first value; fails only when every attempt started has failed, with
+     * the first of their errors. A primary failing before the delay fails the call without hedging.
+     */
+    public <T> Mono<T> hedge(Supplier<Mono<T>> attempt, Runnable onHedge) {
+        if (!enabled) {
+            return Mono.defer(() -> timed(attempt.get()));
+        }
+        return Mono.defer(() -> {
+            Duration delay = hedgeDelay();
+            Sinks.One<Boolean> primaryDone = Sinks.one();
+            Mono<Attempt<T>> primary = timed(attempt.get())
+                    .map(value -> new Attempt<>(value, false))
+                    .doFinally(signal -> primaryDone.tryEmitValue(true));
+            Mono<Attempt<T>> secondary = Mono.delay(delay)
+                    .flux()
+                    .takeUntilOther(primaryDone.asMono())
+                    .next()
+                    // The hedge callback may block (it records an event), and the virtual-thread scheduler cannot
+                    // run timers, so only the callback moves over to it.
+                    .publishOn(blockingScheduler)
+                    .flatMap(tick -> {
+                        hedgesFired.incrementAndGet();
+                        onHedge.run();
+                        return timed(attempt.get()).map(value -> new Attempt<>(value, true));
+                    });
+            return Flux.mergeDelayError(2, primary, secondary)
+                    .next()
+                    .doOnNext(winner -> {
+                        if (winner.hedge()) {
+                            hedgesWon.incrementAndGet();
+                        }
+                    })
+                    .map(Attempt::value)
+                    .onErrorMap(Exceptions::isMultiple, e -> Exceptions.unwrapMultiple(e).get(0));
+        });
+    }
+
+    /**
+     * The configured percentile of recent attempt latencies, but never less than {@code min-delay}.
+     */
+    public synchronized Duration hedgeDelay() {
+        if (sampleCount < MIN_SAMPLES) {
+            return initialDelay;
+        }
+        long[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile * sampleCount) - 1;
+        Duration observed = Duration.ofNanos(sorted[Math.max(0, Math.min(sampleCount - 1, rank))]);
+        return observed.compareTo(minDelay) < 0 ? minDelay : observed;
+    }
+
+    private <T> Mono<T> timed(Mono<T> call) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return call.doOnNext(value -> record(System.nanoTime() - start));
+        });
+    }
+
+    private synchronized void record(long nanos) {
+        samples[nextSample] = nanos;
+        nextSample = (nextSample + 1) % WINDOW;
+        sampleCount = Math.min(WINDOW, sampleCount + 1);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("cartoon.panel.hedge.delay", this, hedger -> hedger.hedgeDelay().toNanos() / 1e9)
+                .description("Time after which a panel image request is hedged with a second one")
+                .baseUnit("seconds")
+                .register(registry);
+        FunctionCounter.builder("cartoon.panel.hedges", hedgesFired, AtomicLong::get)
+                .description("Second requests sent for slow panel images")
+                .register(registry);
+        FunctionCounter.builder("cartoon.panel.hedges.won", hedgesWon, AtomicLong::get)
+                .description("Hedged requests that answered before the original")
+                .register(registry);
+    }
+}
@@ -0,0 +1,292 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.sanghun.cartoon_generator.dto.Parameters;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed cache for decoded panel images, keyed by a hash of (model id, normalized prompt, parameters).
+ * <p>
+ * The memory tier is an LRU bounded by the total size of the cached bytes rather than by entry count, so a few
+ * large panels cannot push the heap past its budget. The optional disk tier survives restarts and is an LRU too,
+ * bounded by {@code cartoon.cache.disk-max-bytes}: the least recently used files are deleted once a write takes it
+ * over budget, and files left by a previous run are re-indexed on startup, oldest first. Disk hits are promoted back
+ * into memory.
+ */
+@Slf4j
+@Component
+public class PanelImageCache implements MeterBinder {
+
+    private final long maxMemoryBytes;
+    private final long maxDiskBytes;
+    private final Path diskDir;
+
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private long memoryBytes;
+
+    // Size of each file in the disk tier, in access order.
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(64, 0.75f, true);
+    private long diskBytes;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong diskEvictions = new AtomicLong();
+
+    public PanelImageCache(@Value("${cartoon.cache.memory-max-bytes:268435456}") long maxMemoryBytes,
+            @Value("${cartoon.cache.disk-dir:}") String diskDir,
+            @Value("${cartoon.cache.disk-max-bytes:1073741824}") long maxDiskBytes) throws IOException {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        if (diskDir == null || diskDir.isBlank()) {
+            this.diskDir = null;
+        } else {
+            this.diskDir = Files.createDirectories(Path.of(diskDir.trim()));
+            reindex();
+            log.info("Panel image disk cache enabled at {} ({} of {} bytes used)",
+                    this.diskDir.toAbsolutePath(), getDiskBytes(), maxDiskBytes);
+        }
+    }
+
+    public static String key(String modelId, String prompt, Parameters parameters) {
+        String normalizedPrompt = Normalizer.normalize(prompt, Normalizer.Form.NFC).trim().replaceAll("\\s+", " ");
+        String material = modelId + '\n' + normalizedPrompt + '\n' + parameters;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(material.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public Optional<byte[]> get(String key) {
+        synchronized (memory) {
+            byte[] image = memory.get(key);
+            if (image != null) {
+                memoryHits.incrementAndGet();
+                return Optional.of(image);
+            }
+        }
+
+        if (diskDir != null && touchOnDisk(key)) {
+            try {
+                byte[] image = Files.readAllBytes(diskPath(key));
+                diskHits.incrementAndGet();
+                putInMemory(key, image);
+                return Optional.of(image);
+            } catch (IOException e) {
+                // Evicted meanwhile, or removed from outside.
+                log.warn("Failed to read cached panel {} from disk: {}", key, e.getMessage());
+                forgetOnDisk(key);
+            }
+        }
+
+        misses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    /**
+     * Whether {@code key} is cached, without counting a cache request.
+     */
+    public boolean contains(String key) {
+        synchronized (memory) {
+            if (memory.containsKey(key)) {
+                return true;
+            }
+        }
+        if (diskDir == null) {
+            return false;
+        }
+        synchronized (disk) {
+            return disk.containsKey(key);
+        }
+    }
+
+    public void put(String key, byte[] image) {
+        putInMemory(key, image);
+        if (diskDir != null) {
+            writeToDisk(key, image);
+        }
+    }
+
+    private void putInMemory(String key, byte[] image) {
+        if (image.length > maxMemoryBytes) {
+            return;
+        }
+        synchronized (memory) {
+            byte[] previous = memory.put(key, image);
+            if (previous != null) {
+                memoryBytes -= previous.length;
+            }
+            memoryBytes += image.length;
+
+            Iterator<Map.Entry<String, byte[]>> eldest = memory.entrySet().iterator();
+            while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+                Map.Entry<String, byte[]> entry = eldest.next();
+                memoryBytes -= entry.getValue().length;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private void writeToDisk(String key, byte[] image) {
+        if (image.length > maxDiskBytes || touchOnDisk(key)) {
+            return;
+        }
+        Path file = diskPath(key);
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), key, ".tmp");
+            Files.write(tmp, image);
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.warn("Failed to write panel {} to disk cache: {}", key, e.getMessage());
+            return;
+        }
+        addOnDisk(key, image.length);
+    }
+
+    private boolean touchOnDisk(String key) {
+        synchronized (disk) {
+            return disk.get(key) != null;
+        }
+    }
+
+    private void forgetOnDisk(String key) {
+        synchronized (disk) {
+            Long size = disk.remove(key);
+            if (size != null) {
+                diskBytes -= size;
+            }
+        }
+    }
+
+    /**
+     * Indexes a file just written and deletes the least recently used ones until the disk tier is back in budget.
+     */
+    private void addOnDisk(String key, long size) {
+        List<String> evicted = new ArrayList<>();
+        synchronized (disk) {
+            Long previous = disk.put(key, size);
+            if (previous != null) {
+                diskBytes -= previous;
+            }
+            diskBytes += size;
+
+            Iterator<Map.Entry<String, Long>> eldest = disk.entrySet().iterator();
+            while (diskBytes > maxDiskBytes && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                diskBytes -= entry.getValue();
+                eldest.remove();
+                evicted.add(entry.getKey());
+            }
+        }
+        for (String old : evicted) {
+            try {
+                Files.deleteIfExists(diskPath(old));
+                diskEvictions.incrementAndGet();
+            } catch (IOException e) {
+                log.warn("Failed to delete evicted panel {} from disk cache: {}", old, e.getMessage());
+            }
+        }
+    }
+
+    private void reindex() throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(diskDir, 2)) {
+            files = walk.filter(Files::isRegularFile).toList();
+        }
+        List<Map.Entry<Path, FileTime>> cached = new ArrayList<>();
+        for (Path file : files) {
+            if (file.getFileName().toString().endsWith(".bin")) {
+                cached.add(Map.entry(file, Files.getLastModifiedTime(file)));
+            } else {
+                // Left over from a write that never completed.
+                Files.deleteIfExists(file);
+            }
+        }
+        cached.sort(Map.Entry.comparingByValue());
+        for (Map.Entry<Path, FileTime> entry : cached) {
+            String name = entry.getKey().getFileName().toString();
+            addOnDisk(name.substring(0, name.length() - ".bin".length()), Files.size(entry.getKey()));
+        }
+    }
+
+    private Path diskPath(String key) {
+        return diskDir.resolve(key.substring(0, 2)).resolve(key + ".bin");
+    }
+
+    public long getMemoryBytes() {
+        synchronized (memory) {
+            return memoryBytes;
+        }
+    }
+
+    public int getMemoryEntries() {
+        synchronized (memory) {
+            return memory.size();
+        }
+    }
+
+    public long getDiskBytes() {
+        synchronized (disk) {
+            return diskBytes;
+        }
+    }
+
+    public int getDiskEntries() {
+        synchronized (disk) {
+            return disk.size();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("cartoon.panel.cache.requests", memoryHits, AtomicLong::get)
+                .tag("result", "memory_hit").register(registry);
+        FunctionCounter.builder("cartoon.panel.cache.requests", diskHits, AtomicLong::get)
+                .tag("result", "disk_hit").register(registry);
+        FunctionCounter.builder("cartoon.panel.cache.requests", misses, AtomicLong::get)
+                .tag("result", "miss").register(registry);
+        FunctionCounter.builder("cartoon.panel.cache.evictions", evictions, AtomicLong::get)
+                .register(registry);
+        Gauge.builder("cartoon.panel.cache.memory.bytes", this, PanelImageCache::getMemoryBytes)
+                .baseUnit("bytes").register(registry);
+        Gauge.builder("cartoon.panel.cache.memory.entries", this, PanelImageCache::getMemoryEntries)
+                .register(registry);
+        if (diskDir != null) {
+            FunctionCounter.builder("cartoon.panel.cache.disk.evictions", diskEvictions, AtomicLong::get)
+                    .register(registry);
+            Gauge.builder("cartoon.panel.cache.disk.bytes", this, PanelImageCache::getDiskBytes)
+                    .baseUnit("bytes").register(registry);
+            Gauge.builder("cartoon.panel.cache.disk.entries", this, PanelImageCache::getDiskEntries)
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.sanghun.cartoon_generator.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * CPU-bound image work on finished panels: a small JPEG thumbnail for progressive display, a strip-sized JPEG tile,
+ * and the composited comic strip. Everything here is synchronous; callers run it on the bounded image scheduler.
+ * <p>
+ * A full-resolution panel is decoded exactly once, into both downscaled outputs. The strip is built from the small
+ * tiles, decoded one at a time into a single strip raster, so only that raster and one tile are ever held
+ * uncompressed.
+ */
+@Component
+public class PanelImageProcessor {
+
+    public record ProcessedPanel(byte[] thumbnail, byte[] tile) {
+    }
+
+    static {
+        // Encode and decode in memory instead of through ImageIO's temp-file cache.
+        ImageIO.setUseCache(false);
+    }
+
+    private final int thumbnailWidth;
+    private final int tileWidth;
+    private final int columns;
+    private final float quality;
+
+    public PanelImageProcessor(@Value("${cartoon.thumbnails.width:256}") int thumbnailWidth,
+            @Value("${cartoon.strip.panel-width:512}") int tileWidth,
+            @Value("${cartoon.strip.columns:2}") int columns,
+            @Value("${cartoon.images.jpeg-quality:0.82}") float quality) {
+        this.thumbnailWidth = thumbnailWidth;
+        this.tileWidth = tileWidth;
+        this.columns = columns;
+        this.quality = quality;
+    }
+
+    public ProcessedPanel process(byte[] image) throws IOException {
+        BufferedImage panel = decode(image);
+        return new ProcessedPanel(encodeJpeg(scale(panel, thumbnailWidth)), encodeJpeg(scale(panel, tileWidth)));
+    }
+
+    /**
+     * Lays the tiles out in a grid, in order, and encodes the result as one JPEG.
+     */
+    public byte[] compositeStrip(List<byte[]> tiles) throws IOException {
+        if (tiles.isEmpty()) {
+            throw new IllegalArgumentException("A strip needs at least one panel");
+        }
+        // Tiles are tile-width wide; the tallest one sets the cell height. Only headers are read for that.
+        int cellHeight = 1;
+        for (byte[] tile : tiles) {
+            cellHeight = Math.max(cellHeight, readHeight(tile));
+        }
+        int cols = Math.min(columns, tiles.size());
+        int rows = (tiles.size() + cols - 1) / cols;
+
+        BufferedImage strip = new BufferedImage(cols * tileWidth, rows * cellHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = strip.createGraphics();
+        try {
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, strip.getWidth(), strip.getHeight());
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            for (int i = 0; i < tiles.size(); i++) {
+                BufferedImage tile = decode(tiles.get(i));
+                int x = (i % cols) * tileWidth;
+                int y = (i / cols) * cellHeight;
+                int height = Math.min(cellHeight, tile.getHeight() * tileWidth / Math.max(1, tile.getWidth()));
+                graphics.drawImage(tile, x, y + (cellHeight - height) / 2, tileWidth, height, null);
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return encodeJpeg(strip);
+    }
+
+    private static BufferedImage decode(byte[] image) throws IOException {
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(image));
+        if (decoded == null) {
+            throw new IOException("Unsupported image format");
+        }
+        return decoded;
+    }
+
+    private static int readHeight(byte[] image) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return reader.getHeight(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage source, int width) {
+        int targetWidth = Math.min(width, source.getWidth());
+        int targetHeight = Math.max(1, source.getHeight() * targetWidth / source.getWidth());
+        BufferedImage scaled = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            // JPEG has no alpha; flatten transparent PNG areas onto white.
+            graphics.drawImage(source, 0, 0, targetWidth, targetHeight, Color.WHITE, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(image.getWidth() * image.getHeight() / 4);
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,169 @@
+package com.sanghun.cartoon_generator.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Short-lived, file-backed store for generated images that clients fetch by id instead of receiving them inline.
+ * <p>
+ * Ids are the SHA-256 of the image bytes, so the id doubles as a strong ETag and a panel rendered twice is stored
+ * once. Entries expire {@code ttl} after their last write; files left by a previous run are re-indexed on startup.
+ * Stored panels are also shared through the {@link ClusterCoordinator}, so a panel rendered on one node can be served
+ * by any other; those copy it to their own directory on first request.
+ */
+@Slf4j
+@Component
+public class PanelStore {
+
+    private static final String URL_PREFIX = "/panels/";
+
+    public record StoredPanel(String id, Path file, MediaType mediaType, long size, Instant expiresAt) {
+        public String url() {
+            return URL_PREFIX + id;
+        }
+    }
+
+    private final ClusterCoordinator coordinator;
+    private final Path directory;
+    private final Duration ttl;
+    private final Map<String, StoredPanel> panels = new ConcurrentHashMap<>();
+
+    public PanelStore(ClusterCoordinator coordinator,
+            @Value("${cartoon.panels.store-dir:${java.io.tmpdir}/cartoon-panels}") String directory,
+            @Value("${cartoon.panels.ttl:PT1H}") Duration ttl) throws IOException {
+        this.coordinator = coordinator;
+        this.directory = Files.createDirectories(Path.of(directory));
+        this.ttl = ttl;
+        reindex();
+    }
+
+    public StoredPanel put(byte[] image) {
+        StoredPanel panel = store(sha256(image), image);
+        try {
+            coordinator.sharePanel(panel.id(), image, ttl);
+        } catch (RuntimeException e) {
+            // Still servable from this node; other nodes answer 404 until it is rendered again.
+            log.warn("Failed to share panel {}: {}", panel.id(), e.getMessage());
+        }
+        return panel;
+    }
+
+    private StoredPanel store(String id, byte[] image) {
+        MediaType mediaType = sniffMediaType(image);
+        Path file = directory.resolve(id + extension(mediaType));
+        try {
+            if (!Files.exists(file)) {
+                Path tmp = Files.createTempFile(directory, id, ".tmp");
+                Files.write(tmp, image);
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store panel " + id, e);
+        }
+        StoredPanel panel = new StoredPanel(id, file, mediaType, image.length, Instant.now().plus(ttl));
+        panels.put(id, panel);
+        return panel;
+    }
+
+    public Optional<StoredPanel> get(String id) {
+        StoredPanel panel = panels.get(id);
+        if (panel == null || panel.expiresAt().isBefore(Instant.now()) || !Files.exists(panel.file())) {
+            return fetchShared(id);
+        }
+        return Optional.of(panel);
+    }
+
+    private Optional<StoredPanel> fetchShared(String id) {
+        try {
+            // Ids are content hashes, so anything that is not one cannot have been shared.
+            if (!id.matches("[0-9a-f]{64}")) {
+                return Optional.empty();
+            }
+            return coordinator.fetchPanel(id).map(image -> store(id, image));
+        } catch (RuntimeException e) {
+            log.warn("Failed to fetch shared panel {}: {}", id, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    public Optional<StoredPanel> getByUrl(String url) {
+        return url != null && url.startsWith(URL_PREFIX) ? get(url.substring(URL_PREFIX.length())) : Optional.empty();
+    }
+
+    public Duration getTtl() {
+        return ttl;
+    }
+
+    @Scheduled(fixedDelayString = "${cartoon.panels.cleanup-interval:PT5M}")
+    public void evictExpired() {
+        Instant now = Instant.now();
+        panels.values().removeIf(panel -> {
+            if (panel.expiresAt().isAfter(now)) {
+                return false;
+            }
+            try {
+                Files.deleteIfExists(panel.file());
+            } catch (IOException e) {
+                log.warn("Failed to delete expired panel {}: {}", panel.id(), e.getMessage());
+            }
+            return true;
+        });
+    }
+
+    private void reindex() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                int dot = name.lastIndexOf('.');
+                if (dot <= 0 || name.endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                MediaType mediaType = name.endsWith(".jpg") ? MediaType.IMAGE_JPEG : MediaType.IMAGE_PNG;
+                Instant expiresAt = Files.getLastModifiedTime(file).toInstant().plus(ttl);
+                String id = name.substring(0, dot);
+                panels.put(id, new StoredPanel(id, file, mediaType, Files.size(file), expiresAt));
+            }
+        }
+    }
+
+    static MediaType sniffMediaType(byte[] image) {
+        if (image.length >= 3 && (image[0] & 0xFF) == 0xFF && (image[1] & 0xFF) == 0xD8 && (image[2] & 0xFF) == 0xFF) {
+            return MediaType.IMAGE_JPEG;
+        }
+        return MediaType.IMAGE_PNG;
+    }
+
+    private static String extension(MediaType mediaType) {
+        return MediaType.IMAGE_JPEG.equals(mediaType) ? ".jpg" : ".png";
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.sanghun.cartoon_generator.service;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites a panel prompt that Imagen filtered or failed to render into a milder one: words that commonly trip the
+ * safety filter are swapped for gentle equivalents and an all-ages qualifier is appended. Style, characters and
+ * setting are left as they are, so the regenerated panel still fits the story.
+ */
+final class PromptSoftener {
+
+    static final String ALL_AGES = "Gentle, friendly scene suitable for all ages.";
+
+    private static final Map<String, String> REPLACEMENTS = Map.ofEntries(
+            Map.entry("attack", "surprise"),
+            Map.entry("attacking", "surprising"),
+            Map.entry("blood", "paint"),
+            Map.entry("bloody", "messy"),
+            Map.entry("dead", "sleeping"),
+            Map.entry("death", "rest"),
+            Map.entry("explosion", "burst of confetti"),
+            Map.entry("fight", "game"),
+            Map.entry("fighting", "playing"),
+            Map.entry("gun", "water pistol"),
+            Map.entry("guns", "water pistols"),
+            Map.entry("injured", "tired"),
+            Map.entry("kill", "catch"),
+            Map.entry("killing", "catching"),
+            Map.entry("knife", "spoon"),
+            Map.entry("monster", "creature"),
+            Map.entry("scary", "silly"),
+            Map.entry("sword", "wooden stick"),
+            Map.entry("terrifying", "surprising"),
+            Map.entry("weapon", "tool"),
+            Map.entry("weapons", "tools"),
+            Map.entry("wound", "bandage"));
+
+    private static final Pattern RISKY_WORDS = Pattern.compile(
+            "\\b(" + String.join("|", REPLACEMENTS.keySet()) + ")\\b", Pattern.CASE_INSENSITIVE);
+
+    private PromptSoftener() {
+    }
+
+    static String soften(String prompt) {
+        Matcher matcher = RISKY_WORDS.matcher(prompt);
+        String softened = matcher.replaceAll(match -> {
+            String word = match.group();
+            String replacement = REPLACEMENTS.get(word.toLowerCase(Locale.ROOT));
+            return Character.isUpperCase(word.charAt(0))
+                    ? Character.toUpperCase(replacement.charAt(0)) + replacement.substring(1)
+                    : replacement;
+        }).trim();
+        return softened.endsWith(ALL_AGES) ? softened : softened + " " + ALL_AGES;
+    }
+}
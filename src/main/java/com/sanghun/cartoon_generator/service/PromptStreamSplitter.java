@@ -0,0 +1,45 @@
+package com.sanghun.cartoon_generator.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Incrementally splits streamed Gemini text on the {@code ---} prompt delimiter. A prompt is emitted as soon as the
+ * delimiter after it arrives, even if the delimiter straddles two chunks; whatever follows the last delimiter is
+ * emitted by {@link #finish()}. Segments are trimmed and empty ones dropped, like the non-streaming split.
+ * <p>
+ * Not thread-safe: use one instance per stream.
+ */
+public class PromptStreamSplitter {
+
+    private static final String DELIMITER = "---";
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    public List<String> append(String chunk) {
+        buffer.append(chunk);
+        List<String> prompts = new ArrayList<>();
+        int start = 0;
+        int delimiter;
+        while ((delimiter = buffer.indexOf(DELIMITER, start)) >= 0) {
+            addIfNotBlank(prompts, buffer.substring(start, delimiter));
+            start = delimiter + DELIMITER.length();
+        }
+        buffer.delete(0, start);
+        return prompts;
+    }
+
+    public List<String> finish() {
+        List<String> prompts = new ArrayList<>(1);
+        addIfNotBlank(prompts, buffer.toString());
+        buffer.setLength(0);
+        return prompts;
+    }
+
+    private static void addIfNotBlank(List<String> prompts, String segment) {
+        String prompt = segment.trim();
+        if (!prompt.isEmpty()) {
+            prompts.add(prompt);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sanghun.cartoon_generator.dto.GenerationJob;
+import com.sanghun.cartoon_generator.dto.JobEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Coordination through Redis (or anything speaking its protocol), for running several nodes behind a plain load
+ * balancer:
+ * <ul>
+ *     <li>job documents are JSON strings, listed in a set; finished jobs expire after the job retention,</li>
+ *     <li>a lease is a {@code SET NX PX} key renewed by its holder, so a dead node's jobs free up after
+ *     {@code cartoon.coordination.lease-ttl} and are resumed elsewhere; a holder that loses its lease stops the
+ *     job, and job documents are only saved while their lease is held,</li>
+ *     <li>job events are fanned out over pub/sub, so an SSE client attached to any node sees every panel,</li>
+ *     <li>request registrations are {@code SET NX} keys, deduplicating identical stories across nodes,</li>
+ *     <li>panels are stored as binary values for nodes that did not render them.</li>
+ * </ul>
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "cartoon.coordination.mode", havingValue = "redis")
+public class RedisClusterCoordinator implements ClusterCoordinator, InitializingBean, DisposableBean {
+
+    private static final String PREFIX = "cartoon:";
+    private static final String JOBS_KEY = PREFIX + "jobs";
+    private static final String EVENTS_CHANNEL = PREFIX + "job-events";
+    // Keeps abandoned, never-finished jobs from piling up forever; they are resumed long before this.
+    private static final Duration UNFINISHED_JOB_TTL = Duration.ofDays(1);
+
+    private static final RedisScript<Long> RELEASE_IF_OWNED = RedisScript.of(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+    private static final RedisScript<Long> RENEW_IF_OWNED = RedisScript.of(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end",
+            Long.class);
+    // Saves the job unless a lease token is given and no longer holds the job's lease.
+    private static final RedisScript<Long> SAVE_IF_OWNED = RedisScript.of(
+            "if ARGV[1] ~= '' and redis.call('get', KEYS[2]) ~= ARGV[1] then return 0 end "
+                    + "redis.call('set', KEYS[1], ARGV[2], 'PX', ARGV[3]) redis.call('sadd', KEYS[3], ARGV[4]) return 1",
+            Long.class);
+    private static final RedisScript<Long> REPLACE_IF_EQUAL = RedisScript.of(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then redis.call('set', KEYS[1], ARGV[2], 'PX', ARGV[3]) return 1 "
+                    + "else return 0 end",
+            Long.class);
+
+    private record EventMessage(String jobId, JobEvent event) {
+    }
+
+    private final StringRedisTemplate redis;
+    private final RedisTemplate<String, byte[]> binaryRedis;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final ObjectMapper objectMapper;
+    private final Duration leaseTtl;
+    private final Duration retention;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final List<BiConsumer<String, JobEvent>> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "job-lease-renewer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RedisClusterCoordinator(RedisConnectionFactory connectionFactory,
+            ObjectMapper objectMapper,
+            @Value("${cartoon.coordination.lease-ttl:PT30S}") Duration leaseTtl,
+            @Value("${cartoon.jobs.retention:PT1H}") Duration retention) {
+        this.redis = new StringRedisTemplate(connectionFactory);
+        this.binaryRedis = new RedisTemplate<>();
+        this.binaryRedis.setConnectionFactory(connectionFactory);
+        this.binaryRedis.setKeySerializer(RedisSerializer.string());
+        this.binaryRedis.setValueSerializer(RedisSerializer.byteArray());
+        this.binaryRedis.afterPropertiesSet();
+        this.listenerContainer = new RedisMessageListenerContainer();
+        this.listenerContainer.setConnectionFactory(connectionFactory);
+        this.objectMapper = objectMapper;
+        this.leaseTtl = leaseTtl;
+        this.retention = retention;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        listenerContainer.addMessageListener((message, pattern) -> dispatch(message.getBody()),
+                new ChannelTopic(EVENTS_CHANNEL));
+        listenerContainer.afterPropertiesSet();
+        listenerContainer.start();
+    }
+
+    @Override
+    public boolean saveJob(GenerationJob job, Lease lease) {
+        String token = lease instanceof RedisLease held ? held.token : "";
+        Duration ttl = job.getStatus().isFinished() ? retention : UNFINISHED_JOB_TTL;
+        Long saved = redis.execute(SAVE_IF_OWNED, List.of(jobKey(job.getId()), leaseKey(job.getId()), JOBS_KEY),
+                token, write(job), Long.toString(ttl.toMillis()), job.getId());
+        if (saved == null || saved == 0) {
+            if (lease instanceof RedisLease held) {
+                held.lose("another node holds it now");
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Optional<GenerationJob> loadJob(String jobId) {
+        String json = redis.opsForValue().get(jobKey(jobId));
+        if (json == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(objectMapper.readValue(json, GenerationJob.class));
+        } catch (IOException e) {
+            log.warn("Failed to read job {}: {}", jobId, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public List<String> listJobIds() {
+        Set<String> members = redis.opsForSet().members(JOBS_KEY);
+        return members != null ? new ArrayList<>(members) : List.of();
+    }
+
+    @Override
+    public void deleteJob(String jobId) {
+        redis.delete(List.of(jobKey(jobId), leaseKey(jobId)));
+        redis.opsForSet().remove(JOBS_KEY, jobId);
+    }
+
+    @Override
+    public Optional<Lease> tryLease(String jobId) {
+        RedisLease lease = new RedisLease(jobId, nodeId + ":" + UUID.randomUUID());
+        if (!Boolean.TRUE.equals(redis.opsForValue().setIfAbsent(lease.key, lease.token, leaseTtl))) {
+            return Optional.empty();
+        }
+        long renewMillis = Math.max(1000, leaseTtl.toMillis() / 3);
+        lease.renewal = renewer.scheduleAtFixedRate(lease::renew, renewMillis, renewMillis, TimeUnit.MILLISECONDS);
+        return Optional.of(lease);
+    }
+
+    @Override
+    public void publishEvent(String jobId, JobEvent event) {
+        redis.convertAndSend(EVENTS_CHANNEL, write(new EventMessage(jobId, event)));
+    }
+
+    @Override
+    public void addEventListener(BiConsumer<String, JobEvent> listener) {
+        listeners.add(listener);
+    }
+
+    private void dispatch(byte[] body) {
+        try {
+            EventMessage message = objectMapper.readValue(new String(body, StandardCharsets.UTF_8), EventMessage.class);
+            listeners.forEach(listener -> listener.accept(message.jobId(), message.event()));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to handle job event: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public String claimRequest(String requestKey, String jobId, Duration window) {
+        String key = requestKey(requestKey);
+        for (int attempt = 0; attempt < 2; attempt++) {
+            if (Boolean.TRUE.equals(redis.opsForValue().setIfAbsent(key, jobId, window))) {
+                return jobId;
+            }
+            String existing = redis.opsForValue().get(key);
+            if (existing != null) {
+                return existing;
+            }
+            // Expired between the two calls; try again.
+        }
+        return jobId;
+    }
+
+    @Override
+    public void replaceRequest(String requestKey, String expectedJobId, String jobId, Duration window) {
+        redis.execute(REPLACE_IF_EQUAL, List.of(requestKey(requestKey)), expectedJobId, jobId,
+                Long.toString(window.toMillis()));
+    }
+
+    @Override
+    public void sharePanel(String panelId, byte[] image, Duration ttl) {
+        binaryRedis.opsForValue().set(PREFIX + "panel:" + panelId, image, ttl);
+    }
+
+    @Override
+    public Optional<byte[]> fetchPanel(String panelId) {
+        return Optional.ofNullable(binaryRedis.opsForValue().get(PREFIX + "panel:" + panelId));
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        renewer.shutdownNow();
+        listenerContainer.destroy();
+    }
+
+    private String write(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Not serializable: " + value.getClass().getSimpleName(), e);
+        }
+    }
+
+    /**
+     * A lease key holding a token only this lease knows. It is lost once another node holds the key, or once renewals
+     * have failed for longer than the lease's time to live, after which another node may have taken it.
+     */
+    private final class RedisLease implements Lease {
+
+        private final String jobId;
+        private final String key;
+        private final String token;
+        private final Sinks.Empty<Void> lost = Sinks.empty();
+        private volatile ScheduledFuture<?> renewal;
+        private volatile long renewedAt = System.nanoTime();
+
+        private RedisLease(String jobId, String token) {
+            this.jobId = jobId;
+            this.key = leaseKey(jobId);
+            this.token = token;
+        }
+
+        private void renew() {
+            try {
+                Long renewed = redis.execute(RENEW_IF_OWNED, List.of(key), token, Long.toString(leaseTtl.toMillis()));
+                if (renewed == null || renewed == 0) {
+                    lose("another node holds it now");
+                    return;
+                }
+                renewedAt = System.nanoTime();
+            } catch (RuntimeException e) {
+                log.warn("Failed to renew the lease on job {}: {}", jobId, e.getMessage());
+                if (System.nanoTime() - renewedAt > leaseTtl.toNanos()) {
+                    lose("it was not renewed for " + leaseTtl);
+                }
+            }
+        }
+
+        private void lose(String reason) {
+            if (renewal != null) {
+                renewal.cancel(false);
+            }
+            if (lost.tryEmitEmpty() == Sinks.EmitResult.OK) {
+                log.warn("Lost the lease on job {}: {}; stopping it here", jobId, reason);
+            }
+        }
+
+        @Override
+        public Mono<Void> lost() {
+            return lost.asMono();
+        }
+
+        @Override
+        public void close() {
+            renewal.cancel(false);
+            redis.execute(RELEASE_IF_OWNED, List.of(key), token);
+        }
+    }
+
+    private static String jobKey(String jobId) {
+        return PREFIX + "job:" + jobId;
+    }
+
+    private static String leaseKey(String jobId) {
+        return PREFIX + "job:" + jobId + ":lease";
+    }
+
+    private static String requestKey(String requestKey) {
+        return PREFIX + "request:" + requestKey;
+    }
+}
@@ -0,0 +1,250 @@
+package com.sanghun.cartoon_generator.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Near-duplicate lookup in front of the exact-match caches. Story ideas and panel prompts are embedded with the
+ * configured {@link EmbeddingFunction} and indexed by the key their result is cached under; a new idea or prompt with
+ * no exact cache entry reuses the result of the most similar earlier one whose similarity reaches the threshold and
+ * whose entry is still cached.
+ * <p>
+ * Panels are compared by their scene alone (see {@link StoryPromptAssembler#split}): the style, characters and
+ * things to avoid are the same for every panel of a story and would make any two of them look alike. A panel is only
+ * reused for one with exactly the same look, rendered with the same profile, and never within the story that
+ * rendered it.
+ * <p>
+ * Each kind has its own {@link HnswIndex}, bounded to {@code cartoon.semantic-cache.max-entries} by keeping the newest
+ * half when full. With {@code cartoon.semantic-cache.dir} set, the indexes are saved there periodically and on
+ * shutdown, and mapped back in at startup.
+ */
+@Slf4j
+@Component
+public class SemanticCache implements MeterBinder, DisposableBean {
+
+    public enum Kind {
+        STORY,
+        PANEL;
+
+        String tag() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    // HNSW link count and build-time beam width; a few thousand entries per index do not need more.
+    private static final int MAX_LINKS = 16;
+    private static final int EF_CONSTRUCTION = 100;
+    // Candidates checked per lookup, in case the closest ones are no longer cached.
+    private static final int CANDIDATES = 4;
+
+    private final class Index {
+        final Kind kind;
+        final double threshold;
+        final Path file;
+        HnswIndex hnsw;
+        boolean dirty;
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+
+        Index(Kind kind, double threshold) {
+            this.kind = kind;
+            this.threshold = threshold;
+            this.file = directory != null ? directory.resolve(kind.tag() + ".hnsw") : null;
+            this.hnsw = load();
+        }
+
+        private HnswIndex load() {
+            if (file != null && Files.exists(file)) {
+                try {
+                    HnswIndex loaded = HnswIndex.load(file, embedding.id(), embedding.dimensions(), MAX_LINKS,
+                            EF_CONSTRUCTION);
+                    if (loaded != null) {
+                        log.info("Loaded {} {} embeddings from {}", loaded.size(), kind.tag(), file);
+                        return loaded;
+                    }
+                    log.info("Discarding {}: built with another embedding", file);
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Failed to load semantic index {}: {}", file, e.getMessage());
+                }
+            }
+            return new HnswIndex(embedding.dimensions(), MAX_LINKS, EF_CONSTRUCTION);
+        }
+    }
+
+    private final EmbeddingFunction embedding;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final int efSearch;
+    private final Path directory;
+    private final Map<Kind, Index> indexes = new EnumMap<>(Kind.class);
+
+    public SemanticCache(EmbeddingFunction embedding,
+            @Value("${cartoon.semantic-cache.enabled:true}") boolean enabled,
+            @Value("${cartoon.semantic-cache.story-threshold:0.9}") double storyThreshold,
+            @Value("${cartoon.semantic-cache.panel-threshold:0.95}") double panelThreshold,
+            @Value("${cartoon.semantic-cache.max-entries:20000}") int maxEntries,
+            @Value("${cartoon.semantic-cache.ef-search:64}") int efSearch,
+            @Value("${cartoon.semantic-cache.dir:}") String directory) throws IOException {
+        this.embedding = embedding;
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.efSearch = efSearch;
+        this.directory = directory == null || directory.isBlank() ? null : Files.createDirectories(Path.of(directory.trim()));
+        indexes.put(Kind.STORY, new Index(Kind.STORY, storyThreshold));
+        indexes.put(Kind.PANEL, new Index(Kind.PANEL, panelThreshold));
+    }
+
+    /**
+     * The key of the earlier entry most similar to {@code text}, if it is similar enough and {@code usable} (still
+     * cached).
+     */
+    public Optional<String> findSimilar(Kind kind, String text, Predicate<String> usable) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        Index index = indexes.get(kind);
+        float[] query = embedding.embed(text);
+        List<HnswIndex.Match> matches;
+        synchronized (index) {
+            matches = index.hnsw.search(query, CANDIDATES, efSearch);
+        }
+        for (HnswIndex.Match match : matches) {
+            if (match.similarity() < index.threshold) {
+                break;
+            }
+            if (usable.test(match.key())) {
+                index.hits.incrementAndGet();
+                log.info("Reusing {} cached for a similar {} (similarity {})", match.key(), kind.tag(),
+                        String.format(Locale.ROOT, "%.3f", match.similarity()));
+                return Optional.of(match.key());
+            }
+        }
+        index.misses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    /**
+     * The cache key of an earlier panel that can stand in for {@code prompt} in {@code story} (blank if it belongs to
+     * none), if its scene is similar enough and {@code usable} (still cached).
+     */
+    public Optional<String> findSimilarPanel(String profile, String story, String prompt, Predicate<String> usable) {
+        StoryPromptAssembler.PanelText text = StoryPromptAssembler.split(prompt);
+        String prefix = profile + '|' + digest(text.look()) + '|';
+        String sameStory = prefix + story + '|';
+        return findSimilar(Kind.PANEL, text.scene(), key -> key.startsWith(prefix)
+                        && (story.isEmpty() || !key.startsWith(sameStory))
+                        && usable.test(cacheKey(key)))
+                .map(SemanticCache::cacheKey);
+    }
+
+    /**
+     * Indexes a panel just rendered and cached under {@code cacheKey}; see {@link #findSimilarPanel}.
+     */
+    public void rememberPanel(String profile, String story, String prompt, String cacheKey) {
+        StoryPromptAssembler.PanelText text = StoryPromptAssembler.split(prompt);
+        remember(Kind.PANEL, text.scene(), profile + '|' + digest(text.look()) + '|' + story + '|' + cacheKey);
+    }
+
+    private static String cacheKey(String panelKey) {
+        return panelKey.substring(panelKey.lastIndexOf('|') + 1);
+    }
+
+    private static String digest(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)), 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Indexes {@code text} under the key its result was just cached with.
+     */
+    public void remember(Kind kind, String text, String key) {
+        if (!enabled) {
+            return;
+        }
+        Index index = indexes.get(kind);
+        synchronized (index) {
+            if (index.hnsw.contains(key)) {
+                return;
+            }
+        }
+        float[] vector = embedding.embed(text);
+        synchronized (index) {
+            if (index.hnsw.size() >= maxEntries) {
+                index.hnsw.retainNewest(maxEntries / 2);
+            }
+            index.hnsw.add(key, vector);
+            index.dirty = true;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${cartoon.semantic-cache.save-interval:PT1M}")
+    public void save() {
+        if (directory == null) {
+            return;
+        }
+        for (Index index : indexes.values()) {
+            synchronized (index) {
+                if (!index.dirty) {
+                    continue;
+                }
+                try {
+                    index.hnsw.save(index.file, embedding.id());
+                    index.dirty = false;
+                } catch (IOException e) {
+                    log.warn("Failed to save semantic index {}: {}", index.file, e.getMessage());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        save();
+    }
+
+    public int size(Kind kind) {
+        Index index = indexes.get(kind);
+        synchronized (index) {
+            return index.hnsw.size();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Index index : indexes.values()) {
+            String cache = index.kind.tag();
+            FunctionCounter.builder("cartoon.semantic.cache.requests", index.hits, AtomicLong::get)
+                    .tag("cache", cache).tag("result", "hit").register(registry);
+            FunctionCounter.builder("cartoon.semantic.cache.requests", index.misses, AtomicLong::get)
+                    .tag("cache", cache).tag("result", "miss").register(registry);
+            Gauge.builder("cartoon.semantic.cache.entries", this, semanticCache -> semanticCache.size(index.kind))
+                    .tag("cache", cache).register(registry);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sanghun.cartoon_generator.dto.GeminiRequest;
+import com.sanghun.cartoon_generator.dto.GeminiResponse;
+import com.sanghun.cartoon_generator.dto.GenerationJob;
+import com.sanghun.cartoon_generator.dto.JobEvent;
+import com.sanghun.cartoon_generator.dto.PanelResult;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Warms the node up before it reports ready, so the first stories after a deploy do not pay for it: Reactor Netty's
+ * event loops, DNS resolver and TLS provider, the first Vertex AI access token, a few pooled (TLS) connections to the
+ * Vertex AI host, and the JSON, sheet, Imagen response and image code paths, exercised on sample data.
+ * <p>
+ * Application runners finish before the application is ready, and readiness ({@code /actuator/health/readiness})
+ * only reports UP after that. Warm-up is best effort: a step that fails is logged and skipped, and the whole of it
+ * is cut short after {@code cartoon.warmup.timeout}. Connections opened here are dropped once idle for
+ * {@code cartoon.vertex.http.max-idle-time}.
+ */
+@Slf4j
+@Component
+public class StartupWarmup implements ApplicationRunner {
+
+    private static final String SAMPLE_SHEET = """
+            {"style": "charming children's book illustration", "palette": "pastel greens", "camera": "eye-level",
+             "negative": "outfit changes",
+             "characters": [{"name": "Bruno the Bear", "appearance": "a tall bear in a mint-green scarf"}],
+             "panels": [{"characters": ["Bruno the Bear"], "subject": "Bruno wakes up", "context": "in a cosy den"},
+                        {"characters": [], "subject": "Bruno the Bear walks outside", "context": "in the forest"}]}
+            """;
+
+    private final HttpClient httpClient;
+    private final WebClient webClient;
+    private final VertexAiService vertexAiService;
+    private final VertexTokenProvider tokenProvider;
+    private final ObjectMapper objectMapper;
+    private final PanelImageProcessor imageProcessor;
+    private final boolean enabled;
+    private final int connections;
+    private final int iterations;
+    private final Duration timeout;
+
+    public StartupWarmup(HttpClient vertexAiHttpClient,
+            WebClient vertexAiWebClient,
+            VertexAiService vertexAiService,
+            VertexTokenProvider tokenProvider,
+            ObjectMapper objectMapper,
+            PanelImageProcessor imageProcessor,
+            @Value("${cartoon.warmup.enabled:true}") boolean enabled,
+            @Value("${cartoon.warmup.connections:4}") int connections,
+            @Value("${cartoon.warmup.iterations:20}") int iterations,
+            @Value("${cartoon.warmup.timeout:PT30S}") Duration timeout) {
+        this.httpClient = vertexAiHttpClient;
+        this.webClient = vertexAiWebClient;
+        this.vertexAiService = vertexAiService;
+        this.tokenProvider = tokenProvider;
+        this.objectMapper = objectMapper;
+        this.imageProcessor = imageProcessor;
+        this.enabled = enabled;
+        this.connections = connections;
+        this.iterations = iterations;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws InterruptedException {
+        if (!enabled) {
+            return;
+        }
+        long start = System.nanoTime();
+        Thread warmup = Thread.ofVirtual().name("startup-warmup").start(this::warmUp);
+        if (!warmup.join(timeout)) {
+            log.warn("Warm-up still running after {}; reporting ready anyway", timeout);
+            return;
+        }
+        log.info("Warmed up in {} ms", Duration.ofNanos(System.nanoTime() - start).toMillis());
+    }
+
+    private void warmUp() {
+        step("HTTP client", () -> httpClient.warmup().block(timeout));
+        // Waits for the token the provider started fetching when it was created.
+        step("access token", tokenProvider::getHeaders);
+        step("Vertex AI connections", this::openConnections);
+        step("JSON and image processing", () -> {
+            byte[] image = sampleImage();
+            byte[] imagenResponse = objectMapper.writeValueAsBytes(Map.of("predictions", List.of(Map.of(
+                    "mimeType", "image/png", "bytesBase64Encoded", Base64.getEncoder().encodeToString(image)))));
+            String geminiResponse = objectMapper.writeValueAsString(Map.of("candidates", List.of(Map.of("content",
+                    Map.of("role", "model", "parts", List.of(Map.of("text", SAMPLE_SHEET)))))));
+            for (int i = 0; i < iterations; i++) {
+                exerciseCodecs(image, imagenResponse, geminiResponse);
+            }
+        });
+    }
+
+    /**
+     * Opens {@code connections} connections to the Vertex AI host at once, so each one is a fresh (TLS) connection
+     * that goes back to the pool afterwards. Any response will do; the requests carry no credentials and are not
+     * counted against the Vertex AI quota or concurrency limits.
+     */
+    private void openConnections() {
+        AtomicInteger opened = new AtomicInteger();
+        Flux.range(0, connections)
+                .flatMap(i -> webClient.head().uri(vertexAiService.getBaseUrl())
+                        .exchangeToMono(ClientResponse::releaseBody)
+                        .doOnSuccess(ignored -> opened.incrementAndGet())
+                        .onErrorResume(e -> {
+                            log.debug("Warm-up connection to {} failed: {}", vertexAiService.getBaseUrl(), e.getMessage());
+                            return Mono.empty();
+                        }), connections)
+                .then()
+                .block(timeout);
+        log.debug("Opened {}/{} warm-up connection(s) to {}", opened.get(), connections, vertexAiService.getBaseUrl());
+    }
+
+    private void exerciseCodecs(byte[] image, byte[] imagenResponse, String geminiResponse) throws IOException {
+        String text = objectMapper.readValue(geminiResponse, GeminiResponse.class).getFirstCandidateText();
+        StorySheetParser parser = new StorySheetParser(null);
+        List<String> prompts = new ArrayList<>(parser.append(text));
+        prompts.addAll(parser.finish());
+        objectMapper.writeValueAsString(GeminiRequest.fromPrompt(prompts.get(0),
+                GeminiRequest.GenerationConfig.json(StorySheetParser.schema(false))));
+
+        ImagenResponseReader.read(new ByteArrayInputStream(imagenResponse));
+        PanelImageProcessor.ProcessedPanel processed = imageProcessor.process(image);
+        imageProcessor.compositeStrip(List.of(processed.tile(), processed.tile()));
+
+        // Job documents are written on every event and read back on resume.
+        GenerationJob job = new GenerationJob("warm-up", "warm-up", "warm-up", null);
+        job.setSheet(parser.sheet());
+        job.setPrompts(prompts);
+        job.getPanelImageUrls().put(0, "/panels/warm-up");
+        job.getEvents().add(new JobEvent(1, GenerationJobStore.EVENT_PANEL,
+                objectMapper.writeValueAsString(new PanelResult(0, prompts.get(0), "/panels/warm-up", null))));
+        objectMapper.readValue(objectMapper.writeValueAsString(job), GenerationJob.class);
+    }
+
+    private static byte[] sampleImage() throws IOException {
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, (x * 4) << 16 | (y * 4) << 8);
+            }
+        }
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        return png.toByteArray();
+    }
+
+    private void step(String name, WarmupStep step) {
+        long start = System.nanoTime();
+        try {
+            step.run();
+            log.debug("Warm-up: {} took {} ms", name, Duration.ofNanos(System.nanoTime() - start).toMillis());
+        } catch (Exception e) {
+            log.warn("Warm-up: {} failed: {}", name, e.getMessage());
+        }
+    }
+
+    @FunctionalInterface
+    private interface WarmupStep {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,9 @@
+package com.sanghun.cartoon_generator.service;
+
+/**
+ * A resolved story profile: how many panels a story has and how its images are rendered. {@code maxConcurrency} of
+ * 0 means the profile has no cap of its own, only the node-wide one.
+ */
+public record StoryProfile(String name, int panels, String imagenModelId, String imageSize, int batchSize,
+        int maxConcurrency) {
+}
@@ -0,0 +1,126 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.sanghun.cartoon_generator.config.StoryProfileProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The configured {@link StoryProfile}s, with the global Imagen settings filled in where a profile leaves them blank,
+ * and one {@link VertexConcurrencyLimiter} per profile with a {@code max-concurrency}, so quick drafts and long
+ * stories draw on separate Imagen capacity. Without any {@code cartoon.story.profiles.*} there is a single 10-panel
+ * profile using the global settings.
+ */
+@Slf4j
+@Component
+public class StoryProfiles implements MeterBinder {
+
+    private final Map<String, StoryProfile> profiles = new LinkedHashMap<>();
+    private final Map<String, VertexConcurrencyLimiter> limiters = new HashMap<>();
+    private final StoryProfile defaultProfile;
+
+    public StoryProfiles(StoryProfileProperties properties,
+            @Value("${google.cloud.imagen-model-id}") String imagenModelId,
+            @Value("${cartoon.imagen.batch.max-size:1}") int maxBatchSize) {
+        Map<String, StoryProfileProperties.Profile> configured = properties.getProfiles().isEmpty()
+                ? Map.of(properties.getDefaultProfile(), new StoryProfileProperties.Profile())
+                : properties.getProfiles();
+        configured.forEach((name, profile) -> {
+            if (profile.getPanels() < 1) {
+                throw new IllegalStateException("Story profile " + name + " needs at least one panel");
+            }
+            StoryProfile resolved = new StoryProfile(key(name), profile.getPanels(),
+                    orDefault(profile.getImagenModelId(), imagenModelId),
+                    profile.getImageSize() == null ? "" : profile.getImageSize().trim(),
+                    profile.getBatchSize() > 0 ? profile.getBatchSize() : maxBatchSize,
+                    Math.max(0, profile.getMaxConcurrency()));
+            profiles.put(resolved.name(), resolved);
+            if (resolved.maxConcurrency() > 0) {
+                limiters.put(resolved.name(), new VertexConcurrencyLimiter(resolved.maxConcurrency()));
+            }
+        });
+        this.defaultProfile = profiles.get(key(properties.getDefaultProfile()));
+        if (defaultProfile == null) {
+            throw new IllegalStateException("Default story profile " + properties.getDefaultProfile()
+                    + " is not configured");
+        }
+    }
+
+    /**
+     * The profile a request asked for, or the default one when it named none.
+     *
+     * @throws IllegalArgumentException if no profile has that name
+     */
+    public StoryProfile require(String name) {
+        if (name == null || name.isBlank()) {
+            return defaultProfile;
+        }
+        StoryProfile profile = profiles.get(key(name));
+        if (profile == null) {
+            throw new IllegalArgumentException("Unknown story profile '" + name + "'; available: " + profiles.keySet());
+        }
+        return profile;
+    }
+
+    /**
+     * The profile a stored job was created with. A job whose profile has since been removed from the configuration
+     * still runs, with the default profile.
+     */
+    public StoryProfile forJob(String name) {
+        try {
+            return require(name);
+        } catch (IllegalArgumentException e) {
+            log.warn("Story profile {} is no longer configured; using {}", name, defaultProfile.name());
+            return defaultProfile;
+        }
+    }
+
+    public StoryProfile getDefault() {
+        return defaultProfile;
+    }
+
+    public Collection<StoryProfile> all() {
+        return Collections.unmodifiableCollection(profiles.values());
+    }
+
+    /**
+     * Holds one of the profile's permits while {@code call} runs; passes it straight through for uncapped profiles.
+     * The profile permit is the outer one: it is taken before the call reaches the batcher, the rate scheduler and
+     * the node-wide {@link VertexConcurrencyLimiter}, so a profile at its cap queues on its own permits without
+     * holding any node-wide ones.
+     */
+    public <T> Mono<T> limit(StoryProfile profile, Mono<T> call) {
+        VertexConcurrencyLimiter limiter = limiters.get(profile.name());
+        return limiter == null ? call : limiter.limit(call);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        limiters.forEach((name, limiter) -> {
+            Gauge.builder("cartoon.profile.concurrency.active", limiter,
+                            l -> l.getMaxConcurrency() - l.getAvailablePermits())
+                    .tag("profile", name).register(registry);
+            Gauge.builder("cartoon.profile.concurrency.waiting", limiter, VertexConcurrencyLimiter::getQueueLength)
+                    .tag("profile", name).register(registry);
+        });
+    }
+
+    private static String key(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String orDefault(String value, String fallback) {
+        return value == null || value.isBlank() ? fallback.trim() : value.trim();
+    }
+}
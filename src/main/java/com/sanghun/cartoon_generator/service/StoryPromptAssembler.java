@@ -0,0 +1,156 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.sanghun.cartoon_generator.dto.CharacterSheet;
+import com.sanghun.cartoon_generator.dto.PanelScene;
+import com.sanghun.cartoon_generator.dto.StorySheet;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds the full Imagen prompt for a panel from a {@link StorySheet}: the shared style block, the fixed description
+ * of every character in the scene, then the scene itself. Gemini writes each of those once per story instead of once
+ * per panel; the result has the same Style / Subject / Context shape as the prompts Gemini used to write in full.
+ */
+final class StoryPromptAssembler {
+
+    // A label starts the prompt or a new sentence; see appendSentence.
+    private static final Pattern LABEL = Pattern.compile(
+            "(?:^|(?<=[.!?] ))(Style|Color palette|Camera|Subject|Characters|Context|Avoid): ");
+    private static final Set<String> SCENE_LABELS = Set.of("Subject", "Context");
+
+    /**
+     * A panel prompt split into what is drawn ({@code scene}: the subject and context, without their labels) and
+     * how ({@code look}: every other sentence, which the panels of one story share).
+     */
+    record PanelText(String scene, String look) {
+    }
+
+    private StoryPromptAssembler() {
+    }
+
+    static String assemble(StorySheet sheet, PanelScene scene) {
+        StringBuilder prompt = new StringBuilder();
+        appendSentence(prompt, "Style", sheet.getStyle());
+        appendSentence(prompt, "Color palette", sheet.getPalette());
+        appendSentence(prompt, "Camera", sheet.getCamera());
+        appendSentence(prompt, "Subject", scene.getSubject());
+        List<String> characters = new ArrayList<>();
+        for (CharacterSheet character : charactersIn(sheet, scene)) {
+            characters.add(character.getName() + ", " + character.getAppearance());
+        }
+        appendSentence(prompt, "Characters", String.join("; ", characters));
+        appendSentence(prompt, "Context", scene.getContext());
+        appendSentence(prompt, "Avoid", sheet.getNegative());
+        return prompt.toString().trim();
+    }
+
+    /**
+     * Splits an assembled prompt, or one Gemini wrote in the same Style / Subject / Context shape, into its
+     * {@link PanelText}. A prompt without a subject is all scene.
+     */
+    static PanelText split(String prompt) {
+        StringBuilder scene = new StringBuilder();
+        StringBuilder look = new StringBuilder();
+        Matcher label = LABEL.matcher(prompt);
+        boolean found = label.find();
+        if (found) {
+            look.append(prompt, 0, label.start());
+        }
+        while (found) {
+            boolean inScene = SCENE_LABELS.contains(label.group(1));
+            int start = inScene ? label.end() : label.start();
+            found = label.find();
+            String sentence = prompt.substring(start, found ? label.start() : prompt.length());
+            (inScene ? scene : look).append(sentence.trim()).append(' ');
+        }
+        if (scene.isEmpty()) {
+            return new PanelText(prompt.trim(), "");
+        }
+        return new PanelText(scene.toString().trim(), look.toString().trim());
+    }
+
+    /**
+     * The sheet's characters named by the scene, plus any it forgot to list but mentions in its subject as a whole
+     * word, so "Al" is not found in "Alice" or "Max" in "maxed out".
+     */
+    private static List<CharacterSheet> charactersIn(StorySheet sheet, PanelScene scene) {
+        Map<String, CharacterSheet> byName = new LinkedHashMap<>();
+        for (CharacterSheet character : sheet.getCharacters()) {
+            if (!isBlank(character.getName()) && !isBlank(character.getAppearance())) {
+                byName.putIfAbsent(key(character.getName()), character);
+            }
+        }
+        Map<String, CharacterSheet> present = new LinkedHashMap<>();
+        for (String name : scene.getCharacters()) {
+            CharacterSheet character = name == null ? null : byName.get(key(name));
+            if (character != null) {
+                present.putIfAbsent(key(name), character);
+            }
+        }
+        String subject = scene.getSubject() == null ? "" : key(scene.getSubject());
+        byName.forEach((name, character) -> {
+            if (mentions(subject, name)) {
+                present.putIfAbsent(name, character);
+            }
+        });
+        return new ArrayList<>(present.values());
+    }
+
+    private static boolean mentions(String text, String name) {
+        return Pattern.compile("(?<![\\p{L}\\p{N}])" + Pattern.quote(name) + "(?![\\p{L}\\p{N}])")
+                .matcher(text)
+                .find();
+    }
+
+    /**
+     * {@code sequel}'s sheet on top of the earlier story's: the earlier look and characters win, so they stay the
+     * same across stories, and characters new to the sequel are added.
+     */
+    static StorySheet merge(StorySheet base, StorySheet sequel) {
+        if (base == null) {
+            return sequel;
+        }
+        StorySheet merged = new StorySheet();
+        merged.setStyle(isBlank(base.getStyle()) ? sequel.getStyle() : base.getStyle());
+        merged.setPalette(isBlank(base.getPalette()) ? sequel.getPalette() : base.getPalette());
+        merged.setCamera(isBlank(base.getCamera()) ? sequel.getCamera() : base.getCamera());
+        merged.setNegative(isBlank(base.getNegative()) ? sequel.getNegative() : base.getNegative());
+        Map<String, CharacterSheet> characters = new LinkedHashMap<>();
+        for (CharacterSheet character : base.getCharacters()) {
+            characters.putIfAbsent(key(character.getName()), character);
+        }
+        for (CharacterSheet character : sequel.getCharacters()) {
+            characters.putIfAbsent(key(character.getName()), character);
+        }
+        merged.setCharacters(new ArrayList<>(characters.values()));
+        merged.setPanels(sequel.getPanels());
+        return merged;
+    }
+
+    private static void appendSentence(StringBuilder prompt, String label, String text) {
+        if (isBlank(text)) {
+            return;
+        }
+        String sentence = text.trim();
+        prompt.append(label).append(": ").append(sentence);
+        if (!sentence.endsWith(".") && !sentence.endsWith("!") && !sentence.endsWith("?")) {
+            prompt.append('.');
+        }
+        prompt.append(' ');
+    }
+
+    private static String key(String name) {
+        return name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isBlank(String text) {
+        return text == null || text.isBlank();
+    }
+}
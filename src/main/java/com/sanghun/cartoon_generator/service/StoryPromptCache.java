@@ -0,0 +1,251 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.sanghun.cartoon_generator.dto.StorySheet;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Memoizes story prompt lists, with the story sheet they were assembled from, per normalized story idea, panel count
+ * and sequel. Concurrent requests for the same story share one Gemini call, and non-empty results are kept for
+ * {@code cartoon.story-cache.ttl}; failures are never cached.
+ * <p>
+ * Streamed generations are shared the same way: late joiners get the prompts already produced replayed, then the
+ * rest live, and the full list is cached once the stream completes. Every subscriber is handed the sheet on
+ * completion.
+ * <p>
+ * An idea with no entry of its own reuses the prompts of a near-identical earlier idea found by the
+ * {@link SemanticCache} with the same panel count, as long as those are still cached.
+ */
+@Slf4j
+@Component
+public class StoryPromptCache implements MeterBinder {
+
+    @FunctionalInterface
+    public interface Loader {
+        StoryPrompts load() throws IOException;
+    }
+
+    /**
+     * Opens the Gemini stream for a story; the sheet, if any, is passed to {@code onSheet} before the stream
+     * completes.
+     */
+    @FunctionalInterface
+    public interface StreamSource {
+        Flux<String> open(Consumer<StorySheet> onSheet);
+    }
+
+    private record Entry(StoryPrompts story, long expiresAtNanos) {
+        boolean isExpired(long now) {
+            return now - expiresAtNanos >= 0;
+        }
+    }
+
+    private final SemanticCache semanticCache;
+    private final long ttlNanos;
+    private final int maxEntries;
+
+    private final Map<String, Entry> completed = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<StoryPrompts>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, SharedStream> inFlightStreams = new ConcurrentHashMap<>();
+
+    private record SharedStream(Flux<String> prompts, AtomicReference<StorySheet> sheet) {
+    }
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public StoryPromptCache(SemanticCache semanticCache,
+            @Value("${cartoon.story-cache.ttl:PT10M}") Duration ttl,
+            @Value("${cartoon.story-cache.max-entries:1000}") int maxEntries) {
+        this.semanticCache = semanticCache;
+        this.ttlNanos = ttl.toNanos();
+        this.maxEntries = maxEntries;
+    }
+
+    public static String normalize(String storyIdea) {
+        return Normalizer.normalize(storyIdea, Normalizer.Form.NFC).trim().replaceAll("\\s+", " ")
+                .toLowerCase(Locale.ROOT);
+    }
+
+    public StoryPrompts getOrLoad(StoryRequest request, Loader loader) throws IOException {
+        String idea = normalize(request.idea());
+        String prefix = keyPrefix(request);
+        String key = prefix + idea;
+
+        StoryPrompts cached = getFreshOrSimilar(idea, prefix);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        CompletableFuture<StoryPrompts> leader = new CompletableFuture<>();
+        CompletableFuture<StoryPrompts> existing = inFlight.putIfAbsent(key, leader);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            log.info("Joining in-flight story prompt generation for idea: {}", request.idea());
+            return await(existing);
+        }
+
+        try {
+            // Another leader may have finished between the cache check and claiming the in-flight slot.
+            cached = getFresh(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                leader.complete(cached);
+                return cached;
+            }
+
+            misses.incrementAndGet();
+            StoryPrompts loaded = loader.load();
+            StoryPrompts prompts = new StoryPrompts(List.copyOf(loaded.prompts()), loaded.sheet());
+            if (!prompts.prompts().isEmpty()) {
+                store(idea, key, prompts);
+            }
+            leader.complete(prompts);
+            return prompts;
+        } catch (IOException | RuntimeException e) {
+            leader.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, leader);
+        }
+    }
+
+    public Flux<String> getOrStream(StoryRequest request, StreamSource source, Consumer<StorySheet> onSheet) {
+        String idea = normalize(request.idea());
+        String prefix = keyPrefix(request);
+        String key = prefix + idea;
+        return Flux.defer(() -> {
+            StoryPrompts cached = getFreshOrSimilar(idea, prefix);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return Flux.fromIterable(cached.prompts()).doOnComplete(() -> deliver(cached.sheet(), onSheet));
+            }
+
+            boolean[] created = new boolean[1];
+            SharedStream shared = inFlightStreams.computeIfAbsent(key, k -> {
+                created[0] = true;
+                List<String> collected = new ArrayList<>();
+                AtomicReference<StorySheet> sheet = new AtomicReference<>();
+                return new SharedStream(source.open(sheet::set)
+                        .doOnNext(collected::add)
+                        .doOnComplete(() -> {
+                            if (!collected.isEmpty()) {
+                                store(idea, key, new StoryPrompts(List.copyOf(collected), sheet.get()));
+                            }
+                        })
+                        .doFinally(signal -> inFlightStreams.remove(key))
+                        // Keep generating (and cache the result) even if the first subscriber goes away.
+                        .replay()
+                        .autoConnect(), sheet);
+            });
+            if (created[0]) {
+                misses.incrementAndGet();
+            } else {
+                coalesced.incrementAndGet();
+                log.info("Joining in-flight story prompt stream for idea: {}", request.idea());
+            }
+            return shared.prompts().doOnComplete(() -> deliver(shared.sheet().get(), onSheet));
+        });
+    }
+
+    private static void deliver(StorySheet sheet, Consumer<StorySheet> onSheet) {
+        if (sheet != null) {
+            onSheet.accept(sheet);
+        }
+    }
+
+    /**
+     * Entries are keyed by panel count and sequel (the earlier job) ahead of the normalized idea.
+     */
+    private static String keyPrefix(StoryRequest request) {
+        return request.panels() + "|" + (request.isSequel() ? request.sequelOf() : "") + "|";
+    }
+
+    private StoryPrompts getFreshOrSimilar(String normalizedIdea, String prefix) {
+        StoryPrompts prompts = getFresh(prefix + normalizedIdea);
+        if (prompts != null) {
+            return prompts;
+        }
+        return semanticCache.findSimilar(SemanticCache.Kind.STORY, normalizedIdea,
+                        similar -> similar.startsWith(prefix) && getFresh(similar) != null)
+                .map(this::getFresh)
+                .orElse(null);
+    }
+
+    private StoryPrompts getFresh(String key) {
+        Entry entry = completed.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            completed.remove(key, entry);
+            return null;
+        }
+        return entry.story();
+    }
+
+    private void store(String normalizedIdea, String key, StoryPrompts prompts) {
+        long now = System.nanoTime();
+        completed.put(key, new Entry(prompts, now + ttlNanos));
+        semanticCache.remember(SemanticCache.Kind.STORY, normalizedIdea, key);
+        if (completed.size() > maxEntries) {
+            completed.values().removeIf(entry -> entry.isExpired(now));
+        }
+        while (completed.size() > maxEntries) {
+            completed.entrySet().stream()
+                    .min(Comparator.comparingLong(e -> e.getValue().expiresAtNanos() - now))
+                    .ifPresent(oldest -> completed.remove(oldest.getKey(), oldest.getValue()));
+        }
+    }
+
+    private static StoryPrompts await(CompletableFuture<StoryPrompts> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException("Story prompt generation failed", cause);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("cartoon.story.cache.requests", hits, AtomicLong::get)
+                .tag("result", "hit").register(registry);
+        FunctionCounter.builder("cartoon.story.cache.requests", misses, AtomicLong::get)
+                .tag("result", "miss").register(registry);
+        FunctionCounter.builder("cartoon.story.cache.requests", coalesced, AtomicLong::get)
+                .tag("result", "coalesced").register(registry);
+        Gauge.builder("cartoon.story.cache.entries", completed, Map::size).register(registry);
+        Gauge.builder("cartoon.story.cache.inflight", this, c -> c.inFlight.size() + c.inFlightStreams.size())
+                .register(registry);
+    }
+}
@@ -0,0 +1,12 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.sanghun.cartoon_generator.dto.StorySheet;
+
+import java.util.List;
+
+/**
+ * The panel prompts written for a story and, when Gemini wrote a {@link StorySheet}, the sheet they were assembled
+ * from.
+ */
+public record StoryPrompts(List<String> prompts, StorySheet sheet) {
+}
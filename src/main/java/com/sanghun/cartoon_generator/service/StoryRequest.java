@@ -0,0 +1,18 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.sanghun.cartoon_generator.dto.StorySheet;
+
+/**
+ * What Gemini is asked to write: a story idea, its length and, for a sequel, the earlier job whose characters and
+ * style it continues with, and that job's sheet.
+ */
+public record StoryRequest(String idea, int panels, String sequelOf, StorySheet sequelSheet) {
+
+    public static StoryRequest of(String idea, int panels) {
+        return new StoryRequest(idea, panels, null, null);
+    }
+
+    public boolean isSequel() {
+        return sequelSheet != null;
+    }
+}
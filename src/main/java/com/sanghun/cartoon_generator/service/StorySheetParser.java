@@ -0,0 +1,210 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.sanghun.cartoon_generator.dto.CharacterSheet;
+import com.sanghun.cartoon_generator.dto.PanelScene;
+import com.sanghun.cartoon_generator.dto.StorySheet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Incrementally parses the JSON {@link StorySheet} Gemini streams back and turns each panel scene into a full
+ * Imagen prompt as soon as that scene's object is closed, even if it straddles several chunks. The schema asks for
+ * the style and characters before the panels, so they are known by the time the first scene completes. Fed the
+ * whole response at once, it is simply the non-streaming parser.
+ * <p>
+ * For a sequel, the earlier story's sheet is merged in (see {@link StoryPromptAssembler#merge}); Gemini then only
+ * writes the characters new to the sequel and the scenes. Not thread-safe: use one instance per response.
+ */
+final class StorySheetParser {
+
+    private static final ObjectMapper MAPPER = JsonMapper.builder()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .build();
+
+    private static final Map<String, Object> STRING = Map.of("type", "STRING");
+    private static final Map<String, Object> CHARACTERS = Map.of("type", "ARRAY",
+            "items", object("name", STRING, "appearance", STRING));
+    private static final Map<String, Object> PANELS = Map.of("type", "ARRAY",
+            "items", object("characters", Map.of("type", "ARRAY", "items", STRING), "subject", STRING,
+                    "context", STRING));
+    private static final Map<String, Object> STORY_SCHEMA = object("style", STRING, "palette", STRING,
+            "camera", STRING, "negative", STRING, "characters", CHARACTERS, "panels", PANELS);
+    // A sequel keeps the earlier look, so Gemini only writes new characters and the scenes.
+    private static final Map<String, Object> SEQUEL_SCHEMA = object("characters", CHARACTERS, "panels", PANELS);
+
+    private final StorySheet base;
+    private final StorySheet written = new StorySheet();
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+
+    // 0 = before the sheet, 1 = in the sheet object, 2 = in its panels array, -1 = after the sheet.
+    private int level;
+    private String field;
+    private TokenBuffer value;
+    private int valueDepth;
+
+    StorySheetParser(StorySheet base) throws IOException {
+        this.base = base;
+        this.parser = MAPPER.getFactory().createNonBlockingByteArrayParser();
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+    }
+
+    /**
+     * The Gemini response schema for a story sheet, or for a sequel's additions to an earlier one.
+     */
+    static Map<String, Object> schema(boolean sequel) {
+        return sequel ? SEQUEL_SCHEMA : STORY_SCHEMA;
+    }
+
+    static String toJson(StorySheet sheet) throws IOException {
+        return MAPPER.writeValueAsString(sheet);
+    }
+
+    List<String> append(String chunk) throws MalformedStorySheetException {
+        byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+        try {
+            feeder.feedInput(bytes, 0, bytes.length);
+            return drain();
+        } catch (IOException e) {
+            throw new MalformedStorySheetException(e);
+        }
+    }
+
+    List<String> finish() throws MalformedStorySheetException {
+        try {
+            feeder.endOfInput();
+            List<String> prompts = drain();
+            if (level != -1) {
+                throw new JsonParseException(parser, "Story sheet ended before it was complete");
+            }
+            return prompts;
+        } catch (IOException e) {
+            throw new MalformedStorySheetException(e);
+        }
+    }
+
+    /**
+     * The sheet as written so far, merged with the earlier story's for a sequel.
+     */
+    StorySheet sheet() {
+        return StoryPromptAssembler.merge(base, written);
+    }
+
+    private List<String> drain() throws IOException {
+        List<String> prompts = new ArrayList<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            if (value != null) {
+                capture(token, prompts);
+                continue;
+            }
+            switch (level) {
+                case 0 -> {
+                    if (token != JsonToken.START_OBJECT) {
+                        throw new JsonParseException(parser, "Expected a story sheet object");
+                    }
+                    level = 1;
+                }
+                case 1 -> {
+                    if (token == JsonToken.END_OBJECT) {
+                        level = -1;
+                    } else if (token == JsonToken.FIELD_NAME) {
+                        field = parser.currentName();
+                    } else if ("panels".equals(field) && token == JsonToken.START_ARRAY) {
+                        level = 2;
+                    } else {
+                        startCapture(token, prompts);
+                    }
+                }
+                case 2 -> {
+                    if (token == JsonToken.END_ARRAY) {
+                        level = 1;
+                    } else {
+                        startCapture(token, prompts);
+                    }
+                }
+                default -> throw new JsonParseException(parser, "Unexpected content after the story sheet");
+            }
+        }
+        return prompts;
+    }
+
+    private void startCapture(JsonToken token, List<String> prompts) throws IOException {
+        value = new TokenBuffer(parser);
+        valueDepth = 0;
+        capture(token, prompts);
+    }
+
+    private void capture(JsonToken token, List<String> prompts) throws IOException {
+        value.copyCurrentEvent(parser);
+        if (token.isStructStart()) {
+            valueDepth++;
+        } else if (token.isStructEnd()) {
+            valueDepth--;
+        }
+        if (valueDepth == 0) {
+            TokenBuffer complete = value;
+            value = null;
+            try (JsonParser captured = complete.asParser(MAPPER)) {
+                captured.nextToken();
+                if (level == 2) {
+                    prompts.add(addScene(captured));
+                } else {
+                    setField(captured);
+                }
+            }
+        }
+    }
+
+    private String addScene(JsonParser captured) throws IOException {
+        PanelScene scene = captured.readValueAs(PanelScene.class);
+        if (scene.getCharacters() == null) {
+            scene.setCharacters(new ArrayList<>());
+        }
+        written.getPanels().add(scene);
+        return StoryPromptAssembler.assemble(sheet(), scene);
+    }
+
+    private void setField(JsonParser captured) throws IOException {
+        switch (field) {
+            case "style" -> written.setStyle(captured.getValueAsString());
+            case "palette" -> written.setPalette(captured.getValueAsString());
+            case "camera" -> written.setCamera(captured.getValueAsString());
+            case "negative" -> written.setNegative(captured.getValueAsString());
+            case "characters" -> {
+                List<CharacterSheet> characters = captured.readValueAs(new TypeReference<List<CharacterSheet>>() {
+                });
+                if (characters != null) {
+                    written.setCharacters(characters.stream().filter(Objects::nonNull).toList());
+                }
+            }
+            default -> {
+                // Anything else Gemini adds is ignored.
+            }
+        }
+    }
+
+    private static Map<String, Object> object(Object... namesAndSchemas) {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndSchemas.length; i += 2) {
+            properties.put((String) namesAndSchemas[i], namesAndSchemas[i + 1]);
+        }
+        List<String> names = List.copyOf(properties.keySet());
+        return Map.of("type", "OBJECT", "properties", properties, "required", names, "propertyOrdering", names);
+    }
+}
@@ -4,144 +4,541 @@ import com.sanghun.cartoon_generator.dto.GeminiRequest;
 import com.sanghun.cartoon_generator.dto.GeminiResponse;
 import com.sanghun.cartoon_generator.dto.ImagenRequest;
 import com.sanghun.cartoon_generator.dto.ImagenResponse;
-import com.sanghun.cartoon_generator.dto.Instance;
-import com.google.auth.oauth2.GoogleCredentials;
+import com.sanghun.cartoon_generator.dto.Parameters;
+import com.sanghun.cartoon_generator.dto.StorySheet;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.context.ContextView;
+import reactor.util.retry.Retry;
+import reactor.util.retry.RetryBackoffSpec;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Slf4j
 @Service
 public class VertexAiService {
 
-    private static final String IMAGEN_API_ENDPOINT_TEMPLATE = "https://%s-aiplatform.googleapis.com/v1/projects/%s/locations/%s/publishers/google/models/%s:predict";
-    private static final String GEMINI_API_ENDPOINT_TEMPLATE = "https://%s-aiplatform.googleapis.com/v1/projects/%s/locations/%s/publishers/google/models/%s:generateContent";
+    private static final String DEFAULT_ENDPOINT_TEMPLATE = "https://%s-aiplatform.googleapis.com";
+    private static final String IMAGEN_API_ENDPOINT_TEMPLATE = "%s/v1/projects/%s/locations/%s/publishers/google/models/%s:predict";
+    private static final String GEMINI_API_ENDPOINT_TEMPLATE = "%s/v1/projects/%s/locations/%s/publishers/google/models/%s:generateContent";
+    private static final String GEMINI_STREAM_API_ENDPOINT_TEMPLATE = "%s/v1/projects/%s/locations/%s/publishers/google/models/%s:streamGenerateContent?alt=sse";
 
-    private final RestTemplate restTemplate;
+    private final WebClient webClient;
+    private final PanelImageCache panelImageCache;
+    private final StoryPromptCache storyPromptCache;
+    private final SemanticCache semanticCache;
+    private final VertexConcurrencyLimiter concurrencyLimiter;
+    private final VertexRequestScheduler requestScheduler;
+    private final GenerationMetrics metrics;
+    private final PanelHedger panelHedger;
+    private final VertexTokenProvider tokenProvider;
+    private final Scheduler blockingScheduler;
+    private final StoryProfiles storyProfiles;
     private final String projectId;
     private final String region;
-    private final String imagenModelId;
     private final String geminiModelId;
-    private final GoogleCredentials credentials;
+    private final String baseUrl;
+    private final String geminiUrl;
+    private final String geminiStreamUrl;
+    private final boolean streamingPrompts;
+    private final boolean characterSheets;
+    private final Duration imagenTimeout;
+    private final Duration geminiTimeout;
+    private final Map<String, ImagenTarget> imagenTargets = new LinkedHashMap<>();
+    private final int maxResponseBytes;
+
+    /**
+     * Where and how a profile's panels are rendered. Profiles never share a batch, since a predict call has one
+     * model and one set of parameters.
+     */
+    private record ImagenTarget(StoryProfile profile, Parameters parameters, ImagenBatcher batcher) {
+    }
 
     private static final int MAX_RETRIES = 3;
     private static final long RETRY_DELAY_MS = 2000;
+    private static final long MAX_RETRY_DELAY_MS = 30000;
+
+    // One fixed instruction template; the panel count and the story idea are filled in once per request.
+    private static final String STORY_PROMPT = "You are an expert prompt engineer for a text-to-image model, specializing in creating coherent, multi-panel stories with high character consistency.\n"
+            + "Your task is to create a series of %1$d detailed, consistent, and vivid prompts for a %1$d-panel cartoon based on the following story idea.\n\n"
+            + "STORY IDEA: \"%2$s\"\n\n"
+            + "## CRITICAL INSTRUCTIONS:\n"
+            + "1.  **Analyze and Create a Character Sheet (Internal):** First, identify the main characters. For each character, create a detailed 'Character Sheet' for your internal use. This sheet must define consistent attributes that you will use in EVERY prompt where the character appears.\n\n"
+            + "2.  **Enforce Strict Consistency Using the Character Sheet:**\n"
+            + "    *   **Unique Name/Role:** Use a unique, memorable name like 'Bruno the Bear' or 'Luna the Rabbit'.\n"
+            + "    *   **Species/Body Ratio:** Fix the size ratio, e.g., 'Bruno stands twice Luna's height'.\n"
+            + "    *   **Colors (Fur, Eyes, etc.):** Be specific and unchanging, e.g., 'chestnut-brown fur, hazel eyes'.\n"
+            + "    *   **Signature Outfit:** A defining, unchanging piece of clothing, e.g., 'a mint-green knit scarf'.\n"
+            + "    *   **Props/Accessories:** Unique items they always carry, e.g., 'a vintage leather camera'.\n"
+            + "    *   **Distinctive Markings/Hair:** A fixed physical feature, e.g., 'a white patch over the left ear'.\n"
+            + "    *   **Personality Keywords:** Use recurring keywords for expressions, e.g., 'a gentle, curious smile'.\n\n"
+            + "3.  **Enforce Scene and Style Consistency:**\n"
+            + "    *   **Overall Style:** The style must be consistent throughout all %1$d panels. Specify a single, clear style, e.g., 'charming children's book illustration', 'digital art, whimsical and vibrant', or 'Studio Ghibli anime style'. This style component is mandatory for every prompt.\n"
+            + "    *   **Fixed Color Palette:** Maintain a consistent color palette, e.g., 'pastel greens, yellows, peach highlights'.\n"
+            + "    *   **Viewpoint/Camera Angle:** Keep a relatively stable camera perspective, e.g., 'eye-level three-quarter view'.\n\n"
+            + "4.  **Negative Prompts:** Use negative prompts to prevent unwanted variations, e.g., '--no outfit changes, --no different fur colors'.\n\n"
+            + "5.  **Output Format and Structure:** Each of the %1$d prompts you generate must be explicitly structured to contain these three core elements: **Style, Subject, and Context/Background.** For example: 'Style: Studio Ghibli anime style. Subject: Bruno the Bear giving Luna the Rabbit a flower. Context: in a sun-dappled forest clearing.'\n"
+            + "    Your final output MUST be ONLY the %1$d structured prompts, separated by '---'. Do NOT include the character sheet, titles, reasoning, or any other extra text in your response. Just the prompts, separated by '---'.\n\n"
+            + "Now, generate the %1$d prompts.";
+
+    // Character-sheet mode: Gemini writes the look and the characters once, then only what changes per panel, and
+    // the full Imagen prompts are assembled locally (see StoryPromptAssembler).
+    private static final String STORY_SHEET_PROMPT = "You are an expert prompt engineer for a text-to-image model, specializing in creating coherent, multi-panel stories with high character consistency.\n"
+            + "Plan a %1$d-panel cartoon based on the following story idea.\n\n"
+            + "STORY IDEA: \"%2$s\"\n\n"
+            + "Answer with the JSON story sheet, filled in this order:\n"
+            + "1.  **style, palette, camera:** One single, clear art style (e.g., 'charming children's book illustration' or 'Studio Ghibli anime style'), a fixed color palette (e.g., 'pastel greens, yellows, peach highlights') and a stable camera perspective (e.g., 'eye-level three-quarter view'), shared by every panel.\n"
+            + "2.  **negative:** Variations to prevent, e.g., 'outfit changes, different fur colors, text'.\n"
+            + "3.  **characters:** Each main character once, with a unique, memorable name like 'Bruno the Bear' and one compact appearance phrase fixing species and size ratio, specific colors, signature outfit, props, distinctive markings and expression keywords.\n"
+            + "4.  **panels:** Exactly %1$d panels in story order. For each, the names of the characters in it, the subject (what happens, in one sentence) and the context (the setting). Do NOT repeat the style or the character descriptions in the panels; they are added to every panel automatically.\n"
+            + "Keep every field short.";
+
+    private static final String SEQUEL_SHEET_PROMPT = "You are an expert prompt engineer for a text-to-image model, specializing in creating coherent, multi-panel stories with high character consistency.\n"
+            + "Plan a %1$d-panel sequel to an earlier cartoon, keeping its characters, style and palette.\n\n"
+            + "SEQUEL IDEA: \"%2$s\"\n\n"
+            + "EARLIER STORY SHEET: %3$s\n\n"
+            + "Answer with the JSON sheet for the sequel:\n"
+            + "1.  **characters:** Only characters that are NEW in the sequel, described like the earlier ones. Leave it empty if there are none.\n"
+            + "2.  **panels:** Exactly %1$d panels continuing the earlier story. For each, the names of the characters in it (use the earlier names exactly), the subject (what happens, in one sentence) and the context (the setting). Do NOT repeat the style or the character descriptions.\n"
+            + "Keep every field short.";
 
-    public VertexAiService(RestTemplate restTemplate,
+    public VertexAiService(WebClient vertexAiWebClient,
+            PanelImageCache panelImageCache,
+            StoryPromptCache storyPromptCache,
+            SemanticCache semanticCache,
+            VertexConcurrencyLimiter concurrencyLimiter,
+            VertexRequestScheduler requestScheduler,
+            GenerationMetrics metrics,
+            PanelHedger panelHedger,
+            VertexTokenProvider tokenProvider,
+            Scheduler blockingScheduler,
+            StoryProfiles storyProfiles,
             @Value("${google.cloud.project-id}") String projectId,
             @Value("${google.cloud.region}") String region,
-            @Value("${google.cloud.imagen-model-id}") String imagenModelId,
-            @Value("${google.cloud.gemini-model-id}") String geminiModelId) throws IOException {
-        this.restTemplate = restTemplate;
+            @Value("${google.cloud.gemini-model-id}") String geminiModelId,
+            @Value("${google.cloud.endpoint:}") String endpoint,
+            @Value("${cartoon.vertex.imagen-timeout:PT60S}") Duration imagenTimeout,
+            @Value("${cartoon.vertex.gemini-timeout:PT120S}") Duration geminiTimeout,
+            @Value("${cartoon.gemini.streaming:true}") boolean streamingPrompts,
+            @Value("${cartoon.gemini.character-sheet:true}") boolean characterSheets,
+            @Value("${cartoon.imagen.sample-count:1}") int sampleCount,
+            @Value("${cartoon.imagen.batch.window:PT0.05S}") Duration batchWindow,
+            @Value("${cartoon.vertex.http.max-in-memory-size:33554432}") int maxResponseBytes) throws IOException {
+        this.webClient = vertexAiWebClient;
+        this.panelImageCache = panelImageCache;
+        this.storyPromptCache = storyPromptCache;
+        this.semanticCache = semanticCache;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.requestScheduler = requestScheduler;
+        this.metrics = metrics;
+        this.panelHedger = panelHedger;
+        this.tokenProvider = tokenProvider;
+        this.blockingScheduler = blockingScheduler;
+        this.storyProfiles = storyProfiles;
         this.projectId = projectId.trim();
         this.region = region.trim();
-        this.imagenModelId = imagenModelId.trim();
         this.geminiModelId = geminiModelId.trim();
-        this.credentials = GoogleCredentials.getApplicationDefault()
-                .createScoped("https://www.googleapis.com/auth/cloud-platform");
+        // A custom endpoint points the service at a local Vertex AI stand-in for load tests.
+        this.baseUrl = endpoint.isBlank() ? String.format(DEFAULT_ENDPOINT_TEMPLATE, this.region) : endpoint.trim();
+        this.geminiUrl = String.format(GEMINI_API_ENDPOINT_TEMPLATE, baseUrl, this.projectId, this.region, this.geminiModelId);
+        this.geminiStreamUrl = String.format(GEMINI_STREAM_API_ENDPOINT_TEMPLATE, baseUrl, this.projectId, this.region, this.geminiModelId);
+        this.streamingPrompts = streamingPrompts;
+        this.characterSheets = characterSheets;
+        this.imagenTimeout = imagenTimeout;
+        this.geminiTimeout = geminiTimeout;
+        this.maxResponseBytes = maxResponseBytes;
+        for (StoryProfile profile : storyProfiles.all()) {
+            String imagenUrl = String.format(IMAGEN_API_ENDPOINT_TEMPLATE, baseUrl, this.projectId, this.region,
+                    profile.imagenModelId());
+            Parameters parameters = new Parameters(sampleCount, true,
+                    profile.imageSize().isEmpty() ? null : profile.imageSize());
+            imagenTargets.put(profile.name(), new ImagenTarget(profile, parameters, new ImagenBatcher(
+                    profile.batchSize(), batchWindow, parameters, request -> postImagen(imagenUrl, request))));
+        }
+    }
+
+    public byte[] generateSingleImage(String prompt) throws IOException {
+        return blockUnwrapping(generateSingleImageAsync(prompt));
+    }
+
+    /**
+     * Non-blocking variant of {@link #generateSingleImage(String)}, rendered with the default story profile. The HTTP
+     * exchange runs on the Reactor Netty event loop and retries are scheduled with a timer, so no thread is held
+     * while Imagen renders or while backing off. Every attempt, retries included, is admitted through the
+     * {@link VertexRequestScheduler}.
+     * <p>
+     * The image is base64-decoded once, while the response is parsed; callers and the cache share the same bytes.
+     */
+    public Mono<byte[]> generateSingleImageAsync(String prompt) {
+        ImagenTarget target = imagenTargets.get(storyProfiles.getDefault().name());
+        String cacheKey = PanelImageCache.key(target.profile().imagenModelId(), prompt, target.parameters());
+        return Mono.deferContextual(ctx -> cachedImage(target, story(ctx), prompt, cacheKey)
+                .map(image -> servedFromCache(prompt, image))
+                .orElseGet(() -> requestImage(target, story(ctx), prompt, cacheKey)));
+    }
+
+    /**
+     * Like {@link #generateSingleImageAsync(String)}, but rendered with {@code profile}'s model, resolution, batching
+     * and concurrency cap, and a request that is slow to answer is hedged with a second one by the
+     * {@link PanelHedger}; {@code onHedge} runs just before the second request is sent. Cached images are served
+     * directly and never hedged.
+     */
+    public Mono<byte[]> generateSingleImageHedged(StoryProfile profile, String prompt, Runnable onHedge) {
+        ImagenTarget target = imagenTargets.get(profile.name());
+        String cacheKey = PanelImageCache.key(profile.imagenModelId(), prompt, target.parameters());
+        return Mono.deferContextual(ctx -> cachedImage(target, story(ctx), prompt, cacheKey)
+                .map(image -> servedFromCache(prompt, image))
+                .orElseGet(() -> panelHedger.hedge(() -> requestImage(target, story(ctx), prompt, cacheKey),
+                        onHedge)));
+    }
+
+    /**
+     * The image cached for exactly this prompt, or else for a near-identical one found by the {@link SemanticCache}.
+     * Near matches are only taken from the same profile, whose images have the same model and resolution, and from
+     * other stories than {@code story}.
+     */
+    private Optional<byte[]> cachedImage(ImagenTarget target, String story, String prompt, String cacheKey) {
+        Optional<byte[]> exact = panelImageCache.get(cacheKey);
+        if (exact.isPresent()) {
+            return exact;
+        }
+        return semanticCache.findSimilarPanel(target.profile().name(), story, prompt, panelImageCache::contains)
+                .flatMap(panelImageCache::get);
+    }
+
+    // The story being rendered, as set by VertexRequestScheduler#forStory, or blank outside of one.
+    private static String story(ContextView ctx) {
+        return ctx.getOrDefault(VertexRequestScheduler.STORY_CONTEXT_KEY, "");
+    }
+
+    private Mono<byte[]> servedFromCache(String prompt, byte[] image) {
+        log.info("Serving cached image for prompt: {}", prompt);
+        return Mono.just(image);
     }
 
-    public String generateSingleImage(String prompt) throws IOException {
+    private Mono<byte[]> requestImage(ImagenTarget target, String story, String prompt, String cacheKey) {
         log.info("Generating single image for prompt: {}", prompt);
-        Exception lastException = null;
+        return storyProfiles.limit(target.profile(), target.batcher().submit(prompt))
+                .retryWhen(retrySpec()
+                        .doBeforeRetry(signal -> {
+                            metrics.recordRetry(VertexRequestScheduler.Api.IMAGEN, signal.failure());
+                            log.warn("Attempt {}/{} failed to generate image for prompt: {}. Error: {}",
+                                    signal.totalRetries() + 1, MAX_RETRIES, prompt, signal.failure().getMessage());
+                        })
+                        .onRetryExhaustedThrow((spec, signal) -> new IOException(
+                                "Failed to generate single image from Vertex AI after " + MAX_RETRIES
+                                        + " attempts for prompt: " + prompt, signal.failure())))
+                .map(image -> {
+                    log.info("Successfully generated single image for prompt: {}", prompt);
+                    panelImageCache.put(cacheKey, image);
+                    semanticCache.rememberPanel(target.profile().name(), story, prompt, cacheKey);
+                    return image;
+                });
+    }
 
-        for (int attempt = 1; attempt <= MAX_RETRIES; attempt++) {
-            try {
-                Instance instance = Instance.fromPrompt(prompt);
-                ImagenRequest imagenRequest = ImagenRequest.fromInstance(instance);
-                String url = String.format(IMAGEN_API_ENDPOINT_TEMPLATE, region, projectId, region, imagenModelId);
-                ResponseEntity<ImagenResponse> response = restTemplate.postForEntity(url,
-                        new HttpEntity<>(imagenRequest, createHeaders()), ImagenResponse.class);
-
-                if (response.getBody() != null && response.getBody().getPredictions() != null
-                        && !response.getBody().getPredictions().isEmpty()) {
-                    String base64Image = response.getBody().getPredictions().get(0).getBytesBase64Encoded();
-                    log.info("Successfully generated single image on attempt {}/{}", attempt, MAX_RETRIES);
-                    return base64Image;
-                } else {
-                    throw new IOException("Vertex AI returned a response with no image data.");
-                }
-            } catch (Exception e) {
-                lastException = e;
-                log.warn("Attempt {}/{} failed to generate image for prompt: {}. Error: {}", attempt, MAX_RETRIES, prompt, e.getMessage());
-                if (attempt < MAX_RETRIES) {
-                    try {
-                        Thread.sleep(RETRY_DELAY_MS);
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        throw new IOException("Image generation retry was interrupted", ie);
+    /**
+     * Imagen responses are read with {@link ImagenResponseReader} from the joined (pooled, not copied) network
+     * buffers instead of being bound by the JSON codec, so the base64 images are decoded without first becoming
+     * strings.
+     */
+    private Mono<ImagenResponse> postImagen(String imagenUrl, ImagenRequest imagenRequest) {
+        return scheduled(VertexRequestScheduler.Api.IMAGEN, createHeaders()
+                .flatMap(headers -> DataBufferUtils.join(webClient.post()
+                        .uri(imagenUrl)
+                        .headers(h -> h.addAll(headers))
+                        .bodyValue(imagenRequest)
+                        .retrieve()
+                        .bodyToFlux(DataBuffer.class), maxResponseBytes))
+                .<ImagenResponse>handle((body, sink) -> {
+                    // Closing the stream releases the buffers.
+                    try (InputStream in = body.asInputStream(true)) {
+                        sink.next(ImagenResponseReader.read(in));
+                    } catch (IOException e) {
+                        sink.error(e);
                     }
-                }
+                })
+                .timeout(imagenTimeout));
+    }
+
+    public List<String> generateStoryPrompts(String storyIdea) throws IOException {
+        return generateStoryPrompts(StoryRequest.of(storyIdea, storyProfiles.getDefault().panels())).prompts();
+    }
+
+    public StoryPrompts generateStoryPrompts(StoryRequest request) throws IOException {
+        return storyPromptCache.getOrLoad(request,
+                () -> blockUnwrapping(requestStoryPrompts(request, characterSheets)));
+    }
+
+    private GeminiRequest storyRequest(StoryRequest request, boolean sheet) {
+        if (!sheet) {
+            return GeminiRequest.fromPrompt(STORY_PROMPT.formatted(request.panels(), request.idea()));
+        }
+        String prompt;
+        if (request.isSequel()) {
+            try {
+                prompt = SEQUEL_SHEET_PROMPT.formatted(request.panels(), request.idea(),
+                        StorySheetParser.toJson(request.sequelSheet()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
+        } else {
+            prompt = STORY_SHEET_PROMPT.formatted(request.panels(), request.idea());
         }
-        throw new IOException("Failed to generate single image from Vertex AI after " + MAX_RETRIES + " attempts for prompt: " + prompt, lastException);
+        return GeminiRequest.fromPrompt(prompt,
+                GeminiRequest.GenerationConfig.json(StorySheetParser.schema(request.isSequel())));
     }
 
-    public List<String> generateStoryPrompts(String storyIdea) throws IOException {
-        log.info("Generating 10 story prompts from idea: {}", storyIdea);
-        String prompt = "You are an expert prompt engineer for a text-to-image model, specializing in creating coherent, multi-panel stories with high character consistency.\n"
-                +
-                "Your task is to create a series of 10 detailed, consistent, and vivid prompts for a 10-panel cartoon based on the following story idea.\n\n"
-                +
-                "STORY IDEA: \"" + storyIdea + "\"\n\n" +
-                "## CRITICAL INSTRUCTIONS:\n" +
-                "1.  **Analyze and Create a Character Sheet (Internal):** First, identify the main characters. For each character, create a detailed 'Character Sheet' for your internal use. This sheet must define consistent attributes that you will use in EVERY prompt where the character appears.\n\n"
-                +
-                "2.  **Enforce Strict Consistency Using the Character Sheet:**\n" +
-                "    *   **Unique Name/Role:** Use a unique, memorable name like 'Bruno the Bear' or 'Luna the Rabbit'.\n"
-                +
-                "    *   **Species/Body Ratio:** Fix the size ratio, e.g., 'Bruno stands twice Luna's height'.\n" +
-                "    *   **Colors (Fur, Eyes, etc.):** Be specific and unchanging, e.g., 'chestnut-brown fur, hazel eyes'.\n"
-                +
-                "    *   **Signature Outfit:** A defining, unchanging piece of clothing, e.g., 'a mint-green knit scarf'.\n"
-                +
-                "    *   **Props/Accessories:** Unique items they always carry, e.g., 'a vintage leather camera'.\n" +
-                "    *   **Distinctive Markings/Hair:** A fixed physical feature, e.g., 'a white patch over the left ear'.\n"
-                +
-                "    *   **Personality Keywords:** Use recurring keywords for expressions, e.g., 'a gentle, curious smile'.\n\n"
-                +
-                "3.  **Enforce Scene and Style Consistency:**\n" +
-                "    *   **Overall Style:** The style must be consistent throughout all 10 panels. Specify a single, clear style, e.g., 'charming children's book illustration', 'digital art, whimsical and vibrant', or 'Studio Ghibli anime style'. This style component is mandatory for every prompt.\n"
-                +
-                "    *   **Fixed Color Palette:** Maintain a consistent color palette, e.g., 'pastel greens, yellows, peach highlights'.\n"
-                +
-                "    *   **Viewpoint/Camera Angle:** Keep a relatively stable camera perspective, e.g., 'eye-level three-quarter view'.\n\n"
-                +
-                "4.  **Negative Prompts:** Use negative prompts to prevent unwanted variations, e.g., '--no outfit changes, --no different fur colors'.\n\n"
-                +
-                "5.  **Output Format and Structure:** Each of the 10 prompts you generate must be explicitly structured to contain these three core elements: **Style, Subject, and Context/Background.** For example: 'Style: Studio Ghibli anime style. Subject: Bruno the Bear giving Luna the Rabbit a flower. Context: in a sun-dappled forest clearing.'\n"
-                +
-                "    Your final output MUST be ONLY the 10 structured prompts, separated by '---'. Do NOT include the character sheet, titles, reasoning, or any other extra text in your response. Just the prompts, separated by '---'.\n\n"
-                +
-                "Now, generate the 10 prompts.";
-
-        GeminiRequest geminiRequest = GeminiRequest.fromPrompt(prompt);
-        String url = String.format(GEMINI_API_ENDPOINT_TEMPLATE, region, projectId, region, geminiModelId);
-
-        ResponseEntity<GeminiResponse> response = restTemplate.postForEntity(url,
-                new HttpEntity<>(geminiRequest, createHeaders()), GeminiResponse.class);
-
-        String fullResponse = getTextFromGeminiResponse(response.getBody());
-        if (fullResponse != null) {
-            log.info("Successfully generated 10 consistent story prompts.");
-            return Arrays.stream(fullResponse.split("---"))
+    /**
+     * Asks Gemini for the story, as a character sheet if {@code sheet} is set. A sheet that is still malformed or cut
+     * short after every retry falls back to plain prompts, so the story is told without a sheet rather than not at all.
+     */
+    private Mono<StoryPrompts> requestStoryPrompts(StoryRequest request, boolean sheet) {
+        log.info("Generating {} story prompts from idea: {}", request.panels(), request.idea());
+        GeminiRequest geminiRequest = storyRequest(request, sheet);
+
+        return scheduled(VertexRequestScheduler.Api.GEMINI, createHeaders()
+                        .flatMap(headers -> webClient.post()
+                                .uri(geminiUrl)
+                                .headers(h -> h.addAll(headers))
+                                .bodyValue(geminiRequest)
+                                .retrieve()
+                                .bodyToMono(GeminiResponse.class))
+                        .timeout(geminiTimeout))
+                // Parsed before the retry, so a malformed story sheet is asked for again.
+                .<StoryPrompts>handle((response, sink) -> {
+                    try {
+                        sink.next(parseStory(getTextFromGeminiResponse(response), request, sheet));
+                    } catch (IOException e) {
+                        sink.error(e);
+                    }
+                })
+                .retryWhen(retrySpec()
+                        .doBeforeRetry(signal -> {
+                            metrics.recordRetry(VertexRequestScheduler.Api.GEMINI, signal.failure());
+                            log.warn("Attempt {}/{} failed to generate story prompts. Error: {}",
+                                    signal.totalRetries() + 1, MAX_RETRIES, signal.failure().getMessage());
+                        })
+                        .onRetryExhaustedThrow((spec, signal) -> new IOException(
+                                "Failed to generate story prompts from Vertex AI after " + MAX_RETRIES + " attempts",
+                                signal.failure())))
+                .doOnNext(story -> {
+                    if (story.prompts().isEmpty()) {
+                        log.warn("Failed to generate {} story prompts from Vertex AI. Response was empty.",
+                                request.panels());
+                    } else {
+                        log.info("Successfully generated {} consistent story prompts.", story.prompts().size());
+                    }
+                })
+                .defaultIfEmpty(new StoryPrompts(Collections.emptyList(), null))
+                .onErrorResume(e -> sheet && e.getCause() instanceof MalformedStorySheetException, e -> {
+                    log.warn("Story sheet still malformed after {} attempts; falling back to plain prompts. Error: {}",
+                            MAX_RETRIES, e.getCause().getMessage());
+                    return requestStoryPrompts(request, false);
+                });
+    }
+
+    private StoryPrompts parseStory(String text, StoryRequest request, boolean sheet) throws IOException {
+        if (text == null) {
+            return new StoryPrompts(Collections.emptyList(), null);
+        }
+        if (!sheet) {
+            return new StoryPrompts(Arrays.stream(text.split("---"))
                     .map(String::trim)
                     .filter(s -> !s.isEmpty())
-                    .collect(Collectors.toList());
+                    .collect(Collectors.toList()), null);
+        }
+        StorySheetParser parser = new StorySheetParser(request.sequelSheet());
+        List<String> prompts = new ArrayList<>(parser.append(text));
+        prompts.addAll(parser.finish());
+        return new StoryPrompts(prompts, parser.sheet());
+    }
+
+    /**
+     * Scheme and host all Vertex AI calls go to, e.g. {@code https://us-central1-aiplatform.googleapis.com}.
+     */
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public boolean isStreamingPrompts() {
+        return streamingPrompts;
+    }
+
+    /**
+     * Emits story prompts one by one. In streaming mode each prompt is emitted as soon as Gemini has written it, so
+     * callers can start rendering panel 1 while the rest of the story is still being generated; otherwise the full
+     * list is fetched first, exactly as {@link #generateStoryPrompts(StoryRequest)} does. In character-sheet mode
+     * each prompt is assembled as soon as its scene is complete, and the sheet is passed to {@code onSheet} before
+     * the stream completes. A sheet that turns out malformed or cut short ends the story after the last complete
+     * panel; if there is none, the story is streamed again from plain prompts.
+     */
+    public Flux<String> streamStoryPrompts(StoryRequest request, Consumer<StorySheet> onSheet) {
+        if (!streamingPrompts) {
+            return Mono.fromCallable(() -> generateStoryPrompts(request))
+                    .subscribeOn(blockingScheduler)
+                    .doOnNext(story -> {
+                        if (story.sheet() != null) {
+                            onSheet.accept(story.sheet());
+                        }
+                    })
+                    .flatMapIterable(StoryPrompts::prompts);
         }
-        log.warn("Failed to generate 10 story prompts from Vertex AI. Response was empty.");
-        return Collections.emptyList();
+        return storyPromptCache.getOrStream(request,
+                sheetSink -> requestStoryPromptStream(request, sheetSink, characterSheets), onSheet);
+    }
+
+    private Flux<String> requestStoryPromptStream(StoryRequest request, Consumer<StorySheet> onSheet, boolean sheet) {
+        log.info("Streaming {} story prompts from idea: {}", request.panels(), request.idea());
+        GeminiRequest geminiRequest = storyRequest(request, sheet);
+
+        return Flux.defer(() -> {
+            // Only retry while nothing has been emitted; replaying a half-consumed stream would duplicate panels.
+            AtomicBoolean emitted = new AtomicBoolean();
+            Flux<String> texts = scheduledMany(VertexRequestScheduler.Api.GEMINI, createHeaders()
+                    .flatMapMany(headers -> webClient.post()
+                            .uri(geminiStreamUrl)
+                            .headers(h -> h.addAll(headers))
+                            .accept(MediaType.TEXT_EVENT_STREAM)
+                            .bodyValue(geminiRequest)
+                            .retrieve()
+                            .bodyToFlux(GeminiResponse.class))
+                    .timeout(geminiTimeout))
+                    .mapNotNull(GeminiResponse::getFirstCandidateText)
+                    .doOnNext(text -> emitted.set(true))
+                    .retryWhen(retrySpec()
+                            .filter(e -> !emitted.get() && isRetryable(e))
+                            .doBeforeRetry(signal -> {
+                                metrics.recordRetry(VertexRequestScheduler.Api.GEMINI, signal.failure());
+                                log.warn("Attempt {}/{} failed to stream story prompts. Error: {}",
+                                        signal.totalRetries() + 1, MAX_RETRIES, signal.failure().getMessage());
+                            })
+                            .onRetryExhaustedThrow((spec, signal) -> new IOException(
+                                    "Failed to stream story prompts from Vertex AI after " + MAX_RETRIES + " attempts",
+                                    signal.failure())));
+
+            return splitPrompts(texts, request, onSheet, sheet)
+                    .doOnComplete(() -> log.info("Finished streaming story prompts."));
+        }).onErrorResume(e -> sheet && e instanceof MalformedStorySheetException, e -> {
+            // Only reached before the first panel; see splitPrompts.
+            log.warn("Story sheet malformed before its first panel; falling back to plain prompts. Error: {}",
+                    e.getMessage());
+            return requestStoryPromptStream(request, onSheet, false);
+        });
+    }
+
+    private Flux<String> splitPrompts(Flux<String> texts, StoryRequest request, Consumer<StorySheet> onSheet,
+            boolean sheet) {
+        if (!sheet) {
+            PromptStreamSplitter splitter = new PromptStreamSplitter();
+            return texts.concatMapIterable(splitter::append)
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(splitter.finish())));
+        }
+        StorySheetParser parser;
+        try {
+            parser = new StorySheetParser(request.sequelSheet());
+        } catch (IOException e) {
+            return Flux.error(e);
+        }
+        // Panels already emitted are being rendered, so a sheet that breaks off later ends the story there.
+        AtomicInteger emitted = new AtomicInteger();
+        return texts.concatMap(text -> parsed(() -> parser.append(text)))
+                .concatWith(parsed(() -> {
+                    List<String> rest = parser.finish();
+                    onSheet.accept(parser.sheet());
+                    return rest;
+                }))
+                .doOnNext(prompt -> emitted.incrementAndGet())
+                .onErrorResume(e -> e instanceof MalformedStorySheetException && emitted.get() > 0, e -> {
+                    log.warn("Story sheet malformed after {} panel(s); ending the story there. Error: {}",
+                            emitted.get(), e.getMessage());
+                    onSheet.accept(parser.sheet());
+                    return Flux.empty();
+                });
+    }
+
+    @FunctionalInterface
+    private interface ParseStep {
+        List<String> parse() throws IOException;
+    }
+
+    private static Flux<String> parsed(ParseStep step) {
+        return Flux.defer(() -> {
+            try {
+                return Flux.fromIterable(step.parse());
+            } catch (IOException e) {
+                return Flux.error(e);
+            }
+        });
+    }
+
+    private <T> Flux<T> scheduledMany(VertexRequestScheduler.Api api, Flux<T> call) {
+        return requestScheduler.acquire(api)
+                .thenMany(concurrencyLimiter.limit(metrics.timeAttempt(api, call)))
+                .doOnComplete(() -> requestScheduler.onSuccess(api))
+                .doOnError(e -> {
+                    if (VertexRequestScheduler.isThrottle(e)) {
+                        requestScheduler.onThrottled(api);
+                    }
+                });
+    }
+
+    private <T> Mono<T> scheduled(VertexRequestScheduler.Api api, Mono<T> call) {
+        return requestScheduler.acquire(api)
+                .then(concurrencyLimiter.limit(metrics.timeAttempt(api, call)))
+                .doOnSuccess(result -> requestScheduler.onSuccess(api))
+                .doOnError(e -> {
+                    if (VertexRequestScheduler.isThrottle(e)) {
+                        requestScheduler.onThrottled(api);
+                    }
+                });
+    }
+
+    /**
+     * Exponential backoff with jitter, so throttled callers spread out instead of retrying in lockstep. Client
+     * errors other than 408/429 and filtered images are not retried because repeating the same request cannot
+     * succeed.
+     */
+    private static RetryBackoffSpec retrySpec() {
+        return Retry.backoff(MAX_RETRIES - 1, Duration.ofMillis(RETRY_DELAY_MS))
+                .maxBackoff(Duration.ofMillis(MAX_RETRY_DELAY_MS))
+                .jitter(0.5)
+                .filter(VertexAiService::isRetryable);
+    }
+
+    private static boolean isRetryable(Throwable error) {
+        if (error instanceof ImageFilteredException) {
+            return false;
+        }
+        if (error instanceof WebClientResponseException responseException) {
+            int status = responseException.getStatusCode().value();
+            return status == 408 || status == 429 || status >= 500;
+        }
+        return true;
     }
 
     private String getTextFromGeminiResponse(GeminiResponse response) {
@@ -151,15 +548,27 @@ public class VertexAiService {
         return null;
     }
 
-    private HttpHeaders createHeaders() throws IOException {
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setBearerAuth(getAccessToken());
-        return headers;
+    private Mono<HttpHeaders> createHeaders() {
+        // Normally a plain read of the prebuilt headers. Only a missing or expired token makes the call wait for a
+        // refresh, which blocks inside the auth library and so runs off the event loop.
+        return Mono.defer(() -> {
+            HttpHeaders cached = tokenProvider.getCachedHeaders();
+            if (cached != null) {
+                return Mono.just(cached);
+            }
+            return Mono.fromCallable(tokenProvider::getHeaders).subscribeOn(blockingScheduler);
+        });
     }
 
-    private String getAccessToken() throws IOException {
-        credentials.refreshIfExpired();
-        return credentials.getAccessToken().getTokenValue();
+    private static <T> T blockUnwrapping(Mono<T> mono) throws IOException {
+        try {
+            return mono.block();
+        } catch (RuntimeException e) {
+            Throwable cause = Exceptions.unwrap(e);
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw e;
+        }
     }
-}
\ No newline at end of file
+}
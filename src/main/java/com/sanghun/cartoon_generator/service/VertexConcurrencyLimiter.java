@@ -0,0 +1,109 @@
+package com.sanghun.cartoon_generator.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caps the number of Vertex AI calls in flight across all stories on this node.
+ * <p>
+ * Waiting for a permit blocks no thread at all: a call that finds none left joins a FIFO queue, and the permit of the
+ * next call to finish is handed straight to the head of it, so the cap here, not a thread pool size, decides
+ * concurrency.
+ */
+@Component
+public class VertexConcurrencyLimiter implements MeterBinder {
+
+    private final int maxConcurrency;
+    // Both guarded by this limiter; permits are only left over while no one waits.
+    private final Queue<MonoSink<Permit>> waiters = new ArrayDeque<>();
+    private int available;
+
+    public VertexConcurrencyLimiter(@Value("${cartoon.vertex.max-concurrency:32}") int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+        this.available = maxConcurrency;
+    }
+
+    public <T> Mono<T> limit(Mono<T> call) {
+        return Mono.usingWhen(acquire(), permit -> call, Permit::release, (permit, error) -> permit.release(),
+                Permit::release);
+    }
+
+    public <T> Flux<T> limit(Flux<T> call) {
+        return Flux.usingWhen(acquire(), permit -> call, Permit::release, (permit, error) -> permit.release(),
+                Permit::release);
+    }
+
+    private Mono<Permit> acquire() {
+        return Mono.<Permit>create(sink -> {
+                    sink.onCancel(() -> withdraw(sink));
+                    synchronized (this) {
+                        if (available == 0) {
+                            waiters.add(sink);
+                            return;
+                        }
+                        available--;
+                    }
+                    sink.success(new Permit());
+                })
+                // A permit handed over as the subscriber cancelled is discarded rather than delivered; pass it on.
+                .doOnDiscard(Permit.class, permit -> permit.release().subscribe());
+    }
+
+    private synchronized void withdraw(MonoSink<Permit> sink) {
+        waiters.remove(sink);
+    }
+
+    private void handOver() {
+        MonoSink<Permit> next;
+        synchronized (this) {
+            next = waiters.poll();
+            if (next == null) {
+                available++;
+                return;
+            }
+        }
+        next.success(new Permit());
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public synchronized int getAvailablePermits() {
+        return available;
+    }
+
+    public synchronized int getQueueLength() {
+        return waiters.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("cartoon.vertex.concurrency.active", this, l -> l.maxConcurrency - l.getAvailablePermits())
+                .register(registry);
+        Gauge.builder("cartoon.vertex.concurrency.waiting", this, VertexConcurrencyLimiter::getQueueLength)
+                .register(registry);
+    }
+
+    private final class Permit {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Mono<Void> release() {
+            return Mono.fromRunnable(() -> {
+                if (released.compareAndSet(false, true)) {
+                    handOver();
+                }
+            });
+        }
+    }
+}
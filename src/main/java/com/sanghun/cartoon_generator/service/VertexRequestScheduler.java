@@ -0,0 +1,262 @@
+package com.sanghun.cartoon_generator.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.util.context.Context;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Central admission point for every Imagen and Gemini call on this node.
+ * <p>
+ * Each API gets its own token bucket sized to the project quota. The refill rate adapts with AIMD: every successful
+ * call adds a small constant, every 429 / RESOURCE_EXHAUSTED halves it (at most once per cool-down window, so one
+ * burst of rejections counts once). Waiting calls are queued per story and granted round-robin, so a story with ten
+ * queued panels cannot starve a story that has just arrived. The story is read from the Reactor context, see
+ * {@link #forStory(String)}.
+ */
+@Slf4j
+@Component
+public class VertexRequestScheduler implements MeterBinder, DisposableBean {
+
+    public static final String STORY_CONTEXT_KEY = VertexRequestScheduler.class.getName() + ".story";
+
+    private static final String DEFAULT_STORY = "default";
+    private static final long DECREASE_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    public enum Api {
+        IMAGEN, GEMINI
+    }
+
+    private final Map<Api, Lane> lanes = new EnumMap<>(Api.class);
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "vertex-rate-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public VertexRequestScheduler(
+            @Value("${cartoon.vertex.rate.imagen-per-second:5}") double imagenMaxRate,
+            @Value("${cartoon.vertex.rate.gemini-per-second:5}") double geminiMaxRate,
+            @Value("${cartoon.vertex.rate.min-per-second:0.2}") double minRate,
+            @Value("${cartoon.vertex.rate.burst:5}") double burst,
+            @Value("${cartoon.vertex.rate.additive-increase:0.1}") double additiveIncrease,
+            @Value("${cartoon.vertex.rate.decrease-factor:0.5}") double decreaseFactor) {
+        lanes.put(Api.IMAGEN, new Lane(Api.IMAGEN, imagenMaxRate, minRate, burst, additiveIncrease, decreaseFactor));
+        lanes.put(Api.GEMINI, new Lane(Api.GEMINI, geminiMaxRate, minRate, burst, additiveIncrease, decreaseFactor));
+    }
+
+    /**
+     * Context to write onto a story's reactive pipeline so its calls are queued fairly against other stories.
+     */
+    public static Context forStory(String storyId) {
+        return Context.of(STORY_CONTEXT_KEY, storyId);
+    }
+
+    /**
+     * Completes once a token is available for the calling story.
+     */
+    public Mono<Void> acquire(Api api) {
+        Lane lane = lanes.get(api);
+        return Mono.deferContextual(ctx -> lane.acquire(ctx.getOrDefault(STORY_CONTEXT_KEY, DEFAULT_STORY)));
+    }
+
+    public void onSuccess(Api api) {
+        lanes.get(api).increase();
+    }
+
+    public void onThrottled(Api api) {
+        lanes.get(api).decrease();
+    }
+
+    public static boolean isThrottle(Throwable error) {
+        if (error instanceof WebClientResponseException responseException) {
+            return responseException.getStatusCode().value() == HttpStatus.TOO_MANY_REQUESTS.value()
+                    || responseException.getResponseBodyAsString().contains("RESOURCE_EXHAUSTED");
+        }
+        return false;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        lanes.values().forEach(lane -> lane.bindTo(registry));
+    }
+
+    @Override
+    public void destroy() {
+        timer.shutdownNow();
+    }
+
+    private record Waiter(MonoSink<Void> sink, long enqueuedAtNanos) {
+    }
+
+    private final class Lane {
+
+        private final Api api;
+        private final double maxRate;
+        private final double minRate;
+        private final double burst;
+        private final double additiveIncrease;
+        private final double decreaseFactor;
+
+        private final Map<String, ArrayDeque<Waiter>> queues = new LinkedHashMap<>();
+        private final ArrayDeque<String> rotation = new ArrayDeque<>();
+        private int queued;
+        private double rate;
+        private double tokens;
+        private long lastRefillNanos = System.nanoTime();
+        private long lastDecreaseNanos = System.nanoTime() - DECREASE_COOLDOWN_NANOS;
+        private boolean drainScheduled;
+
+        private final AtomicLong throttleEvents = new AtomicLong();
+        private volatile Timer waitTimer;
+
+        Lane(Api api, double maxRate, double minRate, double burst, double additiveIncrease, double decreaseFactor) {
+            this.api = api;
+            this.maxRate = maxRate;
+            this.minRate = minRate;
+            this.burst = burst;
+            this.additiveIncrease = additiveIncrease;
+            this.decreaseFactor = decreaseFactor;
+            this.rate = maxRate;
+            this.tokens = burst;
+        }
+
+        Mono<Void> acquire(String story) {
+            return Mono.create(sink -> {
+                Waiter waiter = new Waiter(sink, System.nanoTime());
+                synchronized (this) {
+                    queues.computeIfAbsent(story, key -> {
+                        rotation.addLast(key);
+                        return new ArrayDeque<>();
+                    }).addLast(waiter);
+                    queued++;
+                }
+                sink.onCancel(() -> remove(story, waiter));
+                drain();
+            });
+        }
+
+        private void remove(String story, Waiter waiter) {
+            synchronized (this) {
+                ArrayDeque<Waiter> queue = queues.get(story);
+                if (queue != null && queue.remove(waiter)) {
+                    queued--;
+                    if (queue.isEmpty()) {
+                        queues.remove(story);
+                        rotation.remove(story);
+                    }
+                }
+            }
+        }
+
+        private void drain() {
+            List<Waiter> granted = new ArrayList<>();
+            long retryInNanos = -1;
+            synchronized (this) {
+                refill(System.nanoTime());
+                while (queued > 0 && tokens >= 1) {
+                    String story = rotation.pollFirst();
+                    ArrayDeque<Waiter> queue = queues.get(story);
+                    granted.add(queue.pollFirst());
+                    queued--;
+                    tokens -= 1;
+                    if (queue.isEmpty()) {
+                        queues.remove(story);
+                    } else {
+                        rotation.addLast(story);
+                    }
+                }
+                if (queued > 0 && !drainScheduled) {
+                    drainScheduled = true;
+                    retryInNanos = (long) Math.ceil((1 - tokens) / rate * 1_000_000_000L);
+                }
+            }
+
+            if (retryInNanos >= 0) {
+                timer.schedule(() -> {
+                    synchronized (this) {
+                        drainScheduled = false;
+                    }
+                    drain();
+                }, retryInNanos, TimeUnit.NANOSECONDS);
+            }
+
+            long now = System.nanoTime();
+            Timer recorder = waitTimer;
+            for (Waiter waiter : granted) {
+                if (recorder != null) {
+                    recorder.record(now - waiter.enqueuedAtNanos(), TimeUnit.NANOSECONDS);
+                }
+                waiter.sink().success();
+            }
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(burst, tokens + rate * (now - lastRefillNanos) / 1_000_000_000d);
+            lastRefillNanos = now;
+        }
+
+        synchronized void increase() {
+            rate = Math.min(maxRate, rate + additiveIncrease);
+        }
+
+        void decrease() {
+            throttleEvents.incrementAndGet();
+            synchronized (this) {
+                long now = System.nanoTime();
+                if (now - lastDecreaseNanos < DECREASE_COOLDOWN_NANOS) {
+                    return;
+                }
+                refill(now);
+                lastDecreaseNanos = now;
+                rate = Math.max(minRate, rate * decreaseFactor);
+                tokens = Math.min(tokens, 0);
+                log.warn("Vertex AI {} quota exhausted, lowering request rate to {}/s", api, String.format("%.2f", rate));
+            }
+        }
+
+        synchronized double getRate() {
+            return rate;
+        }
+
+        synchronized int getQueued() {
+            return queued;
+        }
+
+        void bindTo(MeterRegistry registry) {
+            String tag = api.name().toLowerCase(Locale.ROOT);
+            waitTimer = Timer.builder("cartoon.vertex.scheduler.wait")
+                    .tag("api", tag)
+                    .publishPercentileHistogram()
+                    .register(registry);
+            Gauge.builder("cartoon.vertex.scheduler.queue", this, Lane::getQueued)
+                    .tag("api", tag).register(registry);
+            Gauge.builder("cartoon.vertex.scheduler.rate", this, Lane::getRate)
+                    .tag("api", tag).baseUnit("requests/s").register(registry);
+            FunctionCounter.builder("cartoon.vertex.scheduler.throttled", throttleEvents, AtomicLong::get)
+                    .tag("api", tag).register(registry);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out ready-made, read-only Vertex AI request headers with a cached bearer token.
+ * <p>
+ * The token is refreshed on a background thread {@code refresh-margin} before it expires, so request threads only
+ * read a volatile field. A caller blocks (on a single refresh shared by all callers) only if there is no token yet or
+ * background refreshes have kept failing until the token expired. Failed background refreshes are retried every
+ * {@code retry-interval}. Refreshes are serialized with a {@link ReentrantLock} rather than a monitor, so virtual
+ * threads waiting on one unmount instead of pinning their carrier thread.
+ */
+@Slf4j
+@Component
+public class VertexTokenProvider implements MeterBinder, DisposableBean {
+
+    private static final String SCOPE = "https://www.googleapis.com/auth/cloud-platform";
+
+    private record Snapshot(HttpHeaders headers, Instant expiresAt) {
+        boolean isUsable(Instant now) {
+            return expiresAt == null || now.isBefore(expiresAt);
+        }
+    }
+
+    private final GoogleCredentials credentials; // null when auth is disabled (local stand-in)
+    private final Duration refreshMargin;
+    private final Duration retryInterval;
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "vertex-token-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ReentrantLock refreshLock = new ReentrantLock();
+
+    private volatile Snapshot current;
+    private volatile MeterRegistry registry;
+
+    @Autowired
+    public VertexTokenProvider(@Value("${cartoon.vertex.auth.enabled:true}") boolean authEnabled,
+            @Value("${cartoon.vertex.auth.refresh-margin:PT5M}") Duration refreshMargin,
+            @Value("${cartoon.vertex.auth.retry-interval:PT10S}") Duration retryInterval) throws IOException {
+        this(authEnabled ? GoogleCredentials.getApplicationDefault().createScoped(SCOPE) : null, refreshMargin,
+                retryInterval);
+    }
+
+    VertexTokenProvider(GoogleCredentials credentials, Duration refreshMargin, Duration retryInterval) {
+        this.credentials = credentials;
+        this.refreshMargin = refreshMargin;
+        this.retryInterval = retryInterval;
+        if (credentials == null) {
+            this.current = new Snapshot(buildHeaders(null), null);
+            return;
+        }
+        // Fetch the first token right away so the first story does not pay for it.
+        refresher.execute(this::refreshInBackground);
+    }
+
+    /**
+     * Headers with a valid token, or {@code null} if getting one requires a (blocking) refresh.
+     */
+    public HttpHeaders getCachedHeaders() {
+        Snapshot snapshot = current;
+        return snapshot != null && snapshot.isUsable(Instant.now()) ? snapshot.headers() : null;
+    }
+
+    /**
+     * Headers with a valid token, refreshing it first if needed. May block; call off the event loop.
+     */
+    public HttpHeaders getHeaders() throws IOException {
+        HttpHeaders cached = getCachedHeaders();
+        if (cached != null) {
+            return cached;
+        }
+        refreshLock.lock();
+        try {
+            // Whoever held the lock may have just refreshed the token.
+            cached = getCachedHeaders();
+            return cached != null ? cached : refresh().headers();
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private Snapshot refresh() throws IOException {
+        long start = System.nanoTime();
+        refreshLock.lock();
+        try {
+            credentials.refresh();
+            AccessToken token = credentials.getAccessToken();
+            Instant expiresAt = token.getExpirationTime() != null ? token.getExpirationTime().toInstant() : null;
+            Snapshot snapshot = new Snapshot(buildHeaders(token.getTokenValue()), expiresAt);
+            current = snapshot;
+            recordRefresh(start, "success");
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            recordRefresh(start, "failure");
+            throw e;
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private void refreshInBackground() {
+        Duration delay;
+        try {
+            Snapshot snapshot = refresh();
+            delay = snapshot.expiresAt() == null
+                    ? refreshMargin
+                    : Duration.between(Instant.now(), snapshot.expiresAt()).minus(refreshMargin);
+            log.debug("Refreshed Vertex AI access token, valid until {}", snapshot.expiresAt());
+        } catch (Exception e) {
+            log.warn("Failed to refresh Vertex AI access token, retrying in {}: {}", retryInterval, e.getMessage());
+            delay = retryInterval;
+        }
+        if (!refresher.isShutdown()) {
+            refresher.schedule(this::refreshInBackground, Math.max(1000, delay.toMillis()), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static HttpHeaders buildHeaders(String token) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        if (token != null) {
+            headers.setBearerAuth(token);
+        }
+        return HttpHeaders.readOnlyHttpHeaders(headers);
+    }
+
+    private void recordRefresh(long startNanos, String outcome) {
+        MeterRegistry meterRegistry = registry;
+        if (meterRegistry != null) {
+            Timer.builder("cartoon.vertex.token.refresh")
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private double getSecondsUntilExpiry() {
+        Snapshot snapshot = current;
+        if (snapshot == null || snapshot.expiresAt() == null) {
+            return Double.NaN;
+        }
+        return Duration.between(Instant.now(), snapshot.expiresAt()).toSeconds();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        Gauge.builder("cartoon.vertex.token.expiry", this, VertexTokenProvider::getSecondsUntilExpiry)
+                .baseUnit("seconds")
+                .description("Time left on the cached Vertex AI access token")
+                .register(registry);
+    }
+
+    @Override
+    public void destroy() {
+        refresher.shutdownNow();
+    }
+}
@@ -0,0 +1,89 @@
+package com.sanghun.cartoon_generator.controller;
+
+import com.sanghun.cartoon_generator.service.PanelStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(PanelController.class)
+class PanelControllerTest {
+
+    private static final String ID = "a".repeat(64);
+    private static final byte[] IMAGE = {(byte) 0x89, 'P', 'N', 'G', 1, 2, 3, 4};
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @MockitoBean
+    PanelStore panelStore;
+
+    @TempDir
+    Path directory;
+
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = Files.write(directory.resolve(ID + ".png"), IMAGE);
+        when(panelStore.getTtl()).thenReturn(Duration.ofHours(1));
+        when(panelStore.get(anyString())).thenReturn(Optional.empty());
+        when(panelStore.get(ID)).thenReturn(Optional.of(panel(IMAGE.length)));
+    }
+
+    @Test
+    void servesThePanelAsAnImmutableImage() throws Exception {
+        mockMvc.perform(get("/panels/" + ID))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.IMAGE_PNG))
+                .andExpect(content().bytes(IMAGE))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, IMAGE.length))
+                .andExpect(header().string(HttpHeaders.ETAG, '"' + ID + '"'))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=3600, public, immutable"));
+    }
+
+    @Test
+    void answersNotModifiedToAMatchingEtag() throws Exception {
+        mockMvc.perform(get("/panels/" + ID).header(HttpHeaders.IF_NONE_MATCH, '"' + ID + '"'))
+                .andExpect(status().isNotModified())
+                .andExpect(content().bytes(new byte[0]))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=3600, public, immutable"));
+    }
+
+    @Test
+    void answersNotFoundForAnUnknownPanel() throws Exception {
+        mockMvc.perform(get("/panels/" + "b".repeat(64))).andExpect(status().isNotFound());
+        mockMvc.perform(get("/panels/not-a-panel")).andExpect(status().isNotFound());
+    }
+
+    @Test
+    void failsRatherThanSpinningWhenTheFileIsShorterThanIndexed() {
+        when(panelStore.get(ID)).thenReturn(Optional.of(panel(IMAGE.length + 100)));
+
+        assertThatThrownBy(() -> mockMvc.perform(get("/panels/" + ID)))
+                .hasStackTraceContaining("ended after " + IMAGE.length + " of " + (IMAGE.length + 100) + " bytes");
+    }
+
+    private PanelStore.StoredPanel panel(long size) {
+        return new PanelStore.StoredPanel(ID, file, MediaType.IMAGE_PNG, size, Instant.now().plusSeconds(3600));
+    }
+}
@@ -0,0 +1,150 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sanghun.cartoon_generator.dto.GenerationJob;
+import com.sanghun.cartoon_generator.dto.JobEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class GenerationAdmissionTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final ImageGenerationService imageGenerationService = mock(ImageGenerationService.class);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<String> started = new CopyOnWriteArrayList<>();
+
+    @TempDir
+    Path directory;
+
+    private GenerationJobStore jobStore;
+    private GenerationAdmission admission;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        jobStore = new GenerationJobStore(objectMapper, new LocalClusterCoordinator(objectMapper, directory.toString()),
+                Duration.ofHours(1), Duration.ofMinutes(10));
+        doAnswer(invocation -> {
+            try (GenerationJobStore.JobClaim claim = invocation.getArgument(0)) {
+                started.add(claim.job().getId());
+                release.await(10, TimeUnit.SECONDS);
+            }
+            return null;
+        }).when(imageGenerationService).runJob(any());
+        // One slot, two queued stories, two stories per client.
+        admission = new GenerationAdmission(jobStore, imageGenerationService, new SimpleAsyncTaskExecutor(),
+                1, 2, 2, Duration.ofHours(1), Duration.ofSeconds(60), "");
+    }
+
+    @Test
+    void storiesBeyondCapacityWaitAndAreToldTheirPosition() {
+        String first = admission.admitNew("alice", () -> jobStore.create("first")).getId();
+        String second = admission.admitNew("bob", () -> jobStore.create("second")).getId();
+        await().atMost(Duration.ofSeconds(5)).until(() -> started.contains(first));
+
+        assertThat(admission.getRunning()).isEqualTo(1);
+        assertThat(admission.getQueued()).isEqualTo(1);
+        List<JobEvent> events = new CopyOnWriteArrayList<>();
+        jobStore.subscribe(second, 0, events::add);
+        assertThat(events).extracting(JobEvent::getName).contains(GenerationJobStore.EVENT_QUEUE);
+
+        release.countDown();
+        await().atMost(Duration.ofSeconds(5)).until(() -> admission.getRunning() == 0);
+        assertThat(started).containsExactly(first, second);
+    }
+
+    @Test
+    void resumedJobsGoAheadOfNewStories() {
+        String running = admission.admitNew("alice", () -> jobStore.create("running")).getId();
+        await().atMost(Duration.ofSeconds(5)).until(() -> started.contains(running));
+        String waiting = admission.admitNew("bob", () -> jobStore.create("new")).getId();
+        String orphan = jobStore.create("orphaned").getId();
+        admission.resume(orphan);
+        // Already queued here; not queued twice.
+        admission.resume(orphan);
+
+        release.countDown();
+        await().atMost(Duration.ofSeconds(5)).until(() -> admission.getRunning() == 0);
+        assertThat(started).containsExactly(running, orphan, waiting);
+    }
+
+    @Test
+    void stoppingReleasesQueuedStoriesAndLetsRunningOnesFinish() throws Exception {
+        String running = admission.admitNew("alice", () -> jobStore.create("running")).getId();
+        await().atMost(Duration.ofSeconds(5)).until(() -> started.contains(running));
+        String queued = admission.admitNew("bob", () -> jobStore.create("queued")).getId();
+
+        assertThat(admission.stopAdmitting()).isEqualTo(1);
+        assertThatThrownBy(() -> admission.admitNew("carol", () -> jobStore.create("late")))
+                .isInstanceOf(AdmissionRejectedException.class);
+        admission.resume(queued);
+        assertThat(admission.awaitIdle(Duration.ofMillis(50))).isFalse();
+
+        release.countDown();
+        assertThat(admission.awaitIdle(Duration.ofSeconds(5))).isTrue();
+        assertThat(started).containsExactly(running);
+        // Its claim was given up, so whoever comes next can resume it.
+        assertThat(jobStore.tryClaim(queued)).isPresent();
+    }
+
+    @Test
+    void rejectsPastTheClientLimitAndAFullQueue() {
+        admission.admitNew("alice", () -> jobStore.create("one"));
+        admission.admitNew("alice", () -> jobStore.create("two"));
+        assertThatThrownBy(() -> admission.admitNew("alice", () -> jobStore.create("three")))
+                .isInstanceOf(AdmissionRejectedException.class);
+
+        admission.admitNew("bob", () -> jobStore.create("four"));
+        assertThatThrownBy(() -> admission.admitNew("carol", () -> jobStore.create("five")))
+                .isInstanceOfSatisfying(AdmissionRejectedException.class,
+                        e -> assertThat(e.getRetryAfter()).isPositive());
+        release.countDown();
+    }
+
+    @Test
+    void aLostQueuedJobDoesNotFailAdmissionOrHoldUpOtherPositions() throws Exception {
+        AtomicReference<String> lostJob = new AtomicReference<>();
+        LocalClusterCoordinator coordinator = new LocalClusterCoordinator(objectMapper, directory.toString()) {
+            @Override
+            public boolean saveJob(GenerationJob job, Lease lease) {
+                return (lease == null || !job.getId().equals(lostJob.get())) && super.saveJob(job, lease);
+            }
+        };
+        jobStore = new GenerationJobStore(objectMapper, coordinator, Duration.ofHours(1), Duration.ofMinutes(10));
+        admission = new GenerationAdmission(jobStore, imageGenerationService, new SimpleAsyncTaskExecutor(),
+                1, 2, 2, Duration.ofHours(1), Duration.ofSeconds(60), "");
+        String running = admission.admitNew("alice", () -> jobStore.create("running")).getId();
+        await().atMost(Duration.ofSeconds(5)).until(() -> started.contains(running));
+
+        assertThatCode(() -> admission.admitNew("bob", () -> {
+            GenerationJob job = jobStore.create("lost");
+            lostJob.set(job.getId());
+            return job;
+        })).doesNotThrowAnyException();
+        String orphan = jobStore.create("orphaned").getId();
+        // Moves the lost job back a place, so both positions are reported.
+        assertThatCode(() -> admission.resume(orphan)).doesNotThrowAnyException();
+
+        List<JobEvent> events = new CopyOnWriteArrayList<>();
+        jobStore.subscribe(orphan, 0, events::add);
+        assertThat(events).extracting(JobEvent::getName).contains(GenerationJobStore.EVENT_QUEUE);
+        release.countDown();
+    }
+}
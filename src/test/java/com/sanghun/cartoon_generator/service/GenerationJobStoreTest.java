@@ -0,0 +1,219 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sanghun.cartoon_generator.dto.GenerationJob;
+import com.sanghun.cartoon_generator.dto.JobEvent;
+import com.sanghun.cartoon_generator.dto.JobStatus;
+import com.sanghun.cartoon_generator.dto.PanelResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GenerationJobStoreTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    @TempDir
+    Path directory;
+
+    private GenerationJobStore newStore() throws Exception {
+        return new GenerationJobStore(objectMapper, new LocalClusterCoordinator(objectMapper, directory.toString()),
+                Duration.ofHours(1), Duration.ofMinutes(10));
+    }
+
+    @Test
+    void replaysMissedEventsThenDeliversLiveOnes() throws Exception {
+        GenerationJobStore store = newStore();
+        String jobId = store.create("a cat learns to fly").getId();
+        store.append(jobId, GenerationJobStore.EVENT_PROGRESS, "first");
+        store.append(jobId, GenerationJobStore.EVENT_PROGRESS, "second");
+
+        List<JobEvent> received = new ArrayList<>();
+        store.subscribe(jobId, 2, received::add);
+        assertThat(received).extracting(JobEvent::getData).containsExactly("second");
+        store.append(jobId, GenerationJobStore.EVENT_COMPLETE, "done");
+
+        assertThat(received).extracting(event -> event.sseId(jobId)).containsExactly(jobId + ":3", jobId + ":4");
+        assertThat(store.find(jobId)).get().extracting(GenerationJob::getStatus).isEqualTo(JobStatus.COMPLETED);
+    }
+
+    @Test
+    void liveEventsWaitBehindTheReplay() throws Exception {
+        GenerationJobStore store = newStore();
+        String jobId = store.create("a cat learns to fly").getId();
+        store.append(jobId, GenerationJobStore.EVENT_PROGRESS, "first");
+        CountDownLatch replaying = new CountDownLatch(1);
+        CountDownLatch appended = new CountDownLatch(1);
+        List<Long> received = new CopyOnWriteArrayList<>();
+
+        Thread client = new Thread(() -> store.subscribe(jobId, 0, event -> {
+            received.add(event.getSeq());
+            if (event.getSeq() == 1) {
+                // Still sending the replay while the job moves on.
+                replaying.countDown();
+                awaitQuietly(appended);
+            }
+        }));
+        client.start();
+        replaying.await(5, TimeUnit.SECONDS);
+        store.append(jobId, GenerationJobStore.EVENT_COMPLETE, "done");
+        appended.countDown();
+        client.join(5000);
+
+        assertThat(received).containsExactly(1L, 2L, 3L);
+    }
+
+    @Test
+    void anotherStoreResumesFromPersistedPanels() throws Exception {
+        GenerationJobStore first = newStore();
+        String jobId = first.create("a cat learns to fly").getId();
+        try (GenerationJobStore.JobClaim claim = first.tryClaim(jobId).orElseThrow()) {
+            first.recordPrompt(jobId, 0, "panel one");
+            first.append(jobId, GenerationJobStore.EVENT_PANEL, new PanelResult(0, "panel one", "/panels/abc", null));
+            // A job is only run by the node holding its claim.
+            assertThat(first.tryClaim(jobId)).isEmpty();
+        }
+
+        GenerationJobStore second = newStore();
+        assertThat(second.findUnfinished()).containsExactly(jobId);
+        try (GenerationJobStore.JobClaim claim = second.tryClaim(jobId).orElseThrow()) {
+            assertThat(claim.job().getPrompts()).containsExactly("panel one");
+            assertThat(claim.job().getPanelImageUrls()).containsEntry(0, "/panels/abc");
+        }
+    }
+
+    @Test
+    void aLostClaimSavesAndSendsNothingMore() throws Exception {
+        AtomicBoolean leaseHeld = new AtomicBoolean(true);
+        LocalClusterCoordinator coordinator = new LocalClusterCoordinator(objectMapper, directory.toString()) {
+            @Override
+            public boolean saveJob(GenerationJob job, Lease lease) {
+                return (lease == null || leaseHeld.get()) && super.saveJob(job, lease);
+            }
+        };
+        GenerationJobStore store = new GenerationJobStore(objectMapper, coordinator, Duration.ofHours(1),
+                Duration.ofMinutes(10));
+        String jobId = store.create("a cat learns to fly").getId();
+        List<JobEvent> live = new CopyOnWriteArrayList<>();
+        store.subscribe(jobId, 1, live::add);
+
+        try (GenerationJobStore.JobClaim claim = store.tryClaim(jobId).orElseThrow()) {
+            store.append(jobId, GenerationJobStore.EVENT_PROGRESS, "first");
+            leaseHeld.set(false);
+            assertThatThrownBy(() -> store.append(jobId, GenerationJobStore.EVENT_COMPLETE, "done"))
+                    .isInstanceOf(JobLostException.class);
+            assertThatThrownBy(() -> store.recordPrompt(jobId, 0, "panel one")).isInstanceOf(JobLostException.class);
+            // Reporting the failure is refused the same way.
+            assertThatThrownBy(() -> store.append(jobId, GenerationJobStore.EVENT_ERROR, "failed"))
+                    .isInstanceOf(JobLostException.class);
+        }
+
+        assertThat(live).extracting(JobEvent::getData).containsExactly("first");
+        // Seen as of what was saved, as any other node sees it.
+        assertThat(store.find(jobId)).get().satisfies(job -> {
+            assertThat(job.getStatus()).isEqualTo(JobStatus.RUNNING);
+            assertThat(job.getLastSeq()).isEqualTo(2);
+        });
+    }
+
+    @Test
+    void shutdownSendsLiveSubscribersAwayAtTheirLastEvent() throws Exception {
+        GenerationJobStore store = newStore();
+        String jobId = store.create("a cat learns to fly").getId();
+        store.append(jobId, GenerationJobStore.EVENT_PROGRESS, "first");
+        List<JobEvent> live = new ArrayList<>();
+        store.subscribe(jobId, 2, live::add);
+        assertThat(live).isEmpty();
+
+        assertThat(store.disconnectSubscribers(Duration.ofSeconds(3))).isEqualTo(1);
+        store.append(jobId, GenerationJobStore.EVENT_PROGRESS, "second");
+
+        assertThat(live).singleElement().satisfies(event -> {
+            assertThat(event.getName()).isEqualTo(GenerationJobStore.EVENT_RECONNECT);
+            assertThat(event.getData()).isEqualTo("3000");
+            assertThat(event.sseId(jobId)).isEqualTo(jobId + ":2");
+        });
+        // Late subscribers get their replay, then are sent away too.
+        List<JobEvent> late = new ArrayList<>();
+        store.subscribe(jobId, 1, late::add);
+        assertThat(late).extracting(JobEvent::getName).containsExactly(GenerationJobStore.EVENT_PROGRESS,
+                GenerationJobStore.EVENT_PROGRESS, GenerationJobStore.EVENT_RECONNECT);
+    }
+
+    @Test
+    void reconnectWaitsBehindEventsStillBeingSent() throws Exception {
+        GenerationJobStore store = newStore();
+        String jobId = store.create("a cat learns to fly").getId();
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch disconnected = new CountDownLatch(1);
+        List<String> received = new CopyOnWriteArrayList<>();
+        store.subscribe(jobId, 1, event -> {
+            received.add(event.getName());
+            if (event.getName().equals(GenerationJobStore.EVENT_PANEL)) {
+                sending.countDown();
+                awaitQuietly(disconnected);
+            }
+        });
+
+        Thread generation = new Thread(() -> store.append(jobId, GenerationJobStore.EVENT_PANEL, "{}"));
+        generation.start();
+        sending.await(5, TimeUnit.SECONDS);
+        store.disconnectSubscribers(Duration.ofSeconds(3));
+        disconnected.countDown();
+        generation.join(5000);
+
+        assertThat(received).containsExactly(GenerationJobStore.EVENT_PANEL, GenerationJobStore.EVENT_RECONNECT);
+    }
+
+    @Test
+    void idsThatAreNotJobIdsNeverReachTheStoreDirectory() throws Exception {
+        Files.writeString(directory.resolve("outside.json"), "{}");
+        LocalClusterCoordinator coordinator = new LocalClusterCoordinator(objectMapper,
+                directory.resolve("jobs").toString());
+        GenerationJobStore store = new GenerationJobStore(objectMapper, coordinator, Duration.ofHours(1),
+                Duration.ofMinutes(10));
+
+        assertThat(store.find("../outside")).isEmpty();
+        assertThat(store.find(null)).isEmpty();
+        assertThatThrownBy(() -> coordinator.tryLease("../outside")).isInstanceOf(IllegalArgumentException.class);
+        assertThat(directory.resolve("outside.lock")).doesNotExist();
+    }
+
+    @Test
+    void repeatedStoryIdeasJoinTheRunningJob() throws Exception {
+        GenerationJobStore store = newStore();
+        GenerationJob first = store.createOrJoin("A cat learns to fly", "standard", null);
+        GenerationJob second = store.createOrJoin("  a cat learns  to fly ", "standard", null);
+        assertThat(second.getId()).isEqualTo(first.getId());
+        // The same idea in another profile is a different story.
+        GenerationJob quick = store.createOrJoin("a cat learns to fly", "quick", null);
+        assertThat(quick.getId()).isNotEqualTo(first.getId());
+        assertThat(quick.getProfile()).isEqualTo("quick");
+
+        // A failed job is not joined; the next request starts over.
+        store.append(first.getId(), GenerationJobStore.EVENT_ERROR, "boom");
+        GenerationJob third = store.createOrJoin("a cat learns to fly", "standard", null);
+        assertThat(third.getId()).isNotEqualTo(first.getId());
+        assertThat(store.createOrJoin("a cat learns to fly", "standard", null).getId()).isEqualTo(third.getId());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
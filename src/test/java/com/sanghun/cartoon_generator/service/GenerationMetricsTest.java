@@ -0,0 +1,38 @@
+package com.sanghun.cartoon_generator.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GenerationMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final GenerationMetrics metrics = new GenerationMetrics(registry, ObservationRegistry.NOOP);
+
+    @Test
+    void timesEachAttemptAndCountsRetriesByCause() {
+        AtomicInteger calls = new AtomicInteger();
+        Mono<String> call = Mono.defer(() -> calls.incrementAndGet() == 1
+                ? Mono.error(WebClientResponseException.create(HttpStatus.TOO_MANY_REQUESTS.value(), "Too Many Requests", null, null, null))
+                : Mono.just("ok"));
+
+        String result = metrics.timeAttempt(VertexRequestScheduler.Api.IMAGEN, call)
+                .retryWhen(Retry.fixedDelay(1, Duration.ofMillis(1))
+                        .doBeforeRetry(signal -> metrics.recordRetry(VertexRequestScheduler.Api.IMAGEN, signal.failure())))
+                .block(Duration.ofSeconds(5));
+
+        assertThat(result).isEqualTo("ok");
+        assertThat(registry.get("cartoon.vertex.attempt").tags("api", "imagen", "outcome", "429").timer().count()).isEqualTo(1);
+        assertThat(registry.get("cartoon.vertex.attempt").tags("api", "imagen", "outcome", "success").timer().count()).isEqualTo(1);
+        assertThat(registry.get("cartoon.vertex.retries").tags("api", "imagen", "cause", "429").counter().count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,104 @@
+package com.sanghun.cartoon_generator.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HnswIndexTest {
+
+    private static final int DIMENSIONS = 32;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void findsTheExactNearestNeighbourAlmostAlways() {
+        Random random = new Random(7);
+        float[][] vectors = new float[2000][];
+        HnswIndex index = new HnswIndex(DIMENSIONS, 16, 100);
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = randomUnitVector(random);
+            index.add("v" + i, vectors[i]);
+        }
+
+        int found = 0;
+        int queries = 200;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomUnitVector(random);
+            List<HnswIndex.Match> matches = index.search(query, 1, 64);
+            if (matches.get(0).key().equals("v" + bruteForceNearest(vectors, query))) {
+                found++;
+            }
+        }
+        assertThat(found).isGreaterThanOrEqualTo(queries * 95 / 100);
+    }
+
+    @Test
+    void savedIndexLoadsBackWithTheSameResults() throws Exception {
+        Random random = new Random(11);
+        HnswIndex index = new HnswIndex(DIMENSIONS, 8, 50);
+        for (int i = 0; i < 300; i++) {
+            index.add("v" + i, randomUnitVector(random));
+        }
+        Path file = directory.resolve("index.hnsw");
+        index.save(file, "test-embedding");
+
+        HnswIndex loaded = HnswIndex.load(file, "test-embedding", DIMENSIONS, 8, 50);
+        assertThat(loaded).isNotNull();
+        assertThat(loaded.size()).isEqualTo(300);
+        float[] query = randomUnitVector(random);
+        assertThat(loaded.search(query, 5, 32)).isEqualTo(index.search(query, 5, 32));
+
+        assertThat(HnswIndex.load(file, "another-embedding", DIMENSIONS, 8, 50)).isNull();
+    }
+
+    @Test
+    void retainNewestDropsTheOldestEntries() {
+        Random random = new Random(3);
+        HnswIndex index = new HnswIndex(DIMENSIONS, 8, 50);
+        for (int i = 0; i < 100; i++) {
+            index.add("v" + i, randomUnitVector(random));
+        }
+        index.retainNewest(10);
+
+        assertThat(index.size()).isEqualTo(10);
+        assertThat(index.contains("v89")).isFalse();
+        assertThat(index.contains("v90")).isTrue();
+        assertThat(index.search(randomUnitVector(random), 20, 32)).hasSize(10);
+    }
+
+    private static int bruteForceNearest(float[][] vectors, float[] query) {
+        int best = -1;
+        float bestSimilarity = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < vectors.length; i++) {
+            float similarity = 0;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                similarity += vectors[i][d] * query[d];
+            }
+            if (similarity > bestSimilarity) {
+                bestSimilarity = similarity;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static float[] randomUnitVector(Random random) {
+        float[] vector = new float[DIMENSIONS];
+        double sum = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            vector[d] = (float) random.nextGaussian();
+            sum += vector[d] * vector[d];
+        }
+        float scale = (float) (1 / Math.sqrt(sum));
+        for (int d = 0; d < DIMENSIONS; d++) {
+            vector[d] *= scale;
+        }
+        return vector;
+    }
+}
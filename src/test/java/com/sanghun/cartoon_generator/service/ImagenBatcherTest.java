@@ -0,0 +1,99 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.sanghun.cartoon_generator.dto.ImagenRequest;
+import com.sanghun.cartoon_generator.dto.ImagenResponse;
+import com.sanghun.cartoon_generator.dto.Parameters;
+import com.sanghun.cartoon_generator.dto.Prediction;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImagenBatcherTest {
+
+    private final List<ImagenRequest> calls = new CopyOnWriteArrayList<>();
+
+    @Test
+    void packsConcurrentPromptsIntoOneCallAndRoutesEachImageBack() {
+        ImagenBatcher batcher = new ImagenBatcher(3, Duration.ofSeconds(5), new Parameters(1, true), request -> {
+            calls.add(request);
+            return Mono.just(new ImagenResponse(request.getInstances().stream()
+                    .map(instance -> new Prediction(image("img:" + instance.getPrompt()), "image/png"))
+                    .toList()));
+        });
+
+        List<String> images = Flux.just("a", "b", "c")
+                .flatMapSequential(batcher::submit)
+                .map(ImagenBatcherTest::text)
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(images).containsExactly("img:a", "img:b", "img:c");
+        assertThat(calls).hasSize(1);
+    }
+
+    @Test
+    void picksFirstUnfilteredVariantPerPanel() {
+        ImagenBatcher batcher = new ImagenBatcher(2, Duration.ofSeconds(5), new Parameters(2, true), request ->
+                Mono.just(new ImagenResponse(List.of(
+                        new Prediction(null, null, "filtered"), new Prediction(image("a2"), "image/png"),
+                        new Prediction(image("b1"), "image/png"), new Prediction(image("b2"), "image/png")))));
+
+        List<String> images = Flux.just("a", "b")
+                .flatMapSequential(batcher::submit)
+                .map(ImagenBatcherTest::text)
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(images).containsExactly("a2", "b1");
+    }
+
+    @Test
+    void flushesPartialBatchAfterWindowAndFallsBackWhenCountsDoNotLineUp() {
+        ImagenBatcher batcher = new ImagenBatcher(10, Duration.ofMillis(20), new Parameters(1, true), request -> {
+            calls.add(request);
+            String prompt = request.getInstances().get(0).getPrompt();
+            return Mono.just(new ImagenResponse(List.of(new Prediction(image("img:" + prompt), "image/png"))));
+        });
+
+        List<String> images = Flux.just("a", "b")
+                .flatMapSequential(batcher::submit)
+                .map(ImagenBatcherTest::text)
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(images).containsExactly("img:a", "img:b");
+        assertThat(calls).hasSize(3);
+    }
+
+    @Test
+    void cancelsTheCallOnceNoPromptInTheBatchIsWaitedFor() {
+        AtomicBoolean callCancelled = new AtomicBoolean();
+        ImagenBatcher batcher = new ImagenBatcher(2, Duration.ofSeconds(5), new Parameters(1, true), request ->
+                Mono.<ImagenResponse>never().doOnCancel(() -> callCancelled.set(true)));
+
+        Disposable first = batcher.submit("a").subscribe();
+        Disposable second = batcher.submit("b").subscribe();
+        first.dispose();
+        assertThat(callCancelled).isFalse();
+
+        second.dispose();
+        assertThat(callCancelled).isTrue();
+    }
+
+    private static byte[] image(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(byte[] image) {
+        return new String(image, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,65 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.sanghun.cartoon_generator.dto.ImagenResponse;
+import com.sanghun.cartoon_generator.dto.Prediction;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ImagenResponseReaderTest {
+
+    @Test
+    void decodesImagesAndSkipsUnknownFields() throws Exception {
+        // Larger than the initial pooled buffer, so it has to grow.
+        byte[] image = new byte[3 * 1024 * 1024 + 17];
+        new Random(1).nextBytes(image);
+        String json = """
+                {"metadata": {"nested": [1, 2, {"x": "y"}]},
+                 "predictions": [
+                   {"mimeType": "image/png", "bytesBase64Encoded": "%s", "extra": {"a": [true]}},
+                   {"raiFilteredReason": "Filtered by safety settings"},
+                   "unexpected"
+                 ],
+                 "deployedModelId": "imagen"}
+                """.formatted(Base64.getEncoder().encodeToString(image));
+
+        ImagenResponse response = read(json);
+
+        assertThat(response.getPredictions()).hasSize(2);
+        Prediction first = response.getPredictions().get(0);
+        assertThat(first.getImage()).isEqualTo(image);
+        assertThat(first.getMimeType()).isEqualTo("image/png");
+        Prediction second = response.getPredictions().get(1);
+        assertThat(second.getImage()).isNull();
+        assertThat(second.getRaiFilteredReason()).isEqualTo("Filtered by safety settings");
+    }
+
+    @Test
+    void reusesBuffersWithoutLeakingEarlierImages() throws Exception {
+        byte[] large = new byte[1000];
+        new Random(2).nextBytes(large);
+        read("{\"predictions\": [{\"bytesBase64Encoded\": \"" + Base64.getEncoder().encodeToString(large) + "\"}]}");
+
+        ImagenResponse small = read("{\"predictions\": [{\"bytesBase64Encoded\": \"AQID\"}]}");
+
+        assertThat(small.getPredictions().get(0).getImage()).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    void rejectsMalformedResponses() {
+        assertThatThrownBy(() -> read("[]")).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> read("{\"predictions\": [{\"bytesBase64Encoded\": \"not base64!\"}]}"))
+                .isInstanceOf(IOException.class);
+    }
+
+    private static ImagenResponse read(String json) throws IOException {
+        return ImagenResponseReader.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,92 @@
+package com.sanghun.cartoon_generator.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+class PanelHedgerTest {
+
+    private final Scheduler scheduler = Schedulers.newBoundedElastic(4, 100, "hedger-test");
+    private final PanelHedger hedger = new PanelHedger(true, 0.95, Duration.ofMillis(10), Duration.ofMillis(100),
+            scheduler);
+
+    @AfterEach
+    void tearDown() {
+        scheduler.dispose();
+    }
+
+    @Test
+    void hedgeAnswersForAStuckRequestAndTheOriginalIsCancelled() {
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicBoolean primaryCancelled = new AtomicBoolean();
+        AtomicBoolean hedged = new AtomicBoolean();
+
+        String image = hedger.hedge(() -> attempts.getAndIncrement() == 0
+                        ? Mono.<String>never().doOnCancel(() -> primaryCancelled.set(true))
+                        : Mono.just("hedge"),
+                () -> hedged.set(true))
+                .block(Duration.ofSeconds(5));
+
+        assertThat(image).isEqualTo("hedge");
+        assertThat(hedged).isTrue();
+        // The losing call is cancelled right after the winner is delivered, possibly on another thread.
+        await().atMost(Duration.ofSeconds(5)).untilTrue(primaryCancelled);
+    }
+
+    @Test
+    void fastRequestsAreNotHedged() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        String image = hedger.hedge(() -> Mono.fromCallable(() -> "image #" + attempts.incrementAndGet()), () -> {
+        }).block(Duration.ofSeconds(5));
+
+        assertThat(image).isEqualTo("image #1");
+        assertThat(attempts).hasValue(1);
+    }
+
+    @Test
+    void failureBeforeTheHedgeDelayIsNotHedged() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThatThrownBy(() -> hedger.hedge(() -> {
+            attempts.incrementAndGet();
+            return Mono.<String>error(new ImageFilteredException("unsafe"));
+        }, () -> {
+        }).block(Duration.ofSeconds(5))).hasCauseInstanceOf(ImageFilteredException.class);
+
+        assertThat(attempts).hasValue(1);
+    }
+
+    @Test
+    void delayFollowsObservedLatency() {
+        assertThat(hedger.hedgeDelay()).isEqualTo(Duration.ofMillis(100));
+        for (int i = 0; i < 40; i++) {
+            hedger.hedge(() -> Mono.delay(Duration.ofMillis(30)).thenReturn("image"), () -> {
+            }).block(Duration.ofSeconds(5));
+        }
+        assertThat(hedger.hedgeDelay()).isBetween(Duration.ofMillis(30), Duration.ofMillis(100));
+    }
+
+    @Test
+    void bothAttemptsFailingReportsAnError() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThatThrownBy(() -> hedger.hedge(() -> attempts.getAndIncrement() == 0
+                ? Mono.delay(Duration.ofMillis(300)).then(Mono.<String>error(new IOException("first")))
+                : Mono.<String>error(new IOException("second")), () -> {
+        }).block(Duration.ofSeconds(5))).hasCauseInstanceOf(IOException.class);
+
+        assertThat(attempts).hasValue(2);
+    }
+}
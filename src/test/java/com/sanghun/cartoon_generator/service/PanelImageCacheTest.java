@@ -0,0 +1,85 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.sanghun.cartoon_generator.dto.Parameters;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PanelImageCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void keyIgnoresWhitespaceDifferencesButNotParameters() {
+        String key = PanelImageCache.key("imagen", "a cat  flying\n", new Parameters(1));
+
+        assertThat(PanelImageCache.key("imagen", " a cat flying", new Parameters(1))).isEqualTo(key);
+        assertThat(PanelImageCache.key("imagen", "a cat flying", new Parameters(2))).isNotEqualTo(key);
+        assertThat(PanelImageCache.key("other-model", "a cat flying", new Parameters(1))).isNotEqualTo(key);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntriesOnceByteBudgetIsExceeded() throws Exception {
+        PanelImageCache cache = new PanelImageCache(10, "", 0);
+        cache.put("a", new byte[4]);
+        cache.put("b", new byte[4]);
+        cache.get("a");
+        cache.put("c", new byte[4]);
+
+        assertThat(cache.get("a")).isPresent();
+        assertThat(cache.get("b")).isEmpty();
+        assertThat(cache.get("c")).isPresent();
+        assertThat(cache.getMemoryBytes()).isEqualTo(8);
+    }
+
+    @Test
+    void diskTierSurvivesANewCacheInstance() throws Exception {
+        String key = PanelImageCache.key("imagen", "a cat", new Parameters(1));
+        new PanelImageCache(1024, tempDir.toString(), 1024).put(key, new byte[] {1, 2, 3});
+
+        PanelImageCache restarted = new PanelImageCache(1024, tempDir.toString(), 1024);
+
+        assertThat(restarted.get(key)).hasValueSatisfying(image -> assertThat(image).containsExactly(1, 2, 3));
+    }
+
+    @Test
+    void diskTierDeletesLeastRecentlyUsedFilesOnceByteBudgetIsExceeded() throws Exception {
+        PanelImageCache cache = new PanelImageCache(0, tempDir.toString(), 10);
+        cache.put("aa", new byte[4]);
+        cache.put("bb", new byte[4]);
+        cache.get("aa");
+        cache.put("cc", new byte[4]);
+
+        assertThat(cache.contains("aa")).isTrue();
+        assertThat(cache.contains("bb")).isFalse();
+        assertThat(tempDir.resolve("bb").resolve("bb.bin")).doesNotExist();
+        assertThat(cache.get("cc")).isPresent();
+        assertThat(cache.getDiskBytes()).isEqualTo(8);
+    }
+
+    @Test
+    void restartKeepsTheDiskBudgetEvictingTheOldestFilesFirst() throws Exception {
+        PanelImageCache cache = new PanelImageCache(0, tempDir.toString(), 100);
+        cache.put("aa", new byte[4]);
+        cache.put("bb", new byte[4]);
+        cache.put("cc", new byte[4]);
+        Files.setLastModifiedTime(tempDir.resolve("aa").resolve("aa.bin"), FileTime.fromMillis(3_000));
+        Files.setLastModifiedTime(tempDir.resolve("bb").resolve("bb.bin"), FileTime.fromMillis(1_000));
+        Files.setLastModifiedTime(tempDir.resolve("cc").resolve("cc.bin"), FileTime.fromMillis(2_000));
+        Files.writeString(tempDir.resolve("cc").resolve("cc123.tmp"), "partial");
+
+        PanelImageCache restarted = new PanelImageCache(0, tempDir.toString(), 10);
+
+        assertThat(restarted.getDiskEntries()).isEqualTo(2);
+        assertThat(restarted.contains("bb")).isFalse();
+        assertThat(restarted.contains("aa")).isTrue();
+        assertThat(restarted.contains("cc")).isTrue();
+        assertThat(tempDir.resolve("cc").resolve("cc123.tmp")).doesNotExist();
+    }
+}
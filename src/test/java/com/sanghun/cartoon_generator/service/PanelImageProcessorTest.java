@@ -0,0 +1,62 @@
+package com.sanghun.cartoon_generator.service;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PanelImageProcessorTest {
+
+    private final PanelImageProcessor processor = new PanelImageProcessor(64, 128, 2, 0.8f);
+
+    @Test
+    void downscalesPanelIntoJpegThumbnailAndTile() throws IOException {
+        PanelImageProcessor.ProcessedPanel processed = processor.process(png(512, 256, Color.RED));
+
+        BufferedImage thumbnail = read(processed.thumbnail());
+        BufferedImage tile = read(processed.tile());
+        assertThat(PanelStore.sniffMediaType(processed.thumbnail()).getSubtype()).isEqualTo("jpeg");
+        assertThat(thumbnail.getWidth()).isEqualTo(64);
+        assertThat(thumbnail.getHeight()).isEqualTo(32);
+        assertThat(tile.getWidth()).isEqualTo(128);
+    }
+
+    @Test
+    void compositesTilesIntoGridInOrder() throws IOException {
+        List<byte[]> tiles = List.of(
+                processor.process(png(256, 256, Color.RED)).tile(),
+                processor.process(png(256, 256, Color.GREEN)).tile(),
+                processor.process(png(256, 256, Color.BLUE)).tile());
+
+        BufferedImage strip = read(processor.compositeStrip(tiles));
+
+        assertThat(strip.getWidth()).isEqualTo(256);
+        assertThat(strip.getHeight()).isEqualTo(256);
+        assertThat(new Color(strip.getRGB(64, 64)).getRed()).isGreaterThan(200);
+        assertThat(new Color(strip.getRGB(192, 64)).getGreen()).isGreaterThan(200);
+        assertThat(new Color(strip.getRGB(64, 192)).getBlue()).isGreaterThan(200);
+    }
+
+    private static byte[] png(int width, int height, Color color) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(color);
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private static BufferedImage read(byte[] image) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(image));
+    }
+}
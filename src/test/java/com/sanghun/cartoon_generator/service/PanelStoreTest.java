@@ -0,0 +1,69 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PanelStoreTest {
+
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', 1, 2, 3};
+    private static final byte[] JPEG = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, 4, 5, 6};
+
+    @TempDir
+    Path directory;
+
+    private PanelStore newStore(Duration ttl) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        return new PanelStore(new LocalClusterCoordinator(objectMapper, directory.resolve("jobs").toString()),
+                directory.resolve("panels").toString(), ttl);
+    }
+
+    @Test
+    void storesIdenticalImagesOnceUnderTheirHash() throws Exception {
+        PanelStore store = newStore(Duration.ofHours(1));
+
+        PanelStore.StoredPanel first = store.put(PNG);
+        PanelStore.StoredPanel second = store.put(PNG.clone());
+
+        assertThat(second.id()).isEqualTo(first.id()).hasSize(64);
+        assertThat(store.getByUrl(first.url())).get().extracting(PanelStore.StoredPanel::file).isEqualTo(first.file());
+        assertThat(Files.readAllBytes(first.file())).isEqualTo(PNG);
+        assertThat(store.put(JPEG).mediaType()).isEqualTo(MediaType.IMAGE_JPEG);
+    }
+
+    @Test
+    void evictsExpiredPanelsAndTheirFiles() throws Exception {
+        PanelStore store = newStore(Duration.ofMillis(50));
+        PanelStore.StoredPanel panel = store.put(PNG);
+        Thread.sleep(100);
+
+        store.evictExpired();
+
+        assertThat(panel.file()).doesNotExist();
+        assertThat(store.get(panel.id())).isEmpty();
+    }
+
+    @Test
+    void reindexesPanelsLeftByThePreviousRun() throws Exception {
+        PanelStore.StoredPanel png = newStore(Duration.ofHours(1)).put(PNG);
+        PanelStore.StoredPanel jpeg = newStore(Duration.ofHours(1)).put(JPEG);
+        Path leftover = Files.writeString(directory.resolve("panels").resolve("half-written.tmp"), "partial");
+
+        PanelStore restarted = newStore(Duration.ofHours(1));
+
+        assertThat(restarted.get(png.id())).get().satisfies(panel -> {
+            assertThat(panel.mediaType()).isEqualTo(MediaType.IMAGE_PNG);
+            assertThat(panel.size()).isEqualTo(PNG.length);
+        });
+        assertThat(restarted.get(jpeg.id())).get().extracting(PanelStore.StoredPanel::mediaType)
+                .isEqualTo(MediaType.IMAGE_JPEG);
+        assertThat(leftover).doesNotExist();
+    }
+}
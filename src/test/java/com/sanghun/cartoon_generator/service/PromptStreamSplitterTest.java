@@ -0,0 +1,38 @@
+package com.sanghun.cartoon_generator.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PromptStreamSplitterTest {
+
+    @Test
+    void emitsEachPromptAsSoonAsItsDelimiterArrives() {
+        PromptStreamSplitter splitter = new PromptStreamSplitter();
+
+        assertThat(splitter.append("Style: a. Subject: one")).isEmpty();
+        assertThat(splitter.append(" cat.\n--")).isEmpty();
+        assertThat(splitter.append("-\nStyle: a. Subject: two")).containsExactly("Style: a. Subject: one cat.");
+        assertThat(splitter.append(" cats.\n---\n")).containsExactly("Style: a. Subject: two cats.");
+        assertThat(splitter.append("Style: a. Subject: three.")).isEmpty();
+        assertThat(splitter.finish()).containsExactly("Style: a. Subject: three.");
+    }
+
+    @Test
+    void matchesNonStreamingSplitForAnyChunking() {
+        String text = "\nfirst prompt\n---\n\n---second---  third \n";
+        for (int chunkSize = 1; chunkSize <= text.length(); chunkSize++) {
+            PromptStreamSplitter splitter = new PromptStreamSplitter();
+            List<String> prompts = new ArrayList<>();
+            for (int i = 0; i < text.length(); i += chunkSize) {
+                prompts.addAll(splitter.append(text.substring(i, Math.min(text.length(), i + chunkSize))));
+            }
+            prompts.addAll(splitter.finish());
+
+            assertThat(prompts).containsExactly("first prompt", "second", "third");
+        }
+    }
+}
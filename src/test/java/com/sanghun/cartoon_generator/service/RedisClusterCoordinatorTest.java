@@ -0,0 +1,117 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sanghun.cartoon_generator.dto.GenerationJob;
+import com.sanghun.cartoon_generator.dto.JobEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@Testcontainers(disabledWithoutDocker = true)
+class RedisClusterCoordinatorTest {
+
+    @Container
+    static final GenericContainer<?> REDIS = new GenericContainer<>("redis:7-alpine").withExposedPorts(6379);
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (AutoCloseable resource : resources.reversed()) {
+            resource.close();
+        }
+    }
+
+    @Test
+    void twoNodesShareJobsLeasesAndPanels() throws Exception {
+        RedisClusterCoordinator first = node();
+        RedisClusterCoordinator second = node();
+
+        GenerationJob job = new GenerationJob("job-1", "a cat learns to fly");
+        assertThat(first.saveJob(job, null)).isTrue();
+        assertThat(second.loadJob("job-1")).get().extracting(GenerationJob::getStoryIdea).isEqualTo("a cat learns to fly");
+        assertThat(second.listJobIds()).contains("job-1");
+
+        ClusterCoordinator.Lease lease = first.tryLease("job-1").orElseThrow();
+        assertThat(second.tryLease("job-1")).isEmpty();
+        lease.close();
+        second.tryLease("job-1").orElseThrow().close();
+
+        first.sharePanel("abc", new byte[] {1, 2, 3}, Duration.ofMinutes(1));
+        assertThat(second.fetchPanel("abc")).get().isEqualTo(new byte[] {1, 2, 3});
+    }
+
+    @Test
+    void aNodeThatLostItsLeaseStopsSavingTheJob() throws Exception {
+        RedisClusterCoordinator first = node();
+        RedisClusterCoordinator second = node();
+        GenerationJob job = new GenerationJob("job-2", "a cat learns to fly");
+        ClusterCoordinator.Lease lease = first.tryLease("job-2").orElseThrow();
+        assertThat(first.saveJob(job, lease)).isTrue();
+
+        // The lease expires while the first node is stalled, and the second node takes the job over.
+        second.deleteJob("job-2");
+        ClusterCoordinator.Lease taken = second.tryLease("job-2").orElseThrow();
+        assertThat(second.saveJob(new GenerationJob("job-2", "taken over"), taken)).isTrue();
+
+        assertThat(first.saveJob(job, lease)).isFalse();
+        lease.lost().block(Duration.ofSeconds(5));
+        assertThat(second.loadJob("job-2")).get().extracting(GenerationJob::getStoryIdea).isEqualTo("taken over");
+        lease.close();
+        taken.close();
+    }
+
+    @Test
+    void requestsAreDeduplicatedAcrossNodes() throws Exception {
+        RedisClusterCoordinator first = node();
+        RedisClusterCoordinator second = node();
+
+        assertThat(first.claimRequest("story", "job-1", Duration.ofMinutes(1))).isEqualTo("job-1");
+        assertThat(second.claimRequest("story", "job-2", Duration.ofMinutes(1))).isEqualTo("job-1");
+
+        second.replaceRequest("story", "job-1", "job-2", Duration.ofMinutes(1));
+        // Only replaced while it is still the expected job.
+        first.replaceRequest("story", "job-1", "job-3", Duration.ofMinutes(1));
+        assertThat(first.claimRequest("story", "job-4", Duration.ofMinutes(1))).isEqualTo("job-2");
+    }
+
+    @Test
+    void eventsReachOtherNodes() throws Exception {
+        RedisClusterCoordinator first = node();
+        RedisClusterCoordinator second = node();
+        List<String> received = new CopyOnWriteArrayList<>();
+        second.addEventListener((jobId, event) -> received.add(event.sseId(jobId)));
+
+        // Subscriptions are established asynchronously; keep publishing until one gets through.
+        await().atMost(Duration.ofSeconds(10)).untilAsserted(() -> {
+            first.publishEvent("job-1", new JobEvent(7, GenerationJobStore.EVENT_PANEL, "{}"));
+            assertThat(received).contains("job-1:7");
+        });
+    }
+
+    private RedisClusterCoordinator node() throws Exception {
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(REDIS.getHost(), REDIS.getMappedPort(6379)));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        resources.add(connectionFactory::destroy);
+        RedisClusterCoordinator coordinator = new RedisClusterCoordinator(connectionFactory, objectMapper,
+                Duration.ofSeconds(30), Duration.ofHours(1));
+        coordinator.afterPropertiesSet();
+        resources.add(coordinator::destroy);
+        return coordinator;
+    }
+}
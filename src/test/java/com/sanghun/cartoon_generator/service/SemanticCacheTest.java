@@ -0,0 +1,89 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.sanghun.cartoon_generator.dto.CharacterSheet;
+import com.sanghun.cartoon_generator.dto.PanelScene;
+import com.sanghun.cartoon_generator.dto.StorySheet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SemanticCacheTest {
+
+    private final EmbeddingFunction embedding = new HashingEmbeddingFunction(384);
+
+    @TempDir
+    Path directory;
+
+    private SemanticCache newCache(String dir) throws Exception {
+        return new SemanticCache(embedding, true, 0.8, 0.95, 1000, 64, dir);
+    }
+
+    @Test
+    void nearDuplicateIdeasReuseTheEarlierEntry() throws Exception {
+        SemanticCache cache = newCache("");
+        cache.remember(SemanticCache.Kind.STORY, "a cat learns to fly", "a cat learns to fly");
+        cache.remember(SemanticCache.Kind.STORY, "a robot bakes bread in space", "a robot bakes bread in space");
+
+        assertThat(cache.findSimilar(SemanticCache.Kind.STORY, "A cat learning to fly!", key -> true))
+                .contains("a cat learns to fly");
+        assertThat(cache.findSimilar(SemanticCache.Kind.STORY, "a dragon opens a tea shop", key -> true)).isEmpty();
+        // Entries that are no longer cached are not reused.
+        assertThat(cache.findSimilar(SemanticCache.Kind.STORY, "A cat learning to fly!", key -> false)).isEmpty();
+        // Kinds are indexed separately.
+        assertThat(cache.findSimilar(SemanticCache.Kind.PANEL, "a cat learns to fly", key -> true)).isEmpty();
+    }
+
+    @Test
+    void indexesSurviveARestart() throws Exception {
+        SemanticCache cache = newCache(directory.toString());
+        for (String idea : Set.of("a cat learns to fly", "two penguins start a band", "a lost kite finds home")) {
+            cache.remember(SemanticCache.Kind.STORY, idea, idea);
+        }
+        cache.destroy();
+
+        SemanticCache restarted = newCache(directory.toString());
+        assertThat(restarted.size(SemanticCache.Kind.STORY)).isEqualTo(3);
+        assertThat(restarted.findSimilar(SemanticCache.Kind.STORY, "Two penguins starting a band", key -> true))
+                .contains("two penguins start a band");
+    }
+
+    @Test
+    void panelsOfOneSheetDoNotStandInForEachOther() throws Exception {
+        SemanticCache cache = newCache("");
+        StorySheet sheet = new StorySheet("charming children's book illustration", "pastel greens",
+                "eye-level three-quarter view", "outfit changes",
+                List.of(new CharacterSheet("Bruno the Bear", "a tall bear with chestnut-brown fur and a mint-green scarf")),
+                List.of());
+        String wakesUp = StoryPromptAssembler.assemble(sheet,
+                new PanelScene(List.of("Bruno the Bear"), "Bruno wakes up", "in a cosy den"));
+        String walksOut = StoryPromptAssembler.assemble(sheet,
+                new PanelScene(List.of("Bruno the Bear"), "Bruno walks outside", "in the forest"));
+        cache.rememberPanel("standard", "job-1", wakesUp, "wakes-up");
+
+        assertThat(cache.findSimilarPanel("standard", "job-1", walksOut, key -> true)).isEmpty();
+        // Nor for a sequel drawn from the same sheet.
+        assertThat(cache.findSimilarPanel("standard", "job-2", walksOut, key -> true)).isEmpty();
+    }
+
+    @Test
+    void nearDuplicatePanelsAreOnlyReusedAcrossStoriesWithTheSameLook() throws Exception {
+        SemanticCache cache = newCache("");
+        String prompt = "Style: watercolor. Subject: a cat learns to fly. Characters: Tom, a grey cat. "
+                + "Context: over the rooftops at dawn.";
+        cache.rememberPanel("standard", "job-1", prompt, "cat");
+        String again = prompt.replace("learns", "learning");
+
+        assertThat(cache.findSimilarPanel("standard", "job-2", again, key -> true)).contains("cat");
+        assertThat(cache.findSimilarPanel("standard", "", again, key -> true)).contains("cat");
+        assertThat(cache.findSimilarPanel("standard", "job-1", again, key -> true)).isEmpty();
+        assertThat(cache.findSimilarPanel("draft", "job-2", again, key -> true)).isEmpty();
+        assertThat(cache.findSimilarPanel("standard", "job-2", again.replace("watercolor", "pixel art"), key -> true))
+                .isEmpty();
+        assertThat(cache.findSimilarPanel("standard", "job-2", again, key -> false)).isEmpty();
+    }
+}
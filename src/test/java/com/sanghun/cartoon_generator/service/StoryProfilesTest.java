@@ -0,0 +1,62 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.sanghun.cartoon_generator.config.StoryProfileProperties;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StoryProfilesTest {
+
+    @Test
+    void fillsInGlobalSettingsAndResolvesRequestedProfiles() {
+        StoryProfileProperties properties = new StoryProfileProperties();
+        StoryProfileProperties.Profile quick = new StoryProfileProperties.Profile();
+        quick.setPanels(4);
+        quick.setImagenModelId("imagen-fast");
+        quick.setImageSize("1K");
+        quick.setMaxConcurrency(2);
+        properties.getProfiles().put("quick", quick);
+        properties.getProfiles().put("standard", new StoryProfileProperties.Profile());
+
+        StoryProfiles profiles = new StoryProfiles(properties, "imagen-default", 3);
+
+        assertThat(profiles.require(" Quick ")).isEqualTo(new StoryProfile("quick", 4, "imagen-fast", "1K", 3, 2));
+        assertThat(profiles.require(null)).isEqualTo(new StoryProfile("standard", 10, "imagen-default", "", 3, 0));
+        assertThatThrownBy(() -> profiles.require("epic")).isInstanceOf(IllegalArgumentException.class);
+        // A stored job whose profile was removed still runs.
+        assertThat(profiles.forJob("epic")).isEqualTo(profiles.getDefault());
+    }
+
+    @Test
+    void capsOnlyProfilesWithAMaxConcurrencyOfTheirOwn() {
+        StoryProfileProperties properties = new StoryProfileProperties();
+        StoryProfileProperties.Profile quick = new StoryProfileProperties.Profile();
+        quick.setMaxConcurrency(1);
+        properties.getProfiles().put("quick", quick);
+        properties.getProfiles().put("standard", new StoryProfileProperties.Profile());
+        StoryProfiles profiles = new StoryProfiles(properties, "imagen", 1);
+        AtomicInteger started = new AtomicInteger();
+        Mono<Void> call = Mono.fromRunnable(started::incrementAndGet).then(Mono.never());
+
+        profiles.limit(profiles.require("quick"), call).subscribe();
+        profiles.limit(profiles.require("quick"), call).subscribe();
+        assertThat(started).hasValue(1);
+
+        // Zero: nothing but the node-wide limit applies.
+        for (int i = 0; i < 5; i++) {
+            profiles.limit(profiles.require("standard"), call).subscribe();
+        }
+        assertThat(started).hasValue(6);
+    }
+
+    @Test
+    void withoutProfilesThereIsOneStandardStory() {
+        StoryProfiles profiles = new StoryProfiles(new StoryProfileProperties(), "imagen", 1);
+
+        assertThat(profiles.all()).containsExactly(new StoryProfile("standard", 10, "imagen", "", 1, 0));
+    }
+}
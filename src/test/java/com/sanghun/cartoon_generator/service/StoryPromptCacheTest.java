@@ -0,0 +1,120 @@
+package com.sanghun.cartoon_generator.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+class StoryPromptCacheTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private StoryPromptCache newCache(Duration ttl, int maxEntries) throws Exception {
+        // Without the semantic tier, only the exact (normalized) idea is a hit.
+        SemanticCache semanticCache = new SemanticCache(new HashingEmbeddingFunction(384), false, 0.9, 0.95, 100, 64, "");
+        StoryPromptCache cache = new StoryPromptCache(semanticCache, ttl, maxEntries);
+        cache.bindTo(registry);
+        return cache;
+    }
+
+    @Test
+    void concurrentRequestsForTheSameStoryShareOneLoad() throws Exception {
+        StoryPromptCache cache = newCache(Duration.ofMinutes(10), 100);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        StoryPromptCache.Loader slowLoader = () -> {
+            loading.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return prompts("a cat learns to fly");
+        };
+
+        CompletableFuture<StoryPrompts> first = CompletableFuture.supplyAsync(() -> load(cache, "a cat learns to fly", slowLoader));
+        loading.await(5, TimeUnit.SECONDS);
+        CompletableFuture<StoryPrompts> second = CompletableFuture.supplyAsync(() -> load(cache, "  A cat learns to FLY ", slowLoader));
+        await().atMost(Duration.ofSeconds(5)).until(() -> requests("coalesced") == 1);
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS).prompts()).containsExactly("panel: a cat learns to fly");
+        assertThat(second.get(5, TimeUnit.SECONDS)).isSameAs(first.get());
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void entriesExpireAfterTheTtl() throws Exception {
+        StoryPromptCache cache = newCache(Duration.ofMillis(100), 100);
+        cache.getOrLoad(StoryRequest.of("a cat learns to fly", 4), () -> prompts("a cat learns to fly"));
+        cache.getOrLoad(StoryRequest.of("a cat learns to fly", 4), () -> prompts("a cat learns to fly"));
+        assertThat(loads).hasValue(1);
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> {
+            cache.getOrLoad(StoryRequest.of("a cat learns to fly", 4), () -> prompts("a cat learns to fly"));
+            return loads.get() == 2;
+        });
+    }
+
+    @Test
+    void keepsAtMostMaxEntriesDroppingTheOldest() throws Exception {
+        StoryPromptCache cache = newCache(Duration.ofMinutes(10), 2);
+        for (String idea : List.of("a cat learns to fly", "two penguins start a band", "a lost kite finds home")) {
+            cache.getOrLoad(StoryRequest.of(idea, 4), () -> prompts(idea));
+        }
+        assertThat(registry.get("cartoon.story.cache.entries").gauge().value()).isEqualTo(2);
+
+        cache.getOrLoad(StoryRequest.of("a lost kite finds home", 4), () -> prompts("a lost kite finds home"));
+        assertThat(loads).hasValue(3);
+        cache.getOrLoad(StoryRequest.of("a cat learns to fly", 4), () -> prompts("a cat learns to fly"));
+        assertThat(loads).hasValue(4);
+    }
+
+    @Test
+    void failedAndEmptyLoadsAreNotCached() throws Exception {
+        StoryPromptCache cache = newCache(Duration.ofMinutes(10), 100);
+        StoryRequest request = StoryRequest.of("a cat learns to fly", 4);
+
+        assertThatThrownBy(() -> cache.getOrLoad(request, () -> {
+            loads.incrementAndGet();
+            throw new IOException("Gemini is down");
+        })).isInstanceOf(IOException.class);
+        cache.getOrLoad(request, () -> {
+            loads.incrementAndGet();
+            return new StoryPrompts(List.of(), null);
+        });
+        StoryPrompts loaded = cache.getOrLoad(request, () -> prompts("a cat learns to fly"));
+
+        assertThat(loaded.prompts()).containsExactly("panel: a cat learns to fly");
+        assertThat(loads).hasValue(3);
+        assertThat(requests("miss")).isEqualTo(3);
+    }
+
+    private StoryPrompts prompts(String idea) {
+        loads.incrementAndGet();
+        return new StoryPrompts(List.of("panel: " + idea), null);
+    }
+
+    private static StoryPrompts load(StoryPromptCache cache, String idea, StoryPromptCache.Loader loader) {
+        try {
+            return cache.getOrLoad(StoryRequest.of(idea, 4), loader);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private double requests(String result) {
+        return registry.get("cartoon.story.cache.requests").tag("result", result).functionCounter().count();
+    }
+}
@@ -0,0 +1,134 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.sanghun.cartoon_generator.dto.CharacterSheet;
+import com.sanghun.cartoon_generator.dto.PanelScene;
+import com.sanghun.cartoon_generator.dto.StorySheet;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StorySheetParserTest {
+
+    private static final String SHEET = """
+            {"style": "charming children's book illustration", "palette": "pastel greens",
+             "camera": "eye-level three-quarter view", "negative": "outfit changes",
+             "characters": [
+               {"name": "Bruno the Bear", "appearance": "a tall bear with chestnut-brown fur and a mint-green scarf"},
+               {"name": "Luna the Rabbit", "appearance": "a small white rabbit with a vintage leather camera"}
+             ],
+             "panels": [
+               {"characters": ["Bruno the Bear"], "subject": "Bruno wakes up", "context": "in a cosy den"},
+               {"characters": [], "subject": "Luna the Rabbit takes a photo of Bruno the Bear",
+                "context": "in a sun-dappled forest clearing", "mood": "happy"}
+             ]}
+            """;
+
+    @Test
+    void assemblesFullPromptsFromTheSheet() throws Exception {
+        List<String> prompts = parse(SHEET, SHEET.length(), null);
+
+        assertThat(prompts).containsExactly(
+                "Style: charming children's book illustration. Color palette: pastel greens. "
+                        + "Camera: eye-level three-quarter view. Subject: Bruno wakes up. "
+                        + "Characters: Bruno the Bear, a tall bear with chestnut-brown fur and a mint-green scarf. "
+                        + "Context: in a cosy den. Avoid: outfit changes.",
+                // Characters the scene mentions but does not list are still described.
+                "Style: charming children's book illustration. Color palette: pastel greens. "
+                        + "Camera: eye-level three-quarter view. "
+                        + "Subject: Luna the Rabbit takes a photo of Bruno the Bear. "
+                        + "Characters: Bruno the Bear, a tall bear with chestnut-brown fur and a mint-green scarf; "
+                        + "Luna the Rabbit, a small white rabbit with a vintage leather camera. "
+                        + "Context: in a sun-dappled forest clearing. Avoid: outfit changes.");
+    }
+
+    @Test
+    void emitsEachPanelAsSoonAsItIsCompleteForAnyChunking() throws Exception {
+        List<String> whole = parse(SHEET, SHEET.length(), null);
+        for (int chunkSize = 1; chunkSize <= 40; chunkSize++) {
+            assertThat(parse(SHEET, chunkSize, null)).isEqualTo(whole);
+        }
+
+        StorySheetParser parser = new StorySheetParser(null);
+        int firstPanelEnd = SHEET.indexOf("den\"}") + 5;
+        assertThat(parser.append(SHEET.substring(0, firstPanelEnd))).hasSize(1);
+        assertThat(parser.append(SHEET.substring(firstPanelEnd))).hasSize(1);
+        assertThat(parser.finish()).isEmpty();
+        assertThat(parser.sheet().getPanels()).hasSize(2);
+    }
+
+    @Test
+    void sequelsKeepTheEarlierLookAndCharacters() throws Exception {
+        StorySheet earlier = new StorySheet("watercolor", "soft blues", null, null,
+                List.of(new CharacterSheet("Bruno the Bear", "a tall bear in a mint-green scarf")),
+                List.of(new PanelScene(List.of("Bruno the Bear"), "Bruno sets sail", "at the harbour")));
+        String sequel = """
+                {"characters": [{"name": "Pip the Gull", "appearance": "a cheeky grey gull"},
+                                {"name": "Bruno the Bear", "appearance": "a bear in a red hat"}],
+                 "panels": [{"characters": ["Bruno the Bear", "Pip the Gull"], "subject": "Pip lands on the boat",
+                             "context": "at sea"}]}
+                """;
+
+        StorySheetParser parser = new StorySheetParser(earlier);
+        List<String> prompts = new ArrayList<>(parser.append(sequel));
+        prompts.addAll(parser.finish());
+
+        assertThat(prompts).containsExactly("Style: watercolor. Color palette: soft blues. "
+                + "Subject: Pip lands on the boat. Characters: Bruno the Bear, a tall bear in a mint-green scarf; "
+                + "Pip the Gull, a cheeky grey gull. Context: at sea.");
+        assertThat(parser.sheet().getCharacters()).extracting(CharacterSheet::getName)
+                .containsExactly("Bruno the Bear", "Pip the Gull");
+        assertThat(parser.sheet().getPanels()).extracting(PanelScene::getSubject)
+                .containsExactly("Pip lands on the boat");
+    }
+
+    @Test
+    void findsUnlistedCharactersOnlyByTheirWholeName() {
+        StorySheet sheet = new StorySheet("watercolor", null, null, null,
+                List.of(new CharacterSheet("Al", "a small robot"), new CharacterSheet("Max", "a sleepy dog"),
+                        new CharacterSheet("Luna", "a white rabbit")),
+                List.of());
+        PanelScene scene = new PanelScene(List.of(), "Alice maxed out the score while Al cheered for (luna)", "at a fair");
+
+        assertThat(StoryPromptAssembler.assemble(sheet, scene))
+                .contains("Characters: Al, a small robot; Luna, a white rabbit.")
+                .doesNotContain("sleepy dog");
+    }
+
+    @Test
+    void splitsPromptsIntoSceneAndLook() throws Exception {
+        List<String> prompts = parse(SHEET, SHEET.length(), null);
+
+        assertThat(StoryPromptAssembler.split(prompts.get(0))).isEqualTo(new StoryPromptAssembler.PanelText(
+                "Bruno wakes up. in a cosy den.",
+                "Style: charming children's book illustration. Color palette: pastel greens. "
+                        + "Camera: eye-level three-quarter view. "
+                        + "Characters: Bruno the Bear, a tall bear with chestnut-brown fur and a mint-green scarf. "
+                        + "Avoid: outfit changes."));
+        // Prompts without a subject are compared whole.
+        assertThat(StoryPromptAssembler.split("A cat flying over Paris. Style: ink."))
+                .isEqualTo(new StoryPromptAssembler.PanelText("A cat flying over Paris. Style: ink.", ""));
+    }
+
+    @Test
+    void rejectsMalformedOrTruncatedSheets() {
+        assertThatThrownBy(() -> parse("[\"Style: a\"]", 100, null))
+                .isInstanceOf(MalformedStorySheetException.class);
+        assertThatThrownBy(() -> parse(SHEET.substring(0, SHEET.indexOf("\"panels\"")), 100, null))
+                .isInstanceOf(MalformedStorySheetException.class);
+    }
+
+    private static List<String> parse(String text, int chunkSize, StorySheet base) throws IOException {
+        StorySheetParser parser = new StorySheetParser(base);
+        List<String> prompts = new ArrayList<>();
+        for (int i = 0; i < text.length(); i += chunkSize) {
+            prompts.addAll(parser.append(text.substring(i, Math.min(text.length(), i + chunkSize))));
+        }
+        prompts.addAll(parser.finish());
+        return prompts;
+    }
+}
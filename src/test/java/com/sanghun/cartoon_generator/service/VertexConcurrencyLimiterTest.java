@@ -0,0 +1,57 @@
+package com.sanghun.cartoon_generator.service;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VertexConcurrencyLimiterTest {
+
+    private final VertexConcurrencyLimiter limiter = new VertexConcurrencyLimiter(1);
+
+    @Test
+    void handsTheFinishedCallsPermitToTheNextWaiterInOrder() {
+        Sinks.One<String> firstCall = Sinks.one();
+        List<String> started = new CopyOnWriteArrayList<>();
+        limiter.limit(firstCall.asMono().doOnSubscribe(subscription -> started.add("first"))).subscribe();
+        limiter.limit(call("second", started)).subscribe();
+        limiter.limit(call("third", started)).subscribe();
+        assertThat(limiter.getQueueLength()).isEqualTo(2);
+        assertThat(started).containsExactly("first");
+
+        firstCall.tryEmitValue("first");
+
+        assertThat(started).containsExactly("first", "second", "third");
+        assertThat(limiter.getAvailablePermits()).isEqualTo(1);
+        assertThat(limiter.getQueueLength()).isZero();
+    }
+
+    @Test
+    void aCancelledWaiterLeavesTheQueueAndItsTurnPassesOn() {
+        Sinks.One<String> firstCall = Sinks.one();
+        List<String> done = new CopyOnWriteArrayList<>();
+        Disposable first = limiter.limit(firstCall.asMono()).subscribe();
+        Disposable abandoned = limiter.limit(call("abandoned", done)).subscribe();
+        limiter.limit(call("third", done)).subscribe();
+
+        abandoned.dispose();
+        assertThat(limiter.getQueueLength()).isEqualTo(1);
+        // Cancelling the call holding the permit gives it back too.
+        first.dispose();
+
+        assertThat(done).containsExactly("third");
+        assertThat(limiter.getAvailablePermits()).isEqualTo(1);
+    }
+
+    private static Mono<String> call(String name, List<String> started) {
+        return Mono.fromSupplier(() -> {
+            started.add(name);
+            return name;
+        });
+    }
+}
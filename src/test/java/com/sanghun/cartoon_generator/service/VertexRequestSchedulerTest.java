@@ -0,0 +1,110 @@
+package com.sanghun.cartoon_generator.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.sanghun.cartoon_generator.service.VertexRequestScheduler.Api.IMAGEN;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.awaitility.Awaitility.await;
+
+class VertexRequestSchedulerTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    // 5 calls a second, a burst of one: after the first call, one call every 200 ms.
+    private final VertexRequestScheduler scheduler = new VertexRequestScheduler(5, 5, 0.2, 1, 0.1, 0.5);
+
+    @AfterEach
+    void tearDown() {
+        scheduler.destroy();
+    }
+
+    @Test
+    void grantsQueuedCallsRoundRobinAcrossStories() {
+        List<String> granted = new CopyOnWriteArrayList<>();
+
+        // The first story queues all of its panels before the second story arrives.
+        Mono.when(story("a", 4, granted), story("b", 2, granted)).block(Duration.ofSeconds(5));
+
+        assertThat(granted).containsExactly("a1", "a2", "b1", "a3", "b2", "a4");
+    }
+
+    @Test
+    void halvesTheRateOnThrottlingAtMostOncePerCooldown() {
+        scheduler.bindTo(registry);
+
+        scheduler.onThrottled(IMAGEN);
+        scheduler.onThrottled(IMAGEN);
+        assertThat(rate()).isEqualTo(2.5);
+
+        // The same burst of rejections keeps arriving; only one past the cool-down counts again.
+        await().atMost(Duration.ofSeconds(3)).untilAsserted(() -> {
+            scheduler.onThrottled(IMAGEN);
+            assertThat(rate()).isEqualTo(1.25);
+        });
+        assertThat(registry.get("cartoon.vertex.scheduler.throttled").tag("api", "imagen").functionCounter().count())
+                .isGreaterThan(3);
+    }
+
+    @Test
+    void recoversAdditivelyUpToTheQuota() {
+        scheduler.bindTo(registry);
+        scheduler.onThrottled(IMAGEN);
+
+        for (int i = 0; i < 5; i++) {
+            scheduler.onSuccess(IMAGEN);
+        }
+        assertThat(rate()).isCloseTo(3.0, within(1e-9));
+
+        for (int i = 0; i < 100; i++) {
+            scheduler.onSuccess(IMAGEN);
+        }
+        assertThat(rate()).isEqualTo(5.0);
+    }
+
+    @Test
+    void aCancelledCallLeavesTheQueueWithoutUsingAToken() {
+        scheduler.bindTo(registry);
+        scheduler.acquire(IMAGEN).contextWrite(VertexRequestScheduler.forStory("a")).block(Duration.ofSeconds(1));
+        AtomicBoolean cancelledGranted = new AtomicBoolean();
+        Disposable cancelled = scheduler.acquire(IMAGEN)
+                .doOnSuccess(ignored -> cancelledGranted.set(true))
+                .contextWrite(VertexRequestScheduler.forStory("a"))
+                .subscribe();
+        Mono<Void> next = scheduler.acquire(IMAGEN).contextWrite(VertexRequestScheduler.forStory("b"));
+        AtomicBoolean nextGranted = new AtomicBoolean();
+        next.doOnSuccess(ignored -> nextGranted.set(true)).subscribe();
+        assertThat(queued()).isEqualTo(2);
+
+        cancelled.dispose();
+
+        assertThat(queued()).isEqualTo(1);
+        await().atMost(Duration.ofSeconds(2)).untilTrue(nextGranted);
+        assertThat(queued()).isZero();
+        assertThat(cancelledGranted).isFalse();
+    }
+
+    private Mono<Void> story(String story, int calls, List<String> granted) {
+        return Flux.range(1, calls)
+                .flatMap(call -> scheduler.acquire(IMAGEN).doOnSuccess(ignored -> granted.add(story + call)))
+                .contextWrite(VertexRequestScheduler.forStory(story))
+                .then();
+    }
+
+    private double rate() {
+        return registry.get("cartoon.vertex.scheduler.rate").tag("api", "imagen").gauge().value();
+    }
+
+    private double queued() {
+        return registry.get("cartoon.vertex.scheduler.queue").tag("api", "imagen").gauge().value();
+    }
+}
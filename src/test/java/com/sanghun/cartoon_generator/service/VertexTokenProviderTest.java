@@ -0,0 +1,148 @@
+package com.sanghun.cartoon_generator.service;
+
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class VertexTokenProviderTest {
+
+    private static final Duration MARGIN = Duration.ofMinutes(5);
+
+    private final List<VertexTokenProvider> providers = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        providers.forEach(VertexTokenProvider::destroy);
+    }
+
+    @Test
+    void refreshesTheTokenInTheBackgroundBeforeItExpires() {
+        // Due for a refresh a second after it is issued.
+        FakeCredentials credentials = new FakeCredentials(MARGIN.plusSeconds(1));
+        VertexTokenProvider provider = provider(credentials);
+
+        // No caller ever asked for a token.
+        await().atMost(Duration.ofSeconds(5)).until(() -> "token-2".equals(bearer(provider.getCachedHeaders())));
+    }
+
+    @Test
+    void retriesAFailedBackgroundRefresh() {
+        FakeCredentials credentials = new FakeCredentials(Duration.ofHours(1));
+        credentials.failures.set(1);
+        VertexTokenProvider provider = provider(credentials);
+
+        // The first attempt failed and left no token behind; the retry got the second one.
+        await().atMost(Duration.ofSeconds(5)).until(() -> "token-2".equals(bearer(provider.getCachedHeaders())));
+        assertThat(credentials.failures).hasValue(0);
+    }
+
+    @Test
+    void refreshesOnTheCallerOnceTheTokenHasExpired() throws Exception {
+        FakeCredentials credentials = new FakeCredentials(Duration.ofMillis(200));
+        VertexTokenProvider provider = provider(credentials);
+        await().atMost(Duration.ofSeconds(5)).until(() -> provider.getCachedHeaders() != null);
+        // Background refreshes keep failing until the token runs out.
+        credentials.failures.set(Integer.MAX_VALUE);
+        await().atMost(Duration.ofSeconds(5)).until(() -> provider.getCachedHeaders() == null);
+
+        credentials.failures.set(0);
+        assertThat(bearer(provider.getHeaders())).startsWith("token-");
+        assertThat(provider.getCachedHeaders()).isNotNull();
+    }
+
+    @Test
+    void callersWaitingForATokenShareOneRefresh() throws Exception {
+        FakeCredentials credentials = new FakeCredentials(Duration.ofHours(1));
+        credentials.blocked = new CountDownLatch(1);
+        VertexTokenProvider provider = provider(credentials);
+        await().atMost(Duration.ofSeconds(5)).until(() -> credentials.refreshes.get() == 1);
+
+        ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            List<Future<HttpHeaders>> headers = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                headers.add(callers.submit(provider::getHeaders));
+            }
+            credentials.blocked.countDown();
+            for (Future<HttpHeaders> future : headers) {
+                assertThat(bearer(future.get(5, TimeUnit.SECONDS))).isEqualTo("token-1");
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+        assertThat(credentials.refreshes).hasValue(1);
+    }
+
+    @Test
+    void withoutAuthHandsOutHeadersWithoutAToken() throws Exception {
+        VertexTokenProvider provider = provider(null);
+
+        assertThat(provider.getHeaders().getFirst(HttpHeaders.AUTHORIZATION)).isNull();
+        assertThat(provider.getHeaders().getContentType()).hasToString("application/json");
+    }
+
+    private VertexTokenProvider provider(GoogleCredentials credentials) {
+        VertexTokenProvider provider = new VertexTokenProvider(credentials, MARGIN, Duration.ofSeconds(1));
+        providers.add(provider);
+        return provider;
+    }
+
+    private static String bearer(HttpHeaders headers) {
+        if (headers == null) {
+            return null;
+        }
+        String authorization = headers.getFirst(HttpHeaders.AUTHORIZATION);
+        return authorization != null ? authorization.substring("Bearer ".length()) : null;
+    }
+
+    /**
+     * Issues {@code token-1}, {@code token-2}, ... valid for {@code lifetime}, failing while {@code failures} is
+     * positive and, if {@code blocked} is set, only once it is released.
+     */
+    private static final class FakeCredentials extends GoogleCredentials {
+
+        private final Duration lifetime;
+        private final AtomicInteger refreshes = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile CountDownLatch blocked;
+
+        private FakeCredentials(Duration lifetime) {
+            this.lifetime = lifetime;
+        }
+
+        @Override
+        public AccessToken refreshAccessToken() throws IOException {
+            CountDownLatch latch = blocked;
+            refreshes.incrementAndGet();
+            if (latch != null) {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failures.getAndUpdate(left -> left > 0 ? left - 1 : left) > 0) {
+                throw new IOException("metadata server unavailable");
+            }
+            return new AccessToken("token-" + refreshes.get(), Date.from(Instant.now().plus(lifetime)));
+        }
+    }
+}